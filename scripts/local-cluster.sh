@@ -0,0 +1,30 @@
+#!/bin/bash
+# Sweeps the rotor keyspace of a ciphertext with a SweepCoordinator and several SweepWorker processes on this machine.
+# Usage: scripts/local-cluster.sh <ciphertext file> [workers=4] [port=7654]
+# The results go to data/cluster.results, the logs of the coordinator and the workers to target/.
+set -euo pipefail
+cd "$(dirname "$0")/.."
+input=${1:?Usage: scripts/local-cluster.sh <ciphertext file> [workers] [port]}
+workers=${2:-4}
+port=${3:-7654}
+
+mvn -q compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+java_cmd=(java --add-modules jdk.incubator.vector -cp "target/classes:$(cat target/classpath.txt)")
+
+"${java_cmd[@]}" es.usj.crypto.cluster.SweepCoordinator "$input" --port="$port" > target/coordinator.log 2>&1 &
+coordinator=$!
+trap 'kill $(jobs -p) 2> /dev/null || true' EXIT
+until grep -q "listening" target/coordinator.log; do
+    if ! kill -0 "$coordinator" 2> /dev/null; then
+        cat target/coordinator.log
+        exit 1
+    fi
+    sleep 0.2
+done
+for i in $(seq "$workers"); do
+    "${java_cmd[@]}" es.usj.crypto.cluster.SweepWorker --port="$port" > "target/worker-$i.log" 2>&1 &
+done
+echo "Coordinator on port $port with $workers workers, following target/coordinator.log"
+wait "$coordinator"
+wait
+tail -n 13 target/coordinator.log
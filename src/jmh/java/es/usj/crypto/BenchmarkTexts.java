@@ -0,0 +1,36 @@
+package es.usj.crypto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Texts and keys shared by the benchmarks.
+ */
+public class BenchmarkTexts {
+
+    /** The key of {@code Bombe.main}, with 10 plugs. */
+    public static final EnigmaConfig KEY = new EnigmaConfig(new int[]{3, 5, 4}, new char[]{'J', 'D', 'A'},
+            "XZ:AY:BW:CN:DP:EQ:FR:GT:HS:JU");
+
+    private BenchmarkTexts() {
+    }
+
+    /**
+     * @return The sample plain text, repeated or cut to the given number of characters.
+     */
+    public static String plainText(int length) {
+        String text;
+        try {
+            text = Files.readString(Paths.get("data/plain_text.txt")).trim();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Run the benchmarks from the project directory", e);
+        }
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(text).append(' ');
+        }
+        return builder.substring(0, length);
+    }
+}
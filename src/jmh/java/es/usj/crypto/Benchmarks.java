@@ -0,0 +1,40 @@
+package es.usj.crypto;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so every result comes with its allocation rate, and writes them to
+ * {@code target/jmh-results.json} unless another result file is given.
+ *
+ * Run from the project directory with {@code mvn -Pbenchmarks test-compile exec:exec}; JMH options go in
+ * {@code -Djmh.args="..."}, e.g. {@code -Djmh.args="SweepBenchmark -f 1 -i 3"}.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        // Maven passes the options as a single argument
+        String[] options = Arrays.stream(args)
+                .flatMap(arg -> Arrays.stream(arg.trim().split("\\s+")))
+                .filter(arg -> !arg.isEmpty())
+                .toArray(String[]::new);
+        CommandLineOptions commandLine = new CommandLineOptions(options);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (!commandLine.getJvmArgsAppend().hasValue()) {
+            // Forked JVMs need the vector API for the lane machines
+            builder.jvmArgsAppend("--add-modules", "jdk.incubator.vector");
+        }
+        if (!commandLine.getResult().hasValue()) {
+            builder.result("target/jmh-results.json").resultFormat(ResultFormatType.JSON);
+        }
+        new Runner(builder.build()).run();
+    }
+}
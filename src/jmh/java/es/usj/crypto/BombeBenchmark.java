@@ -0,0 +1,66 @@
+package es.usj.crypto;
+
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One Bombe menu evaluation: the 26 plugboard guesses for the most connected letter of the menu of {@code Bombe.main}
+ * at one rotor position, plus the scrambler states the menu needs at that position.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BombeBenchmark {
+
+    private Bombe bombe;
+    private ScramblerCatalogue catalogue;
+    private char letter;
+    private int[] rotorTypes;
+    private char[] rotorPositions;
+    private int[] states;
+
+    @Setup
+    public void setUp() throws IOException {
+        String cipherText = new FastMachine(BenchmarkTexts.KEY).getCipheredText(BenchmarkTexts.plainText(271).toUpperCase());
+        bombe = new Bombe(List.of(
+                Bombe.Crib.find(cipherText, "SYSTEMATICALLY"),
+                Bombe.Crib.find(cipherText, "CONTENTMENT")));
+        catalogue = ScramblerCatalogue.openOrBuild(Paths.get("data/scramblers.bin"));
+        letter = bombe.letterConnections.entrySet().stream()
+                .max(Comparator.comparingInt(entry -> entry.getValue().size()))
+                .map(Map.Entry::getKey)
+                .orElseThrow();
+        rotorTypes = BenchmarkTexts.KEY.getRotorTypes();
+        rotorPositions = BenchmarkTexts.KEY.getRotorPositions();
+        states = bombe.statesAtSteps(rotorTypes, rotorPositions);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        catalogue.close();
+    }
+
+    @Benchmark
+    public void menu(Blackhole blackhole) {
+        for (char map = 'A'; map <= 'Z'; map++) {
+            blackhole.consume(bombe.testStop(letter, map, rotorTypes, rotorPositions, catalogue, states));
+        }
+    }
+
+    @Benchmark
+    public int[] statesAtSteps() {
+        return bombe.statesAtSteps(rotorTypes, rotorPositions);
+    }
+}
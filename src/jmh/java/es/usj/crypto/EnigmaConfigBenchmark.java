@@ -0,0 +1,69 @@
+package es.usj.crypto;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The plugboard operations of {@link EnigmaConfig} used by the plugboard search of {@code Main} and the Bombe.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnigmaConfigBenchmark {
+
+    private static final String PLUGBOARD = BenchmarkTexts.KEY.getPlugboard();
+    private static final List<String> PLUGS = List.of(PLUGBOARD.split(":"));
+
+    private EnigmaConfig config;
+
+    @Setup
+    public void setUp() {
+        config = new EnigmaConfig(BenchmarkTexts.KEY);
+    }
+
+    /** Builds a 10 plug board one plug at a time, as a plugboard round of {@code Main} does. */
+    @Benchmark
+    public EnigmaConfig addPlugs() {
+        EnigmaConfig built = new EnigmaConfig(BenchmarkTexts.KEY.getRotorTypes(), BenchmarkTexts.KEY.getRotorPositions(), "");
+        for (String plug : PLUGS) {
+            built.addPlug(plug);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public EnigmaConfig setPlugboard() {
+        EnigmaConfig built = new EnigmaConfig(BenchmarkTexts.KEY.getRotorTypes(), BenchmarkTexts.KEY.getRotorPositions(), "");
+        built.setPlugboard(PLUGBOARD);
+        return built;
+    }
+
+    /** Looks up the partner of every letter, as the Bombe does for each deduction. */
+    @Benchmark
+    public void findMapping(Blackhole blackhole) {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            blackhole.consume(config.findMapping(c));
+        }
+    }
+
+    @Benchmark
+    public String fixedPlugboard() {
+        return config.getFixedPlugboard(5);
+    }
+
+    @Benchmark
+    public EnigmaConfig copy() {
+        return new EnigmaConfig(config);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return config.hashCode();
+    }
+}
@@ -0,0 +1,67 @@
+package es.usj.crypto.Fitness;
+
+import es.usj.crypto.BenchmarkTexts;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each scorer of {@link Score#evaluate(String)} on its own, and the combined score, on a deciphered text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FitnessBenchmark {
+
+    @Param({"100", "1000"})
+    private int length;
+
+    private String text;
+    private BigramFitness bigramFitness;
+    private TrigramFitness trigramFitness;
+    private QuadgramFitness quadgramFitness;
+    private EnglishWordChecker englishWordChecker;
+
+    @Setup
+    public void setUp() {
+        text = BenchmarkTexts.plainText(length).toUpperCase(Locale.ROOT);
+        bigramFitness = new BigramFitness();
+        trigramFitness = new TrigramFitness();
+        quadgramFitness = new QuadgramFitness();
+        englishWordChecker = new EnglishWordChecker();
+    }
+
+    @Benchmark
+    public double bigrams() {
+        return bigramFitness.score(text);
+    }
+
+    @Benchmark
+    public double trigrams() {
+        return trigramFitness.score(text);
+    }
+
+    @Benchmark
+    public double quadgrams() {
+        return quadgramFitness.score(text);
+    }
+
+    @Benchmark
+    public double englishWords() {
+        return englishWordChecker.score(text);
+    }
+
+    @Benchmark
+    public double indexOfCoincidence() {
+        return IndexOfCoincidence.score(text);
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return Score.evaluate(text);
+    }
+}
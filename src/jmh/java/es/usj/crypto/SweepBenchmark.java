@@ -0,0 +1,59 @@
+package es.usj.crypto;
+
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import es.usj.crypto.utils.EnigmaManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One rotor order of the sweep of {@code Main}: the 17,576 start positions of the order of the sample key, scored on
+ * the manager's threads, with the position sweep {@code Main} runs and with the lane pipeline it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SweepBenchmark {
+
+    private int[] rotorTypes;
+    private List<EnigmaConfig> configs;
+    private EnigmaManager manager;
+
+    @Setup
+    public void setUp() {
+        EnigmaConfig key = new EnigmaConfig(BenchmarkTexts.KEY.getRotorTypes(), BenchmarkTexts.KEY.getRotorPositions(), "");
+        manager = new EnigmaManager();
+        manager.setText(new FastMachine(key).getCipheredText(BenchmarkTexts.plainText(271)));
+        rotorTypes = key.getRotorTypes();
+        configs = new ArrayList<>(ScramblerCatalogue.STATES);
+        for (char a = 'A'; a <= 'Z'; a++) {
+            for (char b = 'A'; b <= 'Z'; b++) {
+                for (char c = 'A'; c <= 'Z'; c++) {
+                    configs.add(new EnigmaConfig(rotorTypes, new char[]{a, b, c}, ""));
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Benchmark
+    public double[] rotorOrder() {
+        return manager.scoreRotorPositions(rotorTypes);
+    }
+
+    @Benchmark
+    public List<EnigmaConfig> rotorOrderInLanes() {
+        manager.scoreConfigurationsInLanes(configs, false);
+        return configs;
+    }
+}
@@ -0,0 +1,49 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.BenchmarkTexts;
+import es.usj.crypto.Bombe;
+import es.usj.crypto.EnigmaConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ciphering a message with the reference {@link Machine} and with {@link FastMachine}, from the start position every
+ * time as {@code Main} does for each key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MachineBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int length;
+
+    private EnigmaConfig key;
+    private String text;
+    private Machine machine;
+    private FastMachine fastMachine;
+
+    @Setup
+    public void setUp() {
+        key = BenchmarkTexts.KEY;
+        text = BenchmarkTexts.plainText(length);
+        machine = Bombe.createMachine(key);
+        fastMachine = new FastMachine(key);
+    }
+
+    @Benchmark
+    public String machine() {
+        machine.applyConfig(key);
+        return machine.getCipheredText(text);
+    }
+
+    @Benchmark
+    public String fastMachine() {
+        fastMachine.setRotorPositions(key.getRotorPositions());
+        return fastMachine.getCipheredText(text);
+    }
+}
@@ -1,24 +1,37 @@
 package es.usj.crypto;
 
 import es.usj.crypto.enigma.EnigmaApp;
+import es.usj.crypto.enigma.FastMachine;
 import es.usj.crypto.enigma.Machine;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import es.usj.crypto.utils.Checkpoint;
 import es.usj.crypto.utils.EnigmaManager;
 import es.usj.crypto.utils.ProgressBar;
+import es.usj.crypto.utils.SearchBudget;
+import es.usj.crypto.utils.SearchEvents;
+import es.usj.crypto.utils.SearchMetrics;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import static es.usj.crypto.Main.generatePlugboardConfig;
+import static es.usj.crypto.KeySearch.generatePlugboardConfig;
 
 public class Bombe {
 
-    String ciphertext;
-    String crib;
-    int initialStep;
+    private static final Path CHECKPOINT_PATH = Paths.get("data/bombe.checkpoint");
+    // Confirmed keys kept in the checkpoint
+    private static final int CONFIRMED_TO_KEEP = 100;
+
+    final List<Crib> cribs;
     private final List<String> steps;
+    private final int maxStep;
     public final Map<Character, List<Map.Entry<Character, Integer>>> letterConnections;
+    private final Queue<Machine> machinePool = new ConcurrentLinkedQueue<>();
 
 
     public Machine getMachineFromPool(EnigmaConfig config) {
@@ -37,32 +50,117 @@ public class Bombe {
         machinePool.offer(machine);
     }
 
-    public Bombe(EnigmaConfig config, String ciphertext, String crib, int initialStep) {
-        this.ciphertext = ciphertext;
-        this.crib = crib;
-        this.initialStep = initialStep;
+    public Bombe(String ciphertext, String crib, int initialStep) {
+        this(List.of(new Crib(crib, ciphertext, initialStep)));
+    }
+
+    /**
+     * Builds a single menu out of several cribs, so every fragment is checked in the same sweep.
+     *
+     * @param cribs Probable plaintext fragments aligned with their ciphertext.
+     */
+    public Bombe(List<Crib> cribs) {
+        this.cribs = List.copyOf(cribs);
         this.steps = new ArrayList<>();
         this.letterConnections = buildMenu();
+        this.maxStep = cribs.stream().mapToInt(crib -> crib.initialStep() + crib.plaintext().length()).max().orElse(0);
+    }
+
+    /**
+     * Computes the catalogue state of the scrambler at every step of the menu.
+     *
+     * @param rotorTypes Rotor types, left to right.
+     * @param rotorPositions Initial rotor positions, left to right.
+     * @return The state index after each number of steps, from 0 to the last step used by the menu.
+     */
+    public int[] statesAtSteps(int[] rotorTypes, char[] rotorPositions) {
+        int[] states = new int[maxStep + 1];
+        FastMachine machine = new FastMachine(new EnigmaConfig(rotorTypes, rotorPositions, ""));
+        states[0] = ScramblerCatalogue.stateIndex(rotorPositions);
+        for (int step = 1; step <= maxStep; step++) {
+            machine.step();
+            states[step] = ScramblerCatalogue.stateIndex(machine.getRotorPositions());
+        }
+        return states;
+    }
+
+    /**
+     * A probable plaintext fragment aligned with the ciphertext.
+     *
+     * @param plaintext The guessed plaintext letters.
+     * @param ciphertext The ciphertext letters at the same place in the message.
+     * @param initialStep Number of letters in the message before the fragment.
+     */
+    public record Crib(String plaintext, String ciphertext, int initialStep) {
+
+        public Crib {
+            if (plaintext.length() != ciphertext.length()) {
+                throw new IllegalArgumentException("Crib " + plaintext + " and ciphertext " + ciphertext + " must have the same length");
+            }
+            for (int i = 0; i < plaintext.length(); i++) {
+                // The machine never ciphers a letter into itself
+                if (plaintext.charAt(i) == ciphertext.charAt(i)) {
+                    throw new IllegalArgumentException("Crib " + plaintext + " cannot be placed over " + ciphertext);
+                }
+            }
+        }
 
+        /**
+         * Places a crib over the first ciphertext word of the same length it can be aligned with.
+         *
+         * @param message The full ciphertext, with words separated by spaces.
+         * @param plaintext The guessed plaintext word.
+         * @return The aligned crib.
+         * @throws NoSuchElementException if no word fits the crib.
+         */
+        public static Crib find(String message, String plaintext) {
+            int index = 0;
+            for (String word : message.split(" ")) {
+                if (word.length() == plaintext.length() && !selfCiphers(plaintext, word)) {
+                    return new Crib(plaintext, word, index);
+                }
+                index += word.length();
+            }
+            throw new NoSuchElementException("No place found for crib " + plaintext);
+        }
+
+        private static boolean selfCiphers(String plaintext, String ciphertext) {
+            for (int i = 0; i < plaintext.length(); i++) {
+                if (plaintext.charAt(i) == ciphertext.charAt(i)) return true;
+            }
+            return false;
+        }
     }
 
     private Map<Character, List<Map.Entry<Character, Integer>>> buildMenu() {
         Map<Character, List<Map.Entry<Character, Integer>>> menu = new LinkedHashMap<>();
+        Map<Integer, Character> plainAtStep = new HashMap<>();
+
+        for (Crib crib : cribs) {
+            for (int i = 0; i < crib.plaintext().length(); i++) {
+                char plainChar = crib.plaintext().charAt(i);
+                char cipherChar = crib.ciphertext().charAt(i);
+                int stepNumber = crib.initialStep() + i + 1;
+
+                // Overlapping cribs must agree on the letters they share
+                Character previous = plainAtStep.putIfAbsent(stepNumber, plainChar);
+                if (previous != null) {
+                    if (previous != plainChar) {
+                        throw new IllegalArgumentException("Cribs disagree at step " + stepNumber + ": " + previous + " / " + plainChar);
+                    }
+                    continue;
+                }
 
-        for (int i = initialStep; i < crib.length(); i++) {
-            char plainChar = crib.charAt(i);
-            char cipherChar = ciphertext.charAt(i);
-            int stepNumber =  initialStep + i + 1;
-
-            menu.putIfAbsent(plainChar, new ArrayList<>());
-            menu.putIfAbsent(cipherChar, new ArrayList<>());
+                menu.putIfAbsent(plainChar, new ArrayList<>());
+                menu.putIfAbsent(cipherChar, new ArrayList<>());
 
-            menu.get(plainChar).add(new AbstractMap.SimpleEntry<>(cipherChar, stepNumber));
-            menu.get(cipherChar).add(new AbstractMap.SimpleEntry<>(plainChar, stepNumber));
+                menu.get(plainChar).add(new AbstractMap.SimpleEntry<>(cipherChar, stepNumber));
+                menu.get(cipherChar).add(new AbstractMap.SimpleEntry<>(plainChar, stepNumber));
 
-            String step = "Step " + stepNumber + ": " + plainChar + " <-> " + cipherChar;
-            steps.add(step);
-            System.out.println(step);
+                String step = "Step " + stepNumber + ": " + plainChar + " <-> " + cipherChar;
+                steps.add(step);
+                System.out.println(step);
+            }
         }
 
         // Log the menu
@@ -84,12 +182,23 @@ public class Bombe {
                 "--middle-rotor=" + config.getRotorTypes()[1],
                 "--middle-rotor-position=" + config.getRotorPositions()[1],
                 "--right-rotor=" + config.getRotorTypes()[2],
-                "--right-rotor-position=" + config.getRotorPositions()[2]
+                "--right-rotor-position=" + config.getRotorPositions()[2],
+                "--ring-settings=" + new String(config.getRingSettings())
         };
         return new EnigmaApp().createMachine(args);
     }
 
+    /**
+     * @param args optional {@code --resume} to continue from the checkpoint, {@code --metrics-port=<port>} to serve
+     *             the search metrics for Prometheus, see {@link SearchMetrics}, and {@code --profile[=<file>]} to record
+     *             the run with Java Flight Recorder, see {@link SearchEvents}; {@code --timeout=<seconds>} and
+     *             {@code --max-evaluations=<keys>} bound the sweep, see {@link SearchBudget}, which then stops after
+     *             the unit in progress and keeps the checkpoint for {@code --resume}
+     */
     public static void main(String[] args) {
+        SearchEvents.recordIfRequested(args, "bombe");
+        SearchMetrics.serveIfRequested(args);
+        SearchBudget budget = SearchBudget.fromArgs(args).cancelOnShutdown();
         EnigmaConfig config = new EnigmaConfig(new int[]{3, 5, 4}, new char[]{'J', 'D', 'A'}, "XZ:AY:BW:CN:DP:EQ:FR:GT:HS:JU");
         EnigmaManager enigmaManager = new EnigmaManager(Paths.get("data/plain_text.txt"));
         String txt = enigmaManager.process(config);
@@ -105,27 +214,27 @@ public class Bombe {
         // Try to decipher the text with bombe approach
         // let's start it simple
 
-        String crib = "SYSTEMATICALLY";
-        // Find ciphertext from the txt finding first word with same length as crib
-        int index = 0;
-        String ciphertext = "";
-        for (String word : txt.split(" ")) {
-            if (word.length() == crib.length()) {
-                ciphertext = word;
-                break;
-            }
-            index += word.length();
-        }
-        if (ciphertext.isEmpty()) {
-            throw new NoSuchElementException();
+        // Scrambler permutations are read from the shared catalogue instead of building machines
+        ScramblerCatalogue catalogue;
+        try {
+            catalogue = ScramblerCatalogue.openOrBuild(Paths.get("data/scramblers.bin"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
 
-        System.out.println("Ciphertext: " + ciphertext);
-        System.out.println("Crib: " + crib);
-        System.out.println("Index: " + index);
+        // A header and a signature, merged into one menu
+        List<Crib> cribs = List.of(
+                Crib.find(txt, "SYSTEMATICALLY"),
+                Crib.find(txt, "CONTENTMENT")
+        );
+        for (Crib crib : cribs) {
+            System.out.println("Ciphertext: " + crib.ciphertext());
+            System.out.println("Crib: " + crib.plaintext());
+            System.out.println("Index: " + crib.initialStep());
+        }
 
         // Create a menu mapping each letter from ciphertext to the possible letters from crib manually
-        Bombe bombe = new Bombe(config, ciphertext, crib, index);
+        Bombe bombe = new Bombe(cribs);
       
         // Get the letter with most connections
         char letter = bombe.letterConnections.entrySet().stream()
@@ -138,66 +247,78 @@ public class Bombe {
 
 
 
+        // Progress is saved per rotor order and left position, so --resume skips the units already swept
+        String fingerprint = Checkpoint.fingerprint("Bombe", txt, cribs);
+        Checkpoint checkpoint = Arrays.asList(args).contains("--resume")
+                ? Checkpoint.resume(CHECKPOINT_PATH, cipherText -> fingerprint).orElse(null)
+                : null;
+        if (checkpoint == null) {
+            checkpoint = new Checkpoint(fingerprint, txt, CONFIRMED_TO_KEEP);
+        }
+        Checkpoint progress = checkpoint;
+
         List<EnigmaConfig> validConfigs = new ArrayList<>();
+        // Stops are verified on worker threads while the sweep continues
+        BombeStopVerifier verifier = new BombeStopVerifier(txt, bombe.letterConnections, confirmedConfig -> {
+            System.out.println("\nConfirmed key: " + confirmedConfig);
+            progress.offer(confirmedConfig);
+        });
 
         int total = 5 * 4 * 3; // Rotors
         total *= 26 * 26 * 26; // Positions
         total *= 26; // Mappings
-        ProgressBar progressBar = new ProgressBar(total);
+        ProgressBar progressBar = new ProgressBar("bombe", total);
+        int validBefore = 0;
 
         // We would iterate through configs but let's just get correct one without plugboard for now:
         //EnigmaConfig correctConfig = new EnigmaConfig(new int[]{3, 1, 4}, new char[]{'J', 'D', 'A'}, "");
 
+        search:
         for (int L = 1; L <= 5; L++) {
             for (int M = 1; M <= 5; M++) {
                 if (L == M) continue;
                 for (int R = 1; R <= 5; R++) {
                     if (R == L || R == M) continue;
                     for (char LPos = 'A'; LPos <= 'Z'; LPos++) {
+                        int unit = ScramblerCatalogue.orderIndex(L, M, R) * 26 + (LPos - 'A');
+                        if (checkpoint.isCompleted(unit)) {
+                            progressBar.add(26 * 26 * 26);
+                            continue;
+                        }
+                        if (budget.isExhausted()) {
+                            break search;
+                        }
+                        SearchEvents.KeyspaceEnumeration event = new SearchEvents.KeyspaceEnumeration();
+                        event.begin();
                         for (char MPos = 'A'; MPos <= 'Z'; MPos++) {
                             for (char RPos = 'A'; RPos <= 'Z'; RPos++) {
+                                int[] states = bombe.statesAtSteps(new int[]{L, M, R}, new char[]{LPos, MPos, RPos});
                                 for (char map = 'A'; map <= 'Z'; map++) {
-                                    total++;
-
-                                    EnigmaConfig correctConfig = new EnigmaConfig(new int[]{L, M, R}, new char[]{LPos, MPos, RPos}, "");
-                                    correctConfig.addPlug(letter + "" + map);
-
-                                    List<char[]> testedMappings = new ArrayList<>();
-                                    testedMappings.add(new char[]{letter, map});
-
-                                    Map<Character, List<Map.Entry<Character, Integer>>> currentMappings = new HashMap<>();
-                                    currentMappings.put(letter, new ArrayList<>(bombe.letterConnections.get(letter)));
-                                    //System.out.println("Current mappings initial: " + currentMappings);
-
-                                    boolean validConfig = true;
-
-                                    while (!currentMappings.isEmpty()) {
-                                        //System.out.println("Current plugboard: " + correctConfig.getPlugboard());
-                                        //System.out.println("Current mappings: " + currentMappings);
-                                        //System.out.println("Tested mappings: ");
-                                        //testedMappings.forEach(mapping -> System.out.println(mapping[0] + "<->" + mapping[1]));
-                                        try {
-                                            testDeduction(currentMappings, correctConfig, testedMappings);
-                                            //System.out.println("Tested mappings After: ");
-                                            //testedMappings.forEach(mapping -> System.out.println(mapping[0] + "<->" + mapping[1]));
-                                        } catch (AssertionError e) {
-                                            //System.out.println("Not valid config\nError: " + e.getMessage());
-                                            validConfig = false;
-                                            break;
-                                        }
-
-                                        currentMappings = getNextConnections(testedMappings, bombe);
-                                    }
-
-                                    if (validConfig) {
-                                        validConfigs.add(correctConfig);
-                                        //System.out.println("Final config: " + correctConfig);
+                                    EnigmaConfig stop = bombe.testStop(letter, map, new int[]{L, M, R}, new char[]{LPos, MPos, RPos}, catalogue, states);
+                                    if (stop != null) {
+                                        validConfigs.add(stop);
+                                        verifier.submit(stop);
                                     }
                                 }
 
                             }
+                            SearchMetrics.stageEntered("bombe.menu", 26 * 26);
                             progressBar.add(26 * 26);
                         }
+                        // Stops of this unit are still being verified; keys confirmed after the last save are lost on a crash
+                        checkpoint.addCounter("tested", 26 * 26 * 26);
+                        checkpoint.addCounter("valid", validConfigs.size() - validBefore);
+                        SearchMetrics.stageSurvived("bombe.menu", validConfigs.size() - validBefore);
+                        if (event.shouldCommit()) {
+                            event.search = "bombe";
+                            event.unit = L + "," + M + "," + R + " " + LPos;
+                            event.candidates = 26 * 26 * 26;
+                            event.commit();
+                        }
+                        validBefore = validConfigs.size();
+                        budget.charge(26 * 26 * 26);
+                        checkpoint.markCompleted(unit);
+                        checkpoint.saveIfDue(CHECKPOINT_PATH);
                     }
                 }
             }
@@ -205,17 +326,73 @@ public class Bombe {
 
 
 
-        //System.out.println("Valid configs:");
-        validConfigs.forEach(System.out::println);
-        System.out.println("Total valid configs: " + validConfigs.size());
-        System.out.println("Total configs tested: " + total);
-        System.out.println("% of valid configs: " + (double) validConfigs.size() / total * 100 + "%");
+        progressBar.finish();
+        verifier.awaitConfirmed();
+        budget.release();
+        System.out.println("Confirmed keys:");
+        checkpoint.top().forEach(System.out::println);
+        System.out.println("Rejected stops: " + verifier.getRejectedCount());
+        long valid = checkpoint.getCounter("valid");
+        long tested = checkpoint.getCounter("tested");
+        System.out.println("Total valid configs: " + valid);
+        System.out.println("Total configs tested: " + tested);
+        System.out.println("% of valid configs: " + (double) valid / tested * 100 + "%");
 
         // Check if original config was found and show it if it does
         if (validConfigs.stream().anyMatch(currConfig -> currConfig.equalsWithoutPlugboard(config))) {
             System.out.println("Original config found!");
         }
 
+        try {
+            catalogue.close();
+            if (budget.reason() != null) {
+                checkpoint.save(CHECKPOINT_PATH);
+                System.out.println("Sweep " + budget + ", resume it with --resume");
+            } else {
+                Files.deleteIfExists(CHECKPOINT_PATH);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            SearchMetrics.stop();
+            SearchEvents.stopRecording();
+        }
+
+    }
+
+    /**
+     * Follows the menu from a guess for the plugboard partner of a letter, deducing the partner of every connected
+     * letter through the scrambler at each step.
+     *
+     * @param letter The letter the menu starts from, usually the one with most connections.
+     * @param map The guessed plugboard partner of the letter.
+     * @param rotorTypes Rotor types, left to right.
+     * @param rotorPositions Initial rotor positions, left to right.
+     * @param catalogue Scrambler permutations.
+     * @param states The states of {@link #statesAtSteps(int[], char[])} for these rotors.
+     * @return The configuration with the deduced plugs, or {@code null} if the menu contradicts the guess.
+     */
+    public EnigmaConfig testStop(char letter, char map, int[] rotorTypes, char[] rotorPositions,
+                                 ScramblerCatalogue catalogue, int[] states) {
+        int order = ScramblerCatalogue.orderIndex(rotorTypes);
+        EnigmaConfig correctConfig = new EnigmaConfig(rotorTypes, rotorPositions, "");
+        correctConfig.addPlug(letter + "" + map);
+
+        List<char[]> testedMappings = new ArrayList<>();
+        testedMappings.add(new char[]{letter, map});
+
+        Map<Character, List<Map.Entry<Character, Integer>>> currentMappings = new HashMap<>();
+        currentMappings.put(letter, new ArrayList<>(letterConnections.get(letter)));
+
+        while (!currentMappings.isEmpty()) {
+            try {
+                testDeduction(currentMappings, correctConfig, testedMappings, catalogue, order, states);
+            } catch (AssertionError e) {
+                return null;
+            }
+            currentMappings = getNextConnections(testedMappings, this);
+        }
+        return correctConfig;
     }
 
     private static Map<Character, List<Map.Entry<Character, Integer>>> getNextConnections(List<char[]> testedMappings, Bombe bombe) {
@@ -247,12 +424,12 @@ public class Bombe {
         return currentMappings;
     }
 
-    private static void testDeduction(Map<Character, List<Map.Entry<Character, Integer>>> currentMappings, EnigmaConfig correctConfig, List<char[]> testedMappings)  throws AssertionError{
+    private static void testDeduction(Map<Character, List<Map.Entry<Character, Integer>>> currentMappings, EnigmaConfig correctConfig, List<char[]> testedMappings,
+                                      ScramblerCatalogue catalogue, int order, int[] states)  throws AssertionError{
         for (char letter : currentMappings.keySet()) {
             for (Map.Entry<Character, Integer> connection : currentMappings.get(letter)) {
-                Machine machine = createMachine(correctConfig);
-                machine.getCipheredText("A".repeat(connection.getValue()));
-                char c = machine.cipherCharacter(letter);
+                int input = correctConfig.findMapping(letter) - 'A';
+                char c = (char) ('A' + catalogue.scramble(order, states[connection.getValue()], input));
                 //System.out.println("Step " + connection.getValue() + ": " + connection.getKey() + "<->" + c);
                 correctConfig.addPlug(connection.getKey() + "" + c);
                 testedMappings.add(new char[]{connection.getKey(), c});
@@ -0,0 +1,265 @@
+package es.usj.crypto;
+
+import es.usj.crypto.Fitness.BatchScore;
+import es.usj.crypto.Fitness.Score;
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.LaneMachine;
+import es.usj.crypto.utils.SearchEvents;
+import es.usj.crypto.utils.SearchMetrics;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Verification stage for Bombe stops.
+ *
+ * A stop only fixes the rotor types, the rotor positions and the plugboard pairs deduced from the menu. Each stop
+ * submitted to this class is verified on a worker thread while the sweep keeps running:
+ * <ul>
+ *   <li>The remaining plugboard pairs reachable from the menu are completed by constraint propagation, rejecting
+ *   the stop as soon as a contradiction appears.</li>
+ *   <li>The pairs that the menu cannot reach are recovered with a short greedy hill-climb on quadgrams, scored by a
+ *   {@link PlugboardScorer} so that a candidate plugboard costs three lookups per letter rather than a decryption.</li>
+ *   <li>The full message is deciphered with the {@link FastMachine} and scored with {@link Score#evaluate(String)}.</li>
+ * </ul>
+ * Stops scoring above {@link #CONFIRMATION_SCORE} are reported to the listener immediately. A stop whose verification
+ * fails is not taken for a rejected one: the failure is rethrown by {@link #awaitConfirmed()}.
+ */
+public class BombeStopVerifier {
+
+    private static final int PLUGBOARD_SIZE = 10;
+    private static final double CONFIRMATION_SCORE = 0.8;
+    private static final int MAX_QUEUE_SIZE = 10000;
+
+    private final String ciphertext;
+    private final LaneMachine.Text text;
+    private final float[] quadgrams = BatchScore.quadgramLogProbabilities();
+    private final Map<Character, List<Map.Entry<Character, Integer>>> menu;
+    private final int maxStep;
+    private final Consumer<EnigmaConfig> listener;
+    private final ExecutorService executor;
+    private final Queue<CompletableFuture<Void>> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<EnigmaConfig> confirmed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    /**
+     * @param ciphertext The full intercepted message.
+     * @param menu The Bombe menu: each letter mapped to the letters it is connected to and the step of the connection.
+     * @param listener Called from a worker thread for every confirmed key.
+     */
+    public BombeStopVerifier(String ciphertext, Map<Character, List<Map.Entry<Character, Integer>>> menu,
+                             Consumer<EnigmaConfig> listener) {
+        this.ciphertext = ciphertext;
+        this.text = LaneMachine.Text.compile(ciphertext);
+        this.menu = menu;
+        this.maxStep = menu.values().stream()
+                .flatMap(List::stream)
+                .mapToInt(Map.Entry::getValue)
+                .max()
+                .orElse(0);
+        this.listener = listener;
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUE_SIZE),
+                new ThreadPoolExecutor.CallerRunsPolicy() // Slow the sweep down instead of buffering every stop
+        );
+    }
+
+    /**
+     * Queues a stop for verification. The configuration is copied, so the caller may keep modifying it.
+     *
+     * @param stop Rotor types, rotor positions and the partial plugboard found by the Bombe.
+     */
+    public void submit(EnigmaConfig stop) {
+        EnigmaConfig copy = new EnigmaConfig(stop);
+        SearchMetrics.stageEntered("bombe.verify", 1);
+        pending.add(CompletableFuture.runAsync(() -> verify(copy).ifPresentOrElse(config -> {
+            SearchMetrics.stageSurvived("bombe.verify", 1);
+            confirmed.add(config);
+            listener.accept(config);
+        }, rejected::incrementAndGet), executor));
+    }
+
+    /**
+     * Waits for every submitted stop to be verified and stops the worker threads.
+     *
+     * @return The confirmed keys, best score first.
+     * @throws CompletionException if the verification of a stop failed, once every other stop is verified.
+     */
+    public List<EnigmaConfig> awaitConfirmed() {
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+        List<EnigmaConfig> result = new ArrayList<>(confirmed);
+        result.sort(Comparator.comparingDouble(EnigmaConfig::getScore).reversed());
+        return result;
+    }
+
+    public int getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Completes and scores a single stop.
+     *
+     * @param stop The stop to verify.
+     * @return The completed configuration if it deciphers the message into English.
+     */
+    Optional<EnigmaConfig> verify(EnigmaConfig stop) {
+        SearchEvents.BombeStop event = new SearchEvents.BombeStop();
+        event.begin();
+        int[] plugboard = propagate(stop);
+        if (plugboard == null) {
+            commit(event, stop, false, 0);
+            return Optional.empty();
+        }
+
+        climb(new PlugboardScorer(stop, text), plugboard);
+
+        EnigmaConfig result = new EnigmaConfig(stop.getRotorTypes(), stop.getRotorPositions(), toPlugboardString(plugboard));
+        result.setScore(score(new FastMachine(stop), plugboard));
+        boolean confirmed = result.getScore() >= CONFIRMATION_SCORE;
+        commit(event, stop, confirmed, result.getScore());
+        return confirmed ? Optional.of(result) : Optional.empty();
+    }
+
+    /**
+     * Fills and commits the event of a verified stop, only if it is recorded, so the key is not formatted otherwise.
+     */
+    private static void commit(SearchEvents.BombeStop event, EnigmaConfig stop, boolean confirmed, double score) {
+        if (event.shouldCommit()) {
+            event.key = stop.toString();
+            event.confirmed = confirmed;
+            event.score = score;
+            event.commit();
+        }
+    }
+
+    /**
+     * Extends the partial plugboard of a stop with every pair implied by the menu.
+     *
+     * @param stop The stop to complete.
+     * @return The plugboard as letter indices (-1 for letters the menu cannot reach), or {@code null} if the menu
+     * contradicts the stop.
+     */
+    int[] propagate(EnigmaConfig stop) {
+        int[] plugboard = new int[FastMachine.SIZE];
+        Arrays.fill(plugboard, -1);
+        if (!stop.getPlugboard().isEmpty()) {
+            for (String pair : stop.getPlugboard().split(":")) {
+                plugboard[pair.charAt(0) - 'A'] = pair.charAt(1) - 'A';
+                plugboard[pair.charAt(1) - 'A'] = pair.charAt(0) - 'A';
+            }
+        }
+
+        // Scrambler permutation at every step used by the menu
+        int[][] scramblers = new int[maxStep + 1][];
+        FastMachine machine = new FastMachine(new EnigmaConfig(stop.getRotorTypes(), stop.getRotorPositions(), ""));
+        for (int step = 1; step <= maxStep; step++) {
+            machine.step();
+            scramblers[step] = new int[FastMachine.SIZE];
+            for (int c = 0; c < FastMachine.SIZE; c++) {
+                scramblers[step][c] = machine.scramble(c);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Character, List<Map.Entry<Character, Integer>>> entry : menu.entrySet()) {
+                int a = entry.getKey() - 'A';
+                if (plugboard[a] < 0) continue;
+                for (Map.Entry<Character, Integer> connection : entry.getValue()) {
+                    int b = connection.getKey() - 'A';
+                    int deduced = scramblers[connection.getValue()][plugboard[a]];
+                    if (plugboard[b] < 0) {
+                        if (plugboard[deduced] >= 0 && plugboard[deduced] != b) {
+                            return null;
+                        }
+                        plugboard[b] = deduced;
+                        plugboard[deduced] = b;
+                        changed = true;
+                    } else if (plugboard[b] != deduced) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        return countPairs(plugboard) > PLUGBOARD_SIZE ? null : plugboard;
+    }
+
+    /**
+     * Greedily adds the plugboard pair that improves the quadgram score the most, until no pair helps or every cable is
+     * used. Letters the menu could not reach start unplugged.
+     *
+     * @param scorer Scorer of the stop.
+     * @param plugboard Plugboard from {@link #propagate(EnigmaConfig)}, completed in place.
+     */
+    private void climb(PlugboardScorer scorer, int[] plugboard) {
+        List<Integer> free = new ArrayList<>();
+        for (int c = 0; c < FastMachine.SIZE; c++) {
+            if (plugboard[c] < 0) {
+                plugboard[c] = c;
+                free.add(c);
+            }
+        }
+
+        double best = scorer.score(plugboard, quadgrams, 3, text.quadgrams());
+        while (countPairs(plugboard) < PLUGBOARD_SIZE) {
+            int bestA = -1;
+            int bestB = -1;
+            for (int i = 0; i < free.size(); i++) {
+                for (int j = i + 1; j < free.size(); j++) {
+                    int a = free.get(i);
+                    int b = free.get(j);
+                    plugboard[a] = b;
+                    plugboard[b] = a;
+                    double candidate = scorer.score(plugboard, quadgrams, 3, text.quadgrams());
+                    if (candidate > best) {
+                        best = candidate;
+                        bestA = a;
+                        bestB = b;
+                    }
+                    plugboard[a] = a;
+                    plugboard[b] = b;
+                }
+            }
+            if (bestA < 0) break;
+            plugboard[bestA] = bestB;
+            plugboard[bestB] = bestA;
+            free.remove(Integer.valueOf(bestA));
+            free.remove(Integer.valueOf(bestB));
+        }
+    }
+
+    private double score(FastMachine start, int[] plugboard) {
+        FastMachine machine = new FastMachine(start);
+        machine.setPlugboard(plugboard);
+        return Score.evaluate(machine.getCipheredText(ciphertext));
+    }
+
+    private static int countPairs(int[] plugboard) {
+        int pairs = 0;
+        for (int c = 0; c < plugboard.length; c++) {
+            if (plugboard[c] > c) pairs++;
+        }
+        return pairs;
+    }
+
+    private static String toPlugboardString(int[] plugboard) {
+        StringJoiner joiner = new StringJoiner(":");
+        for (int c = 0; c < plugboard.length; c++) {
+            if (plugboard[c] > c) {
+                joiner.add("" + (char) ('A' + c) + (char) ('A' + plugboard[c]));
+            }
+        }
+        return joiner.toString();
+    }
+}
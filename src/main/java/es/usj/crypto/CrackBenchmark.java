@@ -0,0 +1,435 @@
+package es.usj.crypto;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import es.usj.crypto.utils.Checkpoint;
+import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.Shard;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reproducible end-to-end benchmark of the two cracking pipelines on synthetic ciphertexts.
+ *
+ * A seed expands into a corpus of cases: for every repeat, text length and plug count, a plaintext cut from the corpus
+ * file at a random word and a random key drawn by {@link EnigmaManager#randomKey(int, Random)}. Every case runs once
+ * per pipeline:
+ * <ul>
+ *   <li>{@code ciphertext}: the stages of {@link Main}, rotor sweep, ring search and plugboard rounds.</li>
+ *   <li>{@code bombe}: the Bombe with a crib of {@link #CRIB_LENGTH} known plaintext letters, its stops verified by
+ *   {@link BombeStopVerifier}, until the true key is confirmed or every rotor setting has been tried.</li>
+ * </ul>
+ * Each run gets its own JVM, so runs go in parallel without competing for the heap of one JVM and the peak heap of a
+ * run is its own. For each run the benchmark records the time until the correct key was found (a key is correct
+ * when it deciphers the whole message), the number of candidate keys evaluated, the rank of the true key and the peak
+ * heap, and writes every run to a JSON file. Two files of the same seed compare engine changes on speed and recovery
+ * rate.
+ */
+public class CrackBenchmark {
+
+    public static final String CIPHERTEXT = "ciphertext";
+    public static final String BOMBE = "bombe";
+    // Known plaintext letters given to the Bombe
+    static final int CRIB_LENGTH = 14;
+    private static final Path CATALOGUE_PATH = Paths.get("data/scramblers.bin");
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().serializeNulls().disableHtmlEscaping().create();
+
+    /**
+     * One synthetic message.
+     *
+     * @param id Position of the case in the corpus.
+     * @param seed Seed the plaintext, key and crib are drawn from.
+     * @param length Number of letters of the message.
+     * @param plugs Number of plugboard cables of the key.
+     */
+    public record Case(int id, long seed, int length, int plugs) {
+
+        /**
+         * Expands a seed into the cases of every repeat, length and plug count, in that order.
+         */
+        public static List<Case> corpus(long seed, int repeats, List<Integer> lengths, List<Integer> plugs) {
+            Random random = new Random(seed);
+            List<Case> cases = new ArrayList<>();
+            for (int repeat = 0; repeat < repeats; repeat++) {
+                for (int length : lengths) {
+                    for (int plugCount : plugs) {
+                        cases.add(new Case(cases.size(), random.nextLong(), length, plugCount));
+                    }
+                }
+            }
+            return cases;
+        }
+    }
+
+    /**
+     * The result of one pipeline on one case.
+     *
+     * @param caseId Position of the case in the corpus.
+     * @param seed Seed of the case.
+     * @param length Number of letters of the message.
+     * @param plugs Number of plugboard cables of the key.
+     * @param pipeline {@link #CIPHERTEXT} or {@link #BOMBE}.
+     * @param key The true key.
+     * @param found The best key of the pipeline, or {@code null} if it found none.
+     * @param recovered Whether the correct key was found.
+     * @param accuracy Fraction of the letters the found key deciphers correctly.
+     * @param timeToKeyMillis Time until the correct key was found, or -1.
+     * @param totalMillis Time of the whole run.
+     * @param candidates Candidate keys evaluated: configurations scored, or plugboard guesses tested by the Bombe.
+     * @param rank Rank of the correct key: in the final keys of the ciphertext pipeline, or among the keys confirmed
+     *             by the Bombe in the order they were confirmed; 0 if it was not found.
+     * @param sweepRank Rank of the true rotor setting after the rotor sweep, 0 if it was not kept; -1 for the Bombe.
+     * @param peakHeapBytes Sum of the peak usage of the heap memory pools.
+     * @param error Why the run failed, or {@code null}.
+     */
+    public record Run(int caseId, long seed, int length, int plugs, String pipeline, String key, String found,
+                      boolean recovered, double accuracy, long timeToKeyMillis, long totalMillis, long candidates,
+                      int rank, int sweepRank, long peakHeapBytes, String error) {
+
+        static Run failed(Case c, String pipeline, String key, long totalMillis, String error) {
+            return new Run(c.id(), c.seed(), c.length(), c.plugs(), pipeline, key, null, false, 0, -1, totalMillis,
+                    0, 0, -1, -1, error);
+        }
+    }
+
+    /**
+     * The message, key and crib of a case.
+     */
+    record Message(String plainText, String cipherText, EnigmaConfig key, Bombe.Crib crib) {
+
+        static Message of(Case c, String corpus) {
+            Random random = new Random(c.seed());
+            String plainText = cut(corpus, c.length(), random);
+            EnigmaConfig key = EnigmaManager.randomKey(c.plugs(), random);
+            String cipherText = new FastMachine(key).getCipheredText(plainText);
+
+            // The crib starts at a random word and runs over the next words
+            String plainLetters = plainText.replace(" ", "");
+            String cipherLetters = cipherText.replace(" ", "");
+            List<Integer> starts = new ArrayList<>();
+            int letters = 0;
+            for (String word : plainText.split(" ")) {
+                if (letters + CRIB_LENGTH <= plainLetters.length()) {
+                    starts.add(letters);
+                }
+                letters += word.length();
+            }
+            int start = starts.isEmpty() ? 0 : starts.get(random.nextInt(starts.size()));
+            int end = Math.min(start + CRIB_LENGTH, plainLetters.length());
+            Bombe.Crib crib = new Bombe.Crib(plainLetters.substring(start, end), cipherLetters.substring(start, end), start);
+            return new Message(plainText, cipherText, key, crib);
+        }
+
+        /**
+         * @return Fraction of the letters the key deciphers correctly.
+         */
+        double accuracy(EnigmaConfig config) {
+            String deciphered = new FastMachine(config).getCipheredText(cipherText);
+            int correct = 0;
+            int letters = 0;
+            for (int i = 0; i < plainText.length(); i++) {
+                if (plainText.charAt(i) != ' ') {
+                    letters++;
+                    if (i < deciphered.length() && deciphered.charAt(i) == plainText.charAt(i)) {
+                        correct++;
+                    }
+                }
+            }
+            return letters == 0 ? 0 : (double) correct / letters;
+        }
+    }
+
+    /**
+     * Cuts a message of the given number of letters out of the corpus, from a random word on and wrapping around.
+     */
+    static String cut(String corpus, int length, Random random) {
+        String[] words = corpus.toUpperCase(Locale.ROOT).replaceAll("[^A-Z\\s]", "").trim().split("\\s+");
+        StringBuilder text = new StringBuilder();
+        int letters = 0;
+        for (int i = random.nextInt(words.length); letters < length; i = (i + 1) % words.length) {
+            String word = words[i].substring(0, Math.min(words[i].length(), length - letters));
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(word);
+            letters += word.length();
+        }
+        return text.toString();
+    }
+
+    /**
+     * Runs the ciphertext-only stages of {@link Main}, see {@link KeySearch}, on a message. The plugboard rounds stop at the number of plugs of
+     * the key, as {@code Main} stops at the number of cables of the machine.
+     */
+    static Run crackCiphertext(Case c, Message message, Path checkpointPath) {
+        EnigmaManager manager = new EnigmaManager();
+        try {
+            return crackCiphertext(c, message, manager, checkpointPath, System.currentTimeMillis());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static Run crackCiphertext(Case c, Message message, EnigmaManager manager, Path checkpointPath, long start) {
+        manager.setText(message.cipherText());
+        KeySearch search = new KeySearch(manager, checkpointPath);
+        Checkpoint checkpoint = new Checkpoint(Checkpoint.fingerprint("CrackBenchmark", c), message.cipherText(),
+                KeySearch.TOP_NUMBER);
+
+        search.sweepRotors(checkpoint, Shard.all());
+        int sweepRank = 0;
+        List<EnigmaConfig> swept = checkpoint.top();
+        for (int i = 0; i < swept.size(); i++) {
+            if (swept.get(i).equalsWithoutPlugboard(message.key())) {
+                sweepRank = i + 1;
+                break;
+            }
+        }
+        search.searchRings(checkpoint);
+        List<EnigmaConfig> keys = search.searchPlugboard(checkpoint, c.plugs());
+
+        int rank = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (message.accuracy(keys.get(i)) == 1) {
+                rank = i + 1;
+                break;
+            }
+        }
+        long totalMillis = System.currentTimeMillis() - start;
+        EnigmaConfig best = keys.isEmpty() ? null : keys.get(0);
+        double accuracy = best == null ? 0 : message.accuracy(best);
+        boolean recovered = accuracy == 1;
+        return new Run(c.id(), c.seed(), c.length(), c.plugs(), CIPHERTEXT, message.key().toString(),
+                best == null ? null : best.toString(), recovered, accuracy, recovered ? totalMillis : -1, totalMillis,
+                manager.getConfigurationsScored(), rank, sweepRank, peakHeap(), null);
+    }
+
+    /**
+     * Runs the Bombe with the crib of a message until the correct key is confirmed.
+     */
+    static Run crackBombe(Case c, Message message) throws IOException {
+        long start = System.currentTimeMillis();
+        Bombe bombe = new Bombe(List.of(message.crib()));
+        char letter = bombe.letterConnections.entrySet().stream()
+                .max(Comparator.comparingInt(entry -> entry.getValue().size()))
+                .map(Map.Entry::getKey)
+                .orElseThrow();
+
+        AtomicInteger confirmed = new AtomicInteger();
+        AtomicInteger rank = new AtomicInteger();
+        AtomicLong timeToKey = new AtomicLong(-1);
+        BombeStopVerifier verifier = new BombeStopVerifier(message.cipherText(), bombe.letterConnections, key -> {
+            int position = confirmed.incrementAndGet();
+            if (message.accuracy(key) == 1 && rank.compareAndSet(0, position)) {
+                timeToKey.set(System.currentTimeMillis() - start);
+            }
+        });
+
+        long candidates = 0;
+        try (ScramblerCatalogue catalogue = ScramblerCatalogue.open(CATALOGUE_PATH)) {
+            search:
+            for (int order = 0; order < ScramblerCatalogue.ORDERS; order++) {
+                int[] types = ScramblerCatalogue.orderTypes(order);
+                for (char l = 'A'; l <= 'Z'; l++) {
+                    for (char m = 'A'; m <= 'Z'; m++) {
+                        for (char r = 'A'; r <= 'Z'; r++) {
+                            char[] positions = {l, m, r};
+                            int[] states = bombe.statesAtSteps(types, positions);
+                            for (char map = 'A'; map <= 'Z'; map++) {
+                                EnigmaConfig stop = bombe.testStop(letter, map, types, positions, catalogue, states);
+                                if (stop != null) {
+                                    verifier.submit(stop);
+                                }
+                            }
+                            candidates += 26;
+                        }
+                        if (rank.get() > 0) {
+                            break search;
+                        }
+                    }
+                }
+            }
+        }
+        List<EnigmaConfig> keys = verifier.awaitConfirmed();
+        long totalMillis = System.currentTimeMillis() - start;
+
+        EnigmaConfig best = keys.stream().filter(key -> message.accuracy(key) == 1).findFirst()
+                .orElse(keys.isEmpty() ? null : keys.get(0));
+        double accuracy = best == null ? 0 : message.accuracy(best);
+        return new Run(c.id(), c.seed(), c.length(), c.plugs(), BOMBE, message.key().toString(),
+                best == null ? null : best.toString(), accuracy == 1, accuracy, timeToKey.get(), totalMillis,
+                candidates, rank.get(), -1, peakHeap(), null);
+    }
+
+    /**
+     * @return The sum of the peak usage of the heap memory pools since the JVM started.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Runs every case of the corpus with every pipeline, each run in its own JVM, and writes the runs as JSON.
+     */
+    static List<Run> runAll(List<Case> cases, List<String> pipelines, Path corpus, int parallel, long timeoutMinutes,
+                            Path logs) throws IOException, InterruptedException {
+        Files.createDirectories(logs);
+        String corpusText = Files.readString(corpus);
+        // Built once here, so parallel Bombe runs do not all build it
+        ScramblerCatalogue.openOrBuild(CATALOGUE_PATH).close();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallel);
+        List<Future<Run>> futures = new ArrayList<>();
+        for (Case c : cases) {
+            for (String pipeline : pipelines) {
+                String key = Message.of(c, corpusText).key().toString();
+                futures.add(executor.submit(() -> runInChild(c, pipeline, key, corpus, timeoutMinutes, logs)));
+            }
+        }
+        List<Run> runs = new ArrayList<>();
+        try {
+            for (Future<Run> future : futures) {
+                Run run = future.get();
+                runs.add(run);
+                System.out.println("Case " + run.caseId() + " " + run.pipeline() + " (" + run.length() + " letters, "
+                        + run.plugs() + " plugs): " + (run.error() != null ? run.error()
+                        : (run.recovered() ? "recovered in " + run.timeToKeyMillis() + " ms" : "not recovered")
+                        + ", " + run.candidates() + " candidates, rank " + run.rank()));
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Benchmark run failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return runs;
+    }
+
+    private static Run runInChild(Case c, String pipeline, String key, Path corpus, long timeoutMinutes, Path logs)
+            throws IOException, InterruptedException {
+        String name = "case-" + c.id() + "-" + pipeline;
+        Path result = logs.resolve(name + ".json");
+        Files.deleteIfExists(result);
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        // Same JVM options, e.g. --add-modules jdk.incubator.vector and the heap size
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(CrackBenchmark.class.getName());
+        command.add("--run=" + pipeline);
+        command.add("--case=" + c.id());
+        command.add("--case-seed=" + c.seed());
+        command.add("--length=" + c.length());
+        command.add("--plugs=" + c.plugs());
+        command.add("--corpus=" + corpus);
+        command.add("--result=" + result);
+        command.add("--checkpoint=" + logs.resolve(name + ".checkpoint"));
+        File log = logs.resolve(name + ".log").toFile();
+
+        long start = System.currentTimeMillis();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+        if (!process.waitFor(timeoutMinutes, TimeUnit.MINUTES)) {
+            process.destroyForcibly().waitFor();
+            return Run.failed(c, pipeline, key, System.currentTimeMillis() - start,
+                    "timed out after " + timeoutMinutes + " min");
+        }
+        if (process.exitValue() != 0 || !Files.exists(result)) {
+            return Run.failed(c, pipeline, key, System.currentTimeMillis() - start,
+                    "exited with " + process.exitValue() + ", see " + log);
+        }
+        return GSON.fromJson(Files.readString(result), Run.class);
+    }
+
+    /**
+     * Runs one pipeline on one case, in a JVM started by {@link #runAll}.
+     */
+    private static void runChild(Map<String, String> options) throws IOException {
+        Case c = new Case(Integer.parseInt(options.get("--case")), Long.parseLong(options.get("--case-seed")),
+                Integer.parseInt(options.get("--length")), Integer.parseInt(options.get("--plugs")));
+        String pipeline = options.get("--run");
+        Message message = Message.of(c, Files.readString(Paths.get(options.get("--corpus"))));
+        System.out.println("Key: " + message.key());
+        System.out.println("Ciphertext: " + message.cipherText());
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        Run run = switch (pipeline) {
+            case CIPHERTEXT -> crackCiphertext(c, message, Paths.get(options.get("--checkpoint")));
+            case BOMBE -> crackBombe(c, message);
+            default -> throw new IllegalArgumentException("Unknown pipeline " + pipeline);
+        };
+        Files.writeString(Paths.get(options.get("--result")), GSON.toJson(run));
+        Files.deleteIfExists(Paths.get(options.get("--checkpoint")));
+    }
+
+    private static List<Integer> integers(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).map(Integer::parseInt).toList();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional --seed=1, --lengths=100,250, --plugs=0,5,10, --repeats=2, --pipelines=ciphertext,bombe,
+     *             --parallel=2 (runs at a time), --timeout=60 (minutes per run), --corpus=data/plain_text.txt and
+     *             --output=data/crack-benchmark.json; the logs of each run go next to the output
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+        if (options.containsKey("--run")) {
+            runChild(options);
+            return;
+        }
+
+        long seed = Long.parseLong(options.getOrDefault("--seed", "1"));
+        List<Case> cases = Case.corpus(seed,
+                Integer.parseInt(options.getOrDefault("--repeats", "2")),
+                integers(options.getOrDefault("--lengths", "100,250")),
+                integers(options.getOrDefault("--plugs", "0,5,10")));
+        List<String> pipelines = List.of(options.getOrDefault("--pipelines", CIPHERTEXT + "," + BOMBE).split(","));
+        Path corpus = Paths.get(options.getOrDefault("--corpus", "data/plain_text.txt"));
+        Path output = Paths.get(options.getOrDefault("--output", "data/crack-benchmark.json"));
+        Path logs = output.toAbsolutePath().resolveSibling(output.getFileName().toString().replace(".json", "") + "-logs");
+        System.out.println(cases.size() + " cases x " + pipelines + " with seed " + seed + ", logs in " + logs);
+
+        List<Run> runs = runAll(cases, pipelines,
+                corpus,
+                Integer.parseInt(options.getOrDefault("--parallel", "2")),
+                Long.parseLong(options.getOrDefault("--timeout", "60")),
+                logs);
+
+        Files.writeString(output, GSON.toJson(runs, new TypeToken<List<Run>>() {}.getType()));
+        System.out.println("Runs written to " + output);
+        for (String pipeline : pipelines) {
+            List<Run> ofPipeline = runs.stream().filter(run -> run.pipeline().equals(pipeline)).toList();
+            long recovered = ofPipeline.stream().filter(Run::recovered).count();
+            double meanTime = ofPipeline.stream().filter(Run::recovered).mapToLong(Run::timeToKeyMillis).average().orElse(-1);
+            System.out.println(pipeline + ": recovered " + recovered + "/" + ofPipeline.size()
+                    + ", mean time to key " + Math.round(meanTime) + " ms");
+        }
+    }
+}
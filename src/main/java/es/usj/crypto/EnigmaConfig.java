@@ -8,6 +8,8 @@ import java.util.Set;
 public class EnigmaConfig {
     private byte[] rotorTypes;
     private byte[] rotorPositions;
+    // Ring setting of each rotor, 'A' (no shift) by default
+    private byte[] ringSettings;
     private String plugboard;
     private double score;
 
@@ -20,16 +22,30 @@ public class EnigmaConfig {
         for (int i = 0; i < rotorPositions.length; i++) {
             this.rotorPositions[i] = (byte) rotorPositions[i];
         }
+        this.ringSettings = new byte[rotorPositions.length];
+        Arrays.fill(this.ringSettings, (byte) 'A');
         this.plugboard = plugboard;
         this.score = 0.0;
     }
 
+    /**
+     * Constructs a configuration with ring settings.
+     *
+     * @param ringSettings Ring setting of each rotor, left to right, 'A' to 'Z'. The ring setting shifts the wiring
+     *                     of a rotor against its letter ring and notch; 'A' leaves it unshifted.
+     */
+    public EnigmaConfig(int[] rotorTypes, char[] rotorPositions, char[] ringSettings, String plugboard) {
+        this(rotorTypes, rotorPositions, plugboard);
+        setRingSettings(ringSettings);
+    }
+
     // Clone constructor
     public EnigmaConfig(EnigmaConfig config) {
         this.rotorTypes = new byte[config.rotorTypes.length];
         System.arraycopy(config.rotorTypes, 0, this.rotorTypes, 0, config.rotorTypes.length);
         this.rotorPositions = new byte[config.rotorPositions.length];
         System.arraycopy(config.rotorPositions, 0, this.rotorPositions, 0, config.rotorPositions.length);
+        this.ringSettings = Arrays.copyOf(config.ringSettings, config.ringSettings.length);
         this.plugboard = config.plugboard;
         this.score = config.score;
     }
@@ -64,11 +80,47 @@ public class EnigmaConfig {
         }
     }
 
+    public char[] getRingSettings() {
+        char[] result = new char[ringSettings.length];
+        for (int i = 0; i < ringSettings.length; i++) {
+            result[i] = (char) ringSettings[i];
+        }
+        return result;
+    }
+
+    public void setRingSettings(char[] ringSettings) {
+        if (ringSettings.length != rotorPositions.length) {
+            throw new IllegalArgumentException("Expected " + rotorPositions.length + " ring settings: " + Arrays.toString(ringSettings));
+        }
+        this.ringSettings = new byte[ringSettings.length];
+        for (int i = 0; i < ringSettings.length; i++) {
+            if (ringSettings[i] < 'A' || ringSettings[i] > 'Z') {
+                throw new IllegalArgumentException("Ring setting should be A to Z: " + ringSettings[i]);
+            }
+            this.ringSettings[i] = (byte) ringSettings[i];
+        }
+    }
+
+    /**
+     * @return {@code true} if any rotor has a ring setting other than 'A'.
+     */
+    public boolean hasRingSettings() {
+        for (byte ringSetting : ringSettings) {
+            if (ringSetting != 'A') {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String getPlugboard() {
         return plugboard;
     }
 
     public char findMapping(char c) {
+        if (plugboard.isEmpty()) {
+            return c;
+        }
         String[] pairs = plugboard.split(":");
         for (String pair : pairs) {
             if (pair.charAt(0) == c) {
@@ -154,6 +206,7 @@ public class EnigmaConfig {
         return "EnigmaConfig{" +
                 "rotorTypes=" + Arrays.toString(getRotorTypes()) +
                 ", rotorPositions=" + Arrays.toString(getRotorPositions()) +
+                (hasRingSettings() ? ", ringSettings=" + Arrays.toString(getRingSettings()) : "") +
                 ", plugboard='" + plugboard + '\'' +
                 ", score=" + score +
                 '}';
@@ -166,6 +219,7 @@ public class EnigmaConfig {
         EnigmaConfig that = (EnigmaConfig) o;
         return Arrays.equals(rotorTypes, that.rotorTypes) &&
                 Arrays.equals(rotorPositions, that.rotorPositions) &&
+                Arrays.equals(ringSettings, that.ringSettings) &&
                 plugboard.equals(that.plugboard);
     }
 
@@ -174,13 +228,15 @@ public class EnigmaConfig {
         if (o == null || getClass() != o.getClass()) return false;
         EnigmaConfig that = (EnigmaConfig) o;
         return Arrays.equals(rotorTypes, that.rotorTypes) &&
-                Arrays.equals(rotorPositions, that.rotorPositions);
+                Arrays.equals(rotorPositions, that.rotorPositions) &&
+                Arrays.equals(ringSettings, that.ringSettings);
     }
 
     @Override
     public int hashCode() {
         int result = Arrays.hashCode(rotorTypes);
         result = 31 * result + Arrays.hashCode(rotorPositions);
+        result = 31 * result + Arrays.hashCode(ringSettings);
         result = 31 * result + plugboard.hashCode();
         return result;
     }
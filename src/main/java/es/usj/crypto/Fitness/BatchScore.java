@@ -0,0 +1,173 @@
+package es.usj.crypto.Fitness;
+
+import java.util.Arrays;
+
+/**
+ * Scores a batch of candidate plaintexts in one pass.
+ *
+ * Candidates are stored column-wise, position-major: the letter index (0-25) of candidate {@code c} at position
+ * {@code p} is {@code letters[p * count + c]}. All candidates must share their word boundaries, which holds for the
+ * decryptions of one ciphertext, so a single {@code runs} array tells for every position how many letters precede it
+ * in the same word (capped at 3). As in the individual scorers, n-grams are only counted inside words.
+ *
+ * For every candidate the batch computes:
+ * <ul>
+ *   <li>The mean bigram log10-probability.</li>
+ *   <li>The mean quadgram log10-probability.</li>
+ *   <li>The Index of Coincidence of its letter histogram.</li>
+ * </ul>
+ *
+ * This class is the scalar implementation. {@link #create()} returns {@link VectorBatchScore}, which processes the
+ * candidates of each position in lockstep with vector gathers, when {@code jdk.incubator.vector} is available.
+ * Instances keep scratch buffers and must not be shared between threads.
+ */
+public class BatchScore {
+
+    // Log10-probabilities, flattened as in BigramFitness#flatScores, TrigramFitness#flatScores and
+    // QuadgramFitness#flatScores
+    static final float[] BIGRAM_LOG = logProbabilities(Score.getBigramFitness().flatScores());
+    static final float[] TRIGRAM_LOG = logProbabilities(Score.getTrigramFitness().flatScores());
+    static final float[] QUADGRAM_LOG = logProbabilities(Score.getQuadgramFitness().flatScores());
+
+    protected double[] bigram = new double[0];
+    protected double[] quadgram = new double[0];
+    protected double[] ioc = new double[0];
+    // Letter histograms, candidate * 26 + letter
+    protected int[] histograms = new int[0];
+
+    protected BatchScore() {
+    }
+
+    /**
+     * Creates the fastest implementation available in this JVM, honouring the {@code enigma.vector} system property.
+     *
+     * @return A batch scorer.
+     */
+    public static BatchScore create() {
+        if (Boolean.parseBoolean(System.getProperty("enigma.vector", "true"))) {
+            try {
+                return (BatchScore) Class.forName("es.usj.crypto.Fitness.VectorBatchScore")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // jdk.incubator.vector is not available, fall back to the scalar scorer
+            }
+        }
+        return new BatchScore();
+    }
+
+    /**
+     * Scores a batch of candidates. Results are available through the accessors until the next call.
+     *
+     * @param letters Letter indices, position-major.
+     * @param count Number of candidates.
+     * @param runs Letters preceding each position in its word, capped at 3.
+     */
+    public void score(byte[] letters, int count, byte[] runs) {
+        prepare(count);
+        int positions = runs.length;
+        accumulate(letters, count, runs, 0, count);
+        finish(count, positions, runs);
+    }
+
+    /**
+     * Adds the n-gram log-probabilities and letter counts of candidates {@code from} to {@code to}.
+     */
+    protected void accumulate(byte[] letters, int count, byte[] runs, int from, int to) {
+        for (int candidate = from; candidate < to; candidate++) {
+            double bigramSum = 0;
+            double quadgramSum = 0;
+            int gram = 0;
+            for (int p = 0; p < runs.length; p++) {
+                int letter = letters[p * count + candidate];
+                gram = (gram % (26 * 26 * 26)) * 26 + letter;
+                if (runs[p] >= 1) {
+                    bigramSum += BIGRAM_LOG[gram % (26 * 26)];
+                }
+                if (runs[p] >= 3) {
+                    quadgramSum += QUADGRAM_LOG[gram];
+                }
+                histograms[candidate * 26 + letter]++;
+            }
+            bigram[candidate] = bigramSum;
+            quadgram[candidate] = quadgramSum;
+        }
+    }
+
+    protected void prepare(int count) {
+        if (bigram.length < count) {
+            bigram = new double[count];
+            quadgram = new double[count];
+            ioc = new double[count];
+            histograms = new int[count * 26];
+        }
+        Arrays.fill(histograms, 0, count * 26, 0);
+    }
+
+    /**
+     * Turns the sums into means and the histograms into Index of Coincidence values.
+     */
+    protected void finish(int count, int positions, byte[] runs) {
+        int bigrams = 0;
+        int quadgrams = 0;
+        for (byte run : runs) {
+            if (run >= 1) bigrams++;
+            if (run >= 3) quadgrams++;
+        }
+        double denominator = (double) positions * (positions - 1);
+        for (int candidate = 0; candidate < count; candidate++) {
+            bigram[candidate] = bigrams == 0 ? 0 : bigram[candidate] / bigrams;
+            quadgram[candidate] = quadgrams == 0 ? 0 : quadgram[candidate] / quadgrams;
+            long numerator = 0;
+            for (int letter = 0; letter < 26; letter++) {
+                long n = histograms[candidate * 26 + letter];
+                numerator += n * (n - 1);
+            }
+            ioc[candidate] = positions <= 1 ? 0 : numerator / denominator;
+        }
+    }
+
+    /**
+     * Returns the shared trigram log10-probabilities, indexed as in {@link TrigramFitness#flatScores()}. Only the
+     * searches use them, the batch does not score trigrams. The array must not be modified.
+     */
+    public static float[] trigramLogProbabilities() {
+        return TRIGRAM_LOG;
+    }
+
+    /**
+     * Returns the shared quadgram log10-probabilities, indexed as in {@link QuadgramFitness#flatScores()}, for
+     * searches that accumulate quadgram statistics themselves. The array must not be modified.
+     */
+    public static float[] quadgramLogProbabilities() {
+        return QUADGRAM_LOG;
+    }
+
+    public double bigramScore(int candidate) {
+        return bigram[candidate];
+    }
+
+    public double quadgramScore(int candidate) {
+        return quadgram[candidate];
+    }
+
+    public double indexOfCoincidence(int candidate) {
+        return ioc[candidate];
+    }
+
+    /**
+     * Converts a table of n-gram counts into log10-probabilities. Unseen n-grams get the probability of a hundredth
+     * of an occurrence, so a single rare n-gram does not dominate the score.
+     */
+    private static float[] logProbabilities(float[] counts) {
+        double total = 0;
+        for (float count : counts) {
+            total += count;
+        }
+        float[] log = new float[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            log[i] = (float) Math.log10((counts[i] > 0 ? counts[i] : 0.01) / total);
+        }
+        return log;
+    }
+}
@@ -106,4 +106,17 @@ public class BigramFitness {
 
         return Math.max(0, Math.min(1, (zScore + 3) / 6));
     }
+
+    /**
+     * Returns the bigram scores flattened to index {@code a * 26 + b}, for scorers that process many texts at once.
+     *
+     * @return A new array of 26^2 scores.
+     */
+    public float[] flatScores() {
+        float[] flat = new float[26 * 26];
+        for (int i = 0; i < 26; i++) {
+            System.arraycopy(bigramScores[i], 0, flat, i * 26, 26);
+        }
+        return flat;
+    }
 }
@@ -114,6 +114,21 @@ public class QuadgramFitness {
             return 0; // Neutral score
         }
 
+        return normalize(fitness, totalQuadgrams);
+    }
+
+    /**
+     * Maps the summed quadgram scores of a text to the same 0-1 range returned by {@link #score(String)}.
+     *
+     * @param fitness Sum of the quadgram scores.
+     * @param totalQuadgrams Number of quadgrams summed.
+     * @return The normalized score.
+     */
+    public double normalize(double fitness, int totalQuadgrams) {
+        if (totalQuadgrams == 0) {
+            return 0;
+        }
+
         // Z-Score Normalization
         double zScore = (fitness - (totalQuadgrams * mean)) / (totalQuadgrams * stdDev);
 
@@ -122,4 +137,24 @@ public class QuadgramFitness {
         return Math.max(0, Math.min(1, (zScore + 5) / 10));
     }
 
+    /**
+     * Returns the quadgram scores flattened to index {@code ((a * 26 + b) * 26 + c) * 26 + d}, for scorers that
+     * process many texts at once.
+     *
+     * @return A new array of 26^4 scores.
+     */
+    public float[] flatScores() {
+        float[] flat = new float[26 * 26 * 26 * 26];
+        int index = 0;
+        for (float[][][] matrix3D : quadgramScores) {
+            for (float[][] matrix2D : matrix3D) {
+                for (float[] array1D : matrix2D) {
+                    System.arraycopy(array1D, 0, flat, index, 26);
+                    index += 26;
+                }
+            }
+        }
+        return flat;
+    }
+
 }
@@ -1,11 +1,14 @@
 package es.usj.crypto.Fitness;
 
+import es.usj.crypto.utils.SearchEvents;
+
 public class Score {
 
-    private static final BigramFitness bigramFitness = new BigramFitness();
-    private static final TrigramFitness trigramFitness = new TrigramFitness();
-    private static final QuadgramFitness quadgramFitness = new QuadgramFitness();
-    private static final EnglishWordChecker englishWordChecker = new EnglishWordChecker();
+    // Each table is loaded inside a flight recorder event, so a recording shows what the start-up costs
+    private static final BigramFitness bigramFitness = SearchEvents.load("bigrams", BigramFitness::new);
+    private static final TrigramFitness trigramFitness = SearchEvents.load("trigrams", TrigramFitness::new);
+    private static final QuadgramFitness quadgramFitness = SearchEvents.load("quadgrams", QuadgramFitness::new);
+    private static final EnglishWordChecker englishWordChecker = SearchEvents.load("words", EnglishWordChecker::new);
 
     // Weights for each score component
     private static final double BIGRAM_WEIGHT = 0.2;
@@ -24,6 +27,22 @@ public class Score {
         return score;
     }
 
+    public static BigramFitness getBigramFitness() {
+        return bigramFitness;
+    }
+
+    public static TrigramFitness getTrigramFitness() {
+        return trigramFitness;
+    }
+
+    public static QuadgramFitness getQuadgramFitness() {
+        return quadgramFitness;
+    }
+
+    public static EnglishWordChecker getEnglishWordChecker() {
+        return englishWordChecker;
+    }
+
     private static double bigramFitnessScore(String text) {
         return bigramFitness.score(text);
     }
@@ -109,4 +109,20 @@ public class TrigramFitness {
         return Math.max(0, Math.min(1, (zScore + 3) / 6)); // Clamp between 0 and 1
     }
 
+    /**
+     * Returns the trigram scores flattened to index {@code (a * 26 + b) * 26 + c}, for scorers that process many texts
+     * at once.
+     *
+     * @return A new array of 26^3 scores.
+     */
+    public float[] flatScores() {
+        float[] flat = new float[26 * 26 * 26];
+        for (int i = 0; i < 26; i++) {
+            for (int j = 0; j < 26; j++) {
+                System.arraycopy(trigramScore[i][j], 0, flat, (i * 26 + j) * 26, 26);
+            }
+        }
+        return flat;
+    }
+
 }
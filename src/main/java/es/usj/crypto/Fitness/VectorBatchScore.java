@@ -0,0 +1,71 @@
+package es.usj.crypto.Fitness;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of {@link BatchScore} built on the incubating Vector API.
+ *
+ * Each vector lane follows one candidate. For every position the letters of a group of candidates are loaded with a
+ * single contiguous read (the batch is position-major), the n-gram log-probabilities of all of them are gathered and
+ * accumulated together, and their histogram counters are gathered, incremented and scattered back. Candidates that do
+ * not fill a whole vector are scored by the scalar code.
+ *
+ * Only instantiated through {@link BatchScore#create()}.
+ */
+class VectorBatchScore extends BatchScore {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, VectorShape.forBitSize(FLOATS.length() * 8));
+
+    private final int lanes = FLOATS.length();
+    // Scratch buffers for gather and scatter indices and for the per-lane sums
+    private final int[] indices = new int[lanes];
+    private final float[] sums = new float[lanes];
+
+    @Override
+    protected void accumulate(byte[] letters, int count, byte[] runs, int from, int to) {
+        int vectorEnd = from + (to - from) / lanes * lanes;
+        for (int group = from; group < vectorEnd; group += lanes) {
+            FloatVector bigrams = FloatVector.zero(FLOATS);
+            FloatVector quadgrams = FloatVector.zero(FLOATS);
+            IntVector previous1 = IntVector.zero(INTS);
+            IntVector previous2 = IntVector.zero(INTS);
+            IntVector previous3 = IntVector.zero(INTS);
+            // First histogram counter of each lane
+            IntVector histogram = IntVector.zero(INTS).addIndex(26).add(group * 26);
+
+            for (int p = 0; p < runs.length; p++) {
+                IntVector letter = (IntVector) ByteVector.fromArray(BYTES, letters, p * count + group).castShape(INTS, 0);
+                if (runs[p] >= 1) {
+                    previous1.mul(26).add(letter).intoArray(indices, 0);
+                    bigrams = bigrams.add(FloatVector.fromArray(FLOATS, BIGRAM_LOG, 0, indices, 0));
+                }
+                if (runs[p] >= 3) {
+                    previous3.mul(26).add(previous2).mul(26).add(previous1).mul(26).add(letter).intoArray(indices, 0);
+                    quadgrams = quadgrams.add(FloatVector.fromArray(FLOATS, QUADGRAM_LOG, 0, indices, 0));
+                }
+                histogram.add(letter).intoArray(indices, 0);
+                IntVector.fromArray(INTS, histograms, 0, indices, 0).add(1).intoArray(histograms, 0, indices, 0);
+
+                previous3 = previous2;
+                previous2 = previous1;
+                previous1 = letter;
+            }
+
+            bigrams.intoArray(sums, 0);
+            for (int lane = 0; lane < lanes; lane++) {
+                bigram[group + lane] = sums[lane];
+            }
+            quadgrams.intoArray(sums, 0);
+            for (int lane = 0; lane < lanes; lane++) {
+                quadgram[group + lane] = sums[lane];
+            }
+        }
+        super.accumulate(letters, count, runs, vectorEnd, to);
+    }
+}
@@ -0,0 +1,349 @@
+package es.usj.crypto;
+
+import es.usj.crypto.Fitness.BatchScore;
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.LaneMachine;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import es.usj.crypto.utils.ProgressBar;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Cracks several messages enciphered with the same rotor order and plugboard but with their own start positions.
+ *
+ * <ol>
+ *   <li>Rotor sweep: for every rotor order and every start position, all messages are deciphered in one pass. The
+ *   walk through the rotor states and the fetch of each scrambler row from the {@link ScramblerCatalogue} are shared,
+ *   so every extra message only adds one table lookup per letter. Each message keeps its best start position and the
+ *   order is ranked by the mean quadgram log-probability pooled over all messages.</li>
+ *   <li>Plugboard: for the best orders, the plugboard is climbed greedily against the pooled statistic, so short
+ *   messages borrow the evidence of the longer ones.</li>
+ *   <li>With the plugboard found, each message picks its start position again and the plugboard is climbed once
+ *   more if any start changed.</li>
+ * </ol>
+ */
+public class JointCracker {
+
+    private static final int PLUGBOARD_SIZE = 10;
+    // Rotor orders whose plugboard is climbed
+    private static final int ORDERS_TO_CLIMB = 5;
+
+    private final ScramblerCatalogue catalogue;
+    private final List<LaneMachine.Text> messages;
+    private final float[] quadgrams;
+    private final int totalQuadgrams;
+    // Message indices from the longest to the shortest, and how many messages are still running at each position
+    private final int[] byLength;
+    private final int[] activeAt;
+
+    public JointCracker(ScramblerCatalogue catalogue, List<String> cipherTexts) {
+        this.catalogue = catalogue;
+        this.messages = cipherTexts.stream().map(LaneMachine.Text::compile).toList();
+        this.quadgrams = BatchScore.quadgramLogProbabilities();
+        this.totalQuadgrams = messages.stream().mapToInt(LaneMachine.Text::quadgrams).sum();
+
+        this.byLength = new int[messages.size()];
+        List<Integer> order = new ArrayList<>();
+        for (int m = 0; m < messages.size(); m++) order.add(m);
+        order.sort(Comparator.comparingInt((Integer m) -> messages.get(m).letters().length).reversed());
+        for (int m = 0; m < byLength.length; m++) byLength[m] = order.get(m);
+        int longest = messages.isEmpty() ? 0 : messages.get(byLength[0]).letters().length;
+        this.activeAt = new int[longest];
+        for (int i = 0; i < longest; i++) {
+            int active = 0;
+            while (active < byLength.length && messages.get(byLength[active]).letters().length > i) active++;
+            activeAt[i] = active;
+        }
+    }
+
+    /**
+     * The key recovered for the messages.
+     *
+     * @param rotorTypes Shared rotor types, left to right.
+     * @param plugboard Shared plugboard.
+     * @param startPositions Start positions of each message, in input order.
+     * @param score Mean quadgram log10-probability over all messages.
+     */
+    public record Solution(int[] rotorTypes, String plugboard, char[][] startPositions, double score) {
+
+        public EnigmaConfig configOf(int message) {
+            return new EnigmaConfig(rotorTypes, startPositions[message], plugboard);
+        }
+
+        @Override
+        public String toString() {
+            StringJoiner starts = new StringJoiner(", ");
+            for (char[] start : startPositions) starts.add(new String(start));
+            return "Solution{rotorTypes=" + Arrays.toString(rotorTypes) + ", plugboard=" + plugboard
+                    + ", startPositions=[" + starts + "], score=" + score + "}";
+        }
+    }
+
+    /**
+     * Runs the three stages.
+     *
+     * @param executor Runs one rotor order per task.
+     * @return The best solutions, best first.
+     */
+    public List<Solution> crack(ExecutorService executor) {
+        ProgressBar progressBar = new ProgressBar("orders", ScramblerCatalogue.ORDERS);
+        List<CompletableFuture<Solution>> futures = new ArrayList<>();
+        for (int order = 0; order < ScramblerCatalogue.ORDERS; order++) {
+            int o = order;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                Solution solution = sweep(o, identity());
+                progressBar.add(1);
+                return solution;
+            }, executor));
+        }
+        List<Solution> orders = futures.stream()
+                .map(CompletableFuture::join)
+                .sorted(Comparator.comparingDouble(Solution::score).reversed())
+                .toList();
+        progressBar.finish();
+
+        List<CompletableFuture<Solution>> climbs = new ArrayList<>();
+        for (Solution candidate : orders.subList(0, Math.min(ORDERS_TO_CLIMB, orders.size()))) {
+            climbs.add(CompletableFuture.supplyAsync(() -> refine(candidate), executor));
+        }
+        return climbs.stream()
+                .map(CompletableFuture::join)
+                .sorted(Comparator.comparingDouble(Solution::score).reversed())
+                .toList();
+    }
+
+    /**
+     * Finds the best start position of every message for one rotor order under a fixed plugboard.
+     *
+     * @param order The catalogue rotor order index.
+     * @param plugboard Plugboard as letter indices.
+     * @return The best start of each message and the pooled score.
+     */
+    Solution sweep(int order, int[] plugboard) {
+        int[] types = ScramblerCatalogue.orderTypes(order);
+        byte[] rows = scramblerRows(order, plugboard);
+        int[] next = successors(types);
+
+        int count = messages.size();
+        byte[][] letters = new byte[count][];
+        byte[][] runs = new byte[count][];
+        for (int m = 0; m < count; m++) {
+            // Plugging the ciphertext once here leaves a single lookup per letter in the loop
+            byte[] original = messages.get(m).letters();
+            letters[m] = new byte[original.length];
+            for (int i = 0; i < original.length; i++) letters[m][i] = (byte) plugboard[original[i]];
+            runs[m] = messages.get(m).runs();
+        }
+
+        double[] best = new double[count];
+        int[] bestStart = new int[count];
+        Arrays.fill(best, Double.NEGATIVE_INFINITY);
+        double[] sums = new double[count];
+        int[] grams = new int[count];
+        for (int start = 0; start < ScramblerCatalogue.STATES; start++) {
+            Arrays.fill(sums, 0, count, 0);
+            Arrays.fill(grams, 0, count, 0);
+            int state = start;
+            for (int i = 0; i < activeAt.length; i++) {
+                state = next[state];
+                int row = state * FastMachine.SIZE;
+                for (int a = 0; a < activeAt[i]; a++) {
+                    int m = byLength[a];
+                    int gram = (grams[a] % (26 * 26 * 26)) * 26 + rows[row + letters[m][i]];
+                    grams[a] = gram;
+                    if (runs[m][i] >= 3) sums[a] += quadgrams[gram];
+                }
+            }
+            for (int a = 0; a < count; a++) {
+                int m = byLength[a];
+                if (sums[a] > best[m]) {
+                    best[m] = sums[a];
+                    bestStart[m] = start;
+                }
+            }
+        }
+
+        char[][] starts = new char[count][];
+        double pooled = 0;
+        for (int m = 0; m < count; m++) {
+            starts[m] = windowOf(bestStart[m]);
+            pooled += best[m];
+        }
+        return new Solution(types, toPlugboardString(plugboard), starts, pooled / Math.max(1, totalQuadgrams));
+    }
+
+    /**
+     * Climbs the plugboard of a swept rotor order, then picks the start positions again under that plugboard.
+     */
+    private Solution refine(Solution candidate) {
+        int order = ScramblerCatalogue.orderIndex(candidate.rotorTypes());
+        int[] plugboard = identity();
+        Solution current = candidate;
+        for (int round = 0; round < 2; round++) {
+            climb(current, plugboard);
+            Solution resampled = sweep(order, plugboard);
+            boolean moved = false;
+            for (int m = 0; m < messages.size(); m++) {
+                moved |= !Arrays.equals(resampled.startPositions()[m], current.startPositions()[m]);
+            }
+            current = resampled;
+            if (!moved) break;
+        }
+        return current;
+    }
+
+    /**
+     * Greedily adds the plugboard pair that improves the pooled score the most, until no pair helps or every cable
+     * is used. Pairs already in the plugboard are kept.
+     */
+    private void climb(Solution candidate, int[] plugboard) {
+        double best = pooledScore(candidate, plugboard);
+        while (countPairs(plugboard) < PLUGBOARD_SIZE) {
+            int bestA = -1;
+            int bestB = -1;
+            for (int a = 0; a < FastMachine.SIZE; a++) {
+                if (plugboard[a] != a) continue;
+                for (int b = a + 1; b < FastMachine.SIZE; b++) {
+                    if (plugboard[b] != b) continue;
+                    plugboard[a] = b;
+                    plugboard[b] = a;
+                    double score = pooledScore(candidate, plugboard);
+                    if (score > best) {
+                        best = score;
+                        bestA = a;
+                        bestB = b;
+                    }
+                    plugboard[a] = a;
+                    plugboard[b] = b;
+                }
+            }
+            if (bestA < 0) break;
+            plugboard[bestA] = bestB;
+            plugboard[bestB] = bestA;
+        }
+    }
+
+    private double pooledScore(Solution candidate, int[] plugboard) {
+        double pooled = 0;
+        for (int m = 0; m < messages.size(); m++) {
+            FastMachine machine = new FastMachine(new EnigmaConfig(candidate.rotorTypes(), candidate.startPositions()[m], ""));
+            machine.setPlugboard(plugboard);
+            byte[] letters = messages.get(m).letters();
+            byte[] runs = messages.get(m).runs();
+            int gram = 0;
+            for (int i = 0; i < letters.length; i++) {
+                machine.step();
+                gram = (gram % (26 * 26 * 26)) * 26 + machine.cipher(letters[i]);
+                if (runs[i] >= 3) pooled += quadgrams[gram];
+            }
+        }
+        return pooled / Math.max(1, totalQuadgrams);
+    }
+
+    /**
+     * Copies the scrambler of every state of a rotor order, with the plugboard applied on the way out, so that
+     * {@code rows[state * 26 + plugged letter]} is the deciphered letter.
+     */
+    private byte[] scramblerRows(int order, int[] plugboard) {
+        byte[] rows = new byte[ScramblerCatalogue.STATES * FastMachine.SIZE];
+        byte[] permutation = new byte[FastMachine.SIZE];
+        for (int state = 0; state < ScramblerCatalogue.STATES; state++) {
+            catalogue.copyPermutation(order, state, permutation);
+            for (int c = 0; c < FastMachine.SIZE; c++) {
+                rows[state * FastMachine.SIZE + c] = (byte) plugboard[permutation[c]];
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Computes the state every state steps into, for the rotor types of an order.
+     */
+    private static int[] successors(int[] types) {
+        int[] next = new int[ScramblerCatalogue.STATES];
+        FastMachine machine = new FastMachine(new EnigmaConfig(types, new char[]{'A', 'A', 'A'}, ""));
+        for (int state = 0; state < ScramblerCatalogue.STATES; state++) {
+            machine.setRotorPositions(windowOf(state));
+            machine.step();
+            next[state] = ScramblerCatalogue.stateIndex(machine.getRotorPositions());
+        }
+        return next;
+    }
+
+    private static char[] windowOf(int state) {
+        return new char[]{(char) ('A' + state / (26 * 26)), (char) ('A' + state / 26 % 26), (char) ('A' + state % 26)};
+    }
+
+    private static int[] identity() {
+        int[] plugboard = new int[FastMachine.SIZE];
+        for (int c = 0; c < FastMachine.SIZE; c++) plugboard[c] = c;
+        return plugboard;
+    }
+
+    private static int countPairs(int[] plugboard) {
+        int pairs = 0;
+        for (int c = 0; c < plugboard.length; c++) {
+            if (plugboard[c] > c) pairs++;
+        }
+        return pairs;
+    }
+
+    private static String toPlugboardString(int[] plugboard) {
+        StringJoiner joiner = new StringJoiner(":");
+        for (int c = 0; c < plugboard.length; c++) {
+            if (plugboard[c] > c) {
+                joiner.add("" + (char) ('A' + c) + (char) ('A' + plugboard[c]));
+            }
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Cracks the ciphertext files given as arguments. Without arguments, the sample plain text is split into three
+     * messages that are enciphered with a shared key and different start positions.
+     */
+    public static void main(String[] args) {
+        List<String> cipherTexts = new ArrayList<>();
+        try {
+            if (args.length > 0) {
+                for (String file : args) {
+                    cipherTexts.add(Files.readString(Paths.get(file)));
+                }
+            } else {
+                String plainText = Files.readString(Paths.get("data/plain_text.txt"));
+                int[] rotorTypes = {3, 5, 4};
+                String plugboard = "XZ:AY:BW:CN:DP:EQ:FR:GT:HS:JU";
+                char[][] starts = {{'J', 'D', 'A'}, {'Q', 'L', 'W'}, {'B', 'Z', 'M'}};
+                int piece = plainText.length() / starts.length;
+                for (int m = 0; m < starts.length; m++) {
+                    String message = plainText.substring(m * piece, m == starts.length - 1 ? plainText.length() : (m + 1) * piece);
+                    cipherTexts.add(new FastMachine(new EnigmaConfig(rotorTypes, starts[m], plugboard)).getCipheredText(message));
+                    System.out.println("Message " + m + ": " + cipherTexts.get(m));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (ScramblerCatalogue catalogue = ScramblerCatalogue.openOrBuild(Paths.get("data/scramblers.bin"))) {
+            List<Solution> solutions = new JointCracker(catalogue, cipherTexts).crack(executor);
+            for (int i = 0; i < solutions.size(); i++) {
+                System.out.println(i + ": " + solutions.get(i));
+            }
+            Solution best = solutions.get(0);
+            for (int m = 0; m < cipherTexts.size(); m++) {
+                System.out.println("Message " + m + ": " + new FastMachine(best.configOf(m)).getCipheredText(cipherTexts.get(m)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package es.usj.crypto;
+
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import es.usj.crypto.utils.Checkpoint;
+import es.usj.crypto.utils.EarlyStop;
+import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.SearchBudget;
+import es.usj.crypto.utils.SearchEvents;
+import es.usj.crypto.utils.SearchMetrics;
+import es.usj.crypto.utils.ScoreStatistics;
+import es.usj.crypto.utils.Shard;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The stages of the ciphertext-only search of {@link Main}, run on the text of one {@link EnigmaManager}: a sweep of
+ * every rotor setting without plugboard, a search of the ring settings of the best keys and a plugboard search adding
+ * one plug at a time. Progress is kept in a {@link Checkpoint}, saved to a file if one is given.
+ *
+ * Instances share nothing, so searches on different managers can run side by side in one JVM. Each search runs within
+ * the {@link SearchBudget} of its manager: once the budget runs out (or the searching thread is interrupted, which
+ * cancels it) the stage in progress stops at its next unit of work, the later stages are skipped and the best keys
+ * found so far are returned. The checkpoint is left at the unit that was stopped, so a resumed search continues there.
+ *
+ * With an {@link EarlyStop}, the sweep also ends once the best key of a rotor order stands out from the scores so far
+ * or decrypts to dictionary words, and the plugboard search once its best key does; the search goes on with the next
+ * stage as if the stopped one had finished.
+ */
+public class KeySearch {
+
+    public static final int TOP_NUMBER = 5000;
+    // Best keys of the sweep whose ring settings are searched
+    private static final int RING_CANDIDATES = TOP_NUMBER / 50;
+    // Letters the rotor orders are ranked on when sweeping best first: a quarter of the text, 30 to 60 letters
+    private static final int SAMPLE_SHARE = 4;
+    private static final int MIN_SAMPLE_LETTERS = 30;
+    private static final int MAX_SAMPLE_LETTERS = 60;
+
+    // Checkpoint phases, run in the order rotors, rings, plugboard
+    private static final int PHASE_ROTORS = 0;
+    private static final int PHASE_PLUGBOARD = 1;
+    private static final int PHASE_RINGS = 2;
+
+    /**
+     * Receives the progress of a search, on the searching thread.
+     */
+    public interface Listener {
+
+        /**
+         * @param stage Stage of the search: rotors, rings or plugboard.
+         * @param done Units of the stage done: rotor orders, candidates or plugs.
+         * @param total Units of the stage.
+         */
+        default void progress(String stage, long done, long total) {
+        }
+
+        /**
+         * @param top Best keys so far, best first.
+         */
+        default void top(List<EnigmaConfig> top) {
+        }
+    }
+
+    private final EnigmaManager manager;
+    private final Path checkpointPath;
+    private Listener listener = new Listener() {
+    };
+    private EarlyStop earlyStop = EarlyStop.none();
+    private boolean bestFirst;
+
+    /**
+     * @param manager Manager whose text is the ciphertext and whose threads score the keys.
+     * @param checkpointPath Where the checkpoint is saved, or {@code null} to keep it in memory only.
+     */
+    public KeySearch(EnigmaManager manager, Path checkpointPath) {
+        this.manager = manager;
+        this.checkpointPath = checkpointPath;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setEarlyStop(EarlyStop earlyStop) {
+        this.earlyStop = earlyStop;
+    }
+
+    /**
+     * @param bestFirst Whether the sweep first ranks the rotor orders on a slice of the text and sweeps the most
+     *                  promising first, so that it reaches the right key, and with an {@link EarlyStop} stops, sooner.
+     */
+    public void setBestFirst(boolean bestFirst) {
+        this.bestFirst = bestFirst;
+    }
+
+    /**
+     * Runs the stages the checkpoint has not finished yet, or as many as the budget allows.
+     *
+     * @return The best keys of the last round, or the best so far if the budget ran out, best first; empty if it ran
+     * out before any key was scored.
+     */
+    public List<EnigmaConfig> run(Checkpoint checkpoint, int plugboardSize) {
+        sweepRotors(checkpoint, Shard.all());
+        searchRings(checkpoint);
+        List<EnigmaConfig> keys = searchPlugboard(checkpoint, plugboardSize);
+        if (stopped()) {
+            System.out.println("Search " + manager.getBudget() + (keys.isEmpty()
+                    ? ", no key was scored" : ", returning the best keys so far"));
+        }
+        return keys;
+    }
+
+    /**
+     * @return {@code true} if the stages should stop: the budget ran out or the thread was interrupted.
+     */
+    public boolean stopped() {
+        SearchBudget budget = manager.getBudget();
+        if (Thread.currentThread().isInterrupted()) {
+            budget.cancel();
+        }
+        return budget.isExhausted();
+    }
+
+    /**
+     * Scores every rotor setting of the shard without plugboard, keeping the best in the checkpoint. The rotor orders
+     * are swept in numeric order, or best first (see {@link #setBestFirst(boolean)}).
+     *
+     * @return {@code true} if every rotor order of the shard was swept; {@code false} if the budget or an
+     * {@link EarlyStop} ended the sweep before, or if the checkpoint was already past the sweep, as it no longer tells
+     * which orders were swept.
+     */
+    public boolean sweepRotors(Checkpoint checkpoint, Shard shard) {
+        if (checkpoint.getPhase() != PHASE_ROTORS) {
+            return false;
+        }
+        List<Integer> orders = new ArrayList<>(shardOrders(shard));
+        orders.removeIf(checkpoint::isCompleted);
+        // Every score of the sweep, for the report of an early stop, and the best score of each order, for its test.
+        // The best-first sweep also knows the sampled best of every order up front
+        ScoreStatistics statistics = new ScoreStatistics();
+        ScoreStatistics bests = new ScoreStatistics();
+        ScoreStatistics sampledBests = new ScoreStatistics();
+        double[] sampled = new double[ScramblerCatalogue.ORDERS];
+        Queue<Integer> schedule = bestFirst ? rankOrders(orders, sampled, sampledBests) : new ArrayDeque<>(orders);
+        EnigmaConfig leader = null;
+        // Sweep one rotor order at a time, so a checkpoint never holds a half-scored order
+        while (!schedule.isEmpty() && !stopped()) {
+            int order = schedule.poll();
+            EnigmaConfig best = sweepOrder(checkpoint, shard, order, statistics);
+            if (stopped()) {
+                // Keep the keys scored before the budget ran out, but sweep the order again on resume
+                break;
+            }
+            checkpoint.markCompleted(order);
+            if (checkpointPath != null) {
+                checkpoint.saveIfDue(checkpointPath);
+            }
+            listener.progress("rotors", checkpoint.completedCount(), ScramblerCatalogue.ORDERS);
+            listener.top(checkpoint.top());
+            if (best == null) {
+                continue;
+            }
+            bests.add(best.getScore());
+            if (leader == null || best.getScore() > leader.getScore()) {
+                leader = best;
+            }
+            // The order ranked first may stand out of the sample at once, rather than after ten more orders
+            if (bestFirst && earlyStop.isOutlier(sampledBests, sampled[order])) {
+                System.out.printf("Stage rotors stopped early (%s): %s, z=%.2f against the sampled bests of %d other "
+                                + "orders%n", earlyStop, best, sampledBests.zScoreExcluding(sampled[order]),
+                        sampledBests.count() - 1);
+                break;
+            }
+            if (stopsEarly("rotors", bests, leader, best, statistics)) {
+                break;
+            }
+        }
+        if (stopped()) {
+            save(checkpoint);
+            return false;
+        }
+        // The next phase forgets the completed orders
+        boolean swept = shardOrders(shard).stream().allMatch(checkpoint::isCompleted);
+        SearchMetrics.stageSurvived("rotors", checkpoint.top().size());
+        checkpoint.setPhase(PHASE_RINGS, 0);
+        save(checkpoint);
+        return swept;
+    }
+
+    /**
+     * @return The rotor orders with at least one position in the shard, in numeric order.
+     */
+    private static List<Integer> shardOrders(Shard shard) {
+        List<Integer> orders = new ArrayList<>();
+        for (int order = 0; order < ScramblerCatalogue.ORDERS; order++) {
+            long first = (long) order * ScramblerCatalogue.STATES;
+            if (first < shard.end() && first + ScramblerCatalogue.STATES > shard.start()) {
+                orders.add(order);
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Scores every position of a rotor order, offering the keys of the shard to the checkpoint.
+     *
+     * @return The best key of the order in the shard, or {@code null} if none is.
+     */
+    private EnigmaConfig sweepOrder(Checkpoint checkpoint, Shard shard, int order, ScoreStatistics statistics) {
+        int[] types = ScramblerCatalogue.orderTypes(order);
+        long first = (long) order * ScramblerCatalogue.STATES;
+        // No plugboard yet: rank the rotor settings with the quadgram score, sharing the work of the positions that
+        // step alike
+        System.out.println("Rotor order " + (order + 1) + "/60: " + Arrays.toString(types));
+        SearchEvents.KeyspaceEnumeration event = new SearchEvents.KeyspaceEnumeration();
+        event.begin();
+        double[] scores = manager.scoreRotorPositions(types);
+        SearchMetrics.stageEntered("rotors", Math.min(shard.end(), first + ScramblerCatalogue.STATES) - Math.max(shard.start(), first));
+        long key = first;
+        EnigmaConfig best = null;
+        for (char a = 'A'; a <= 'Z'; a++) {
+            for (char b = 'A'; b <= 'Z'; b++) {
+                for (char c = 'A'; c <= 'Z'; c++) {
+                    if (shard.contains(key++)) {
+                        EnigmaConfig config = new EnigmaConfig(types, new char[]{a, b, c}, "");
+                        config.setScore(scores[ScramblerCatalogue.stateIndex(a, b, c)]);
+                        checkpoint.offer(config);
+                        statistics.add(config.getScore());
+                        if (best == null || config.getScore() > best.getScore()) {
+                            best = config;
+                        }
+                    }
+                }
+            }
+        }
+        if (event.shouldCommit()) {
+            event.search = "rotors";
+            event.unit = Arrays.toString(types);
+            event.candidates = ScramblerCatalogue.STATES;
+            event.commit();
+        }
+        return best;
+    }
+
+    /**
+     * Scores every position of each rotor order on the first letters of the text only, and ranks the orders by their
+     * best mean quadgram score there. A real decryption stays English on any stretch of the text, so the right order
+     * comes first unless the plugboard hides it, while a slice of the positions would tell nothing: two positions
+     * never decipher alike.
+     *
+     * @param sampled Receives the best sampled score of each order, by order index.
+     * @param statistics Receives the same scores, for the early stop.
+     * @return The orders, best first.
+     */
+    private Queue<Integer> rankOrders(List<Integer> orders, double[] sampled, ScoreStatistics statistics) {
+        int letters = Math.max(MIN_SAMPLE_LETTERS, Math.min(MAX_SAMPLE_LETTERS,
+                manager.getText().replaceAll("[^A-Z]", "").length() / SAMPLE_SHARE));
+        PriorityQueue<Integer> schedule = new PriorityQueue<>(
+                Comparator.comparingDouble((Integer order) -> sampled[order]).reversed());
+        for (int order : orders) {
+            if (stopped()) {
+                // The budget ran out while sampling, so the sweep will not start anyway
+                sampled[order] = Double.NEGATIVE_INFINITY;
+            } else {
+                sampled[order] = Arrays.stream(manager.sampleRotorPositions(ScramblerCatalogue.orderTypes(order), letters))
+                        .max().orElse(Double.NEGATIVE_INFINITY);
+                statistics.add(sampled[order]);
+            }
+            schedule.add(order);
+        }
+        System.out.println("Rotor orders ranked on the first " + letters + " letters, best first: "
+                + schedule.stream().sorted(schedule.comparator()).limit(5)
+                .map(order -> Arrays.toString(ScramblerCatalogue.orderTypes(order))).toList() + "...");
+        return schedule;
+    }
+
+    /**
+     * Searches the middle and right ring settings of the best keys of the sweep, see {@link RingSearch}.
+     */
+    public void searchRings(Checkpoint checkpoint) {
+        if (checkpoint.getPhase() != PHASE_RINGS || stopped()) {
+            return;
+        }
+        List<EnigmaConfig> top = checkpoint.top();
+        List<EnigmaConfig> candidates = top.subList(0, Math.min(RING_CANDIDATES, top.size()));
+        SearchMetrics.stageEntered("rings", candidates.size());
+        List<EnigmaConfig> refined = new ArrayList<>(new RingSearch(manager).search(candidates));
+        if (stopped()) {
+            // Some variants were never scored, so the sweep's keys are still the best known
+            return;
+        }
+        SearchMetrics.stageSurvived("rings", refined.size());
+        refined.addAll(top.subList(Math.min(RING_CANDIDATES, top.size()), top.size()));
+        checkpoint.setTop(refined);
+        checkpoint.setPhase(PHASE_PLUGBOARD, 0);
+        save(checkpoint);
+        listener.progress("rings", candidates.size(), candidates.size());
+        listener.top(refined);
+    }
+
+    /**
+     * Adds one plug at a time to the best keys until they have the given number of plugs.
+     *
+     * @return The best keys of the last round, best first; the keys of the checkpoint, possibly none, if the budget
+     * has run out.
+     */
+    public List<EnigmaConfig> searchPlugboard(Checkpoint checkpoint, int plugboardSize) {
+        List<EnigmaConfig> topScores = checkpoint.top();
+        if (topScores.isEmpty() || stopped()) {
+            return topScores;
+        }
+        if (checkpoint.getRound() == 0) {
+            System.out.println("Top 10 Scores with Configurations:");
+            for (int i = 0; i < Math.min(10, topScores.size()); i++) {
+                EnigmaConfig cs = topScores.get(i);
+                System.out.println(i + ": " + cs);
+            }
+        }
+
+        List<EnigmaConfig> topScoresWithPlugs = topScores;
+        while (pairsOf(topScoresWithPlugs.get(0)) < plugboardSize && !stopped()) {
+            List<String> plugs = generatePlugboardConfig();
+
+            SearchEvents.PlugboardRound event = new SearchEvents.PlugboardRound();
+            event.begin();
+            List<EnigmaConfig> previousTopScores = new ArrayList<>(topScoresWithPlugs);
+            topScoresWithPlugs = new ArrayList<>();
+
+            for (EnigmaConfig config : previousTopScores) {
+                for (String plug : plugs) {
+                    boolean plugused = false;
+                    for (char c : plug.toCharArray()) {
+                        if (config.getPlugboard().contains("" + c)) {
+                            plugused = true;
+                            break;
+                        }
+                    }
+                    if (plugused) continue;
+                    String plugboard = Objects.equals(config.getPlugboard(), "") ? plug : config.getPlugboard() + ":" + plug;
+                    EnigmaConfig newConfig = new EnigmaConfig(config.getRotorTypes(), config.getRotorPositions(),
+                            config.getRingSettings(), plugboard);
+                    topScoresWithPlugs.add(newConfig);
+                }
+            }
+            if (topScoresWithPlugs.isEmpty()) break;
+            manager.scoreConfigurations(topScoresWithPlugs, true);
+            if (stopped()) {
+                // Only part of the round was scored: its keys only replace the ones they beat
+                List<EnigmaConfig> merged = new ArrayList<>(previousTopScores);
+                merged.addAll(topScoresWithPlugs);
+                merged.sort(Comparator.comparingDouble(EnigmaConfig::getScore).reversed());
+                return merged.subList(0, Math.min(TOP_NUMBER / 10, merged.size()));
+            }
+            SearchMetrics.stageEntered("plugboard", topScoresWithPlugs.size());
+            event.candidates = topScoresWithPlugs.size();
+
+            topScoresWithPlugs = topScoresWithPlugs.stream()
+                    .sorted(Comparator.comparingDouble(EnigmaConfig::getScore).reversed())
+                    .limit(TOP_NUMBER / 10)
+                    .toList();
+            SearchMetrics.stageSurvived("plugboard", topScoresWithPlugs.size());
+            // Every round improves on the last, so only a readable decryption tells the plugboard is complete
+            boolean english = earlyStop.checksWords() && earlyStop.isEnglish(decrypt(topScoresWithPlugs.get(0)));
+            event.round = checkpoint.getRound() + 1;
+            event.survivors = topScoresWithPlugs.size();
+            event.bestScore = topScoresWithPlugs.get(0).getScore();
+            event.commit();
+
+            // Each round only needs the survivors of the previous one
+            checkpoint.setTop(topScoresWithPlugs);
+            checkpoint.setPhase(PHASE_PLUGBOARD, checkpoint.getRound() + 1);
+            save(checkpoint);
+            listener.progress("plugboard", pairsOf(topScoresWithPlugs.get(0)), plugboardSize);
+            listener.top(topScoresWithPlugs);
+
+            System.out.println("Top 10 Scores with Configurations:");
+            for (int i = 0; i < Math.min(10, topScoresWithPlugs.size()); i++) {
+                EnigmaConfig cs = topScoresWithPlugs.get(i);
+                System.out.println(i + ": " + cs);
+            }
+            if (english) {
+                System.out.println("Plugboard search stopped early (" + earlyStop + "): " + topScoresWithPlugs.get(0));
+                break;
+            }
+        }
+
+        return topScoresWithPlugs;
+    }
+
+    /**
+     * @param bests Best scores of the units of the stage so far, the last one included.
+     * @param leader Best key of the stage so far.
+     * @param best Best key of the last unit.
+     * @param statistics Every score of the stage so far.
+     * @return {@code true} if the stage stops: its leader stands out from the bests of the other units, or the best
+     * key of the last unit reads as English. The leader is tested again after every unit, as it may have come first.
+     */
+    private boolean stopsEarly(String stage, ScoreStatistics bests, EnigmaConfig leader, EnigmaConfig best,
+                               ScoreStatistics statistics) {
+        if (!earlyStop.isEnabled()) {
+            return false;
+        }
+        String reason;
+        EnigmaConfig key;
+        if (earlyStop.isOutlier(bests, leader.getScore())) {
+            reason = String.format("z=%.2f against the bests of %d other units", bests.zScoreExcluding(leader.getScore()),
+                    bests.count() - 1);
+            key = leader;
+        } else if (earlyStop.checksWords() && earlyStop.isEnglish(decrypt(best))) {
+            reason = "reads as English";
+            key = best;
+        } else {
+            return false;
+        }
+        System.out.println("Stage " + stage + " stopped early (" + earlyStop + "): " + key + ", " + reason
+                + ", scores so far " + statistics);
+        return true;
+    }
+
+    private String decrypt(EnigmaConfig config) {
+        return new FastMachine(config).getCipheredText(manager.getText());
+    }
+
+    private static int pairsOf(EnigmaConfig config) {
+        return config.getPlugboard().isEmpty() ? 0 : config.getPlugboard().split(":").length;
+    }
+
+    private void save(Checkpoint checkpoint) {
+        if (checkpointPath == null) {
+            return;
+        }
+        try {
+            checkpoint.save(checkpointPath);
+        } catch (IOException e) {
+            System.err.println("Error writing checkpoint: " + e.getMessage());
+        }
+    }
+
+    static List<String> generatePlugboardConfig() {
+        List<String> plugboards = new ArrayList<>();
+        char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+        boolean[] used = new boolean[alphabet.length];
+
+        for (int i = 0; i < alphabet.length; i++) {
+            if (used[i]) continue;
+            for (int j = i + 1; j < alphabet.length; j++) {
+                if (used[j]) continue;
+                plugboards.add("" + alphabet[i] + alphabet[j]);
+                used[i] = true;
+                used[j] = true;
+                break;
+            }
+        }
+        return plugboards;
+    }
+}
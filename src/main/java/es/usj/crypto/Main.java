@@ -2,14 +2,21 @@ package es.usj.crypto;
 
 import com.acidmanic.consoletools.terminal.Terminal;
 import com.acidmanic.consoletools.terminal.styling.TerminalStyles;
+import es.usj.crypto.utils.Checkpoint;
+import es.usj.crypto.utils.EarlyStop;
 import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.SearchBudget;
+import es.usj.crypto.utils.SearchEvents;
+import es.usj.crypto.utils.SearchMetrics;
+import es.usj.crypto.utils.Shard;
+import es.usj.crypto.utils.ShardResults;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Main {
@@ -18,112 +25,147 @@ public class Main {
     private static final int FIXED_PLUGBOARD_SIZE = 0;
     private static final boolean FIX_ROTOR_POSITIONS = true;
 
-    private static final int TOP_NUMBER = 5000;
+    private static final int TOP_NUMBER = KeySearch.TOP_NUMBER;
 
     private static final Path plainTextPath = Paths.get("data/plain_text.txt");
+    private static Path checkpointPath = Paths.get("data/main.checkpoint");
     private static EnigmaManager manager = new EnigmaManager(plainTextPath);
 
+    /**
+     * @param args
+     * <ul>
+     *   <li>{@code --resume} continues the search saved in the checkpoint instead of starting over.</li>
+     *   <li>{@code --input=<file>} cracks the ciphertext in the file instead of ciphering a random key.</li>
+     *   <li>{@code --shard=<k>/<n>} only sweeps shard {@code k} of {@code n} of the rotor keyspace, writes its top
+     *   keys to {@code data/shard-<k>-of-<n>.results} (or {@code --results=<file>}) and stops; see
+     *   {@link ShardResults} to merge them. Requires {@code --input}, as every shard must crack the same text.</li>
+     *   <li>{@code --metrics-port=<port>} serves the search metrics for Prometheus, see {@link SearchMetrics}.</li>
+     *   <li>{@code --profile[=<file>]} records the run with Java Flight Recorder to {@code data/main.jfr} or the given
+     *   file, see {@link SearchEvents}.</li>
+     *   <li>{@code --timeout=<seconds>} and {@code --max-evaluations=<keys>} bound the search, see
+     *   {@link SearchBudget}: once either runs out, or on Ctrl-C, it stops and prints the best keys so far, keeping the
+     *   checkpoint for {@code --resume}.</li>
+     *   <li>{@code --stop-z=<deviations>} and {@code --stop-words=<ratio>} end a stage early once a key stands out,
+     *   see {@link EarlyStop}. A shard stopped early writes results that do not cover it.</li>
+     *   <li>{@code --best-first} ranks the rotor orders on a slice of the text and sweeps the most promising first.</li>
+     *   <li>{@code --phased} cracks the text with {@link PhasedSolver} instead, without checkpoint, so not with
+     *   {@code --resume} or {@code --shard}; it takes the survivor options of
+     *   {@link PhasedSolver.Survivors#fromArgs(String[])}.</li>
+     * </ul>
+     */
     public static void main(String[] args) {
+        SearchEvents.recordIfRequested(args, "main");
         Terminal terminal = new Terminal();
         terminal.setScreenAttributes(TerminalStyles.BIOS);
 
-
-        EnigmaConfig initialConfig = manager.cipherInitialText(PLUGBOARD_SIZE);
-        System.out.println("Initial Configuration:" + initialConfig);
-
-        generateAndTestConfigs();
-
-    }
-
-
-    private static List<EnigmaConfig> generateAndTestConfigs() {
-
-        ConcurrentLinkedQueue<EnigmaConfig> configs = new ConcurrentLinkedQueue<>();
-        // Iterate through all rotor positions
-        for (int i = 1; i <= 5; i++) {
-            for (int j = 1; j <= 5; j++) {
-                for (int k = 1; k <= 5; k++) {
-                    if (k == i || k == j || j == i) continue;
-                    for (char a = 'A'; a <= 'Z'; a++) {
-                        for (char b = 'A'; b <= 'Z'; b++) {
-                            for (char c = 'A'; c <= 'Z'; c++) {
-                                EnigmaConfig config = new EnigmaConfig(new int[]{i, j, k}, new char[]{a, b, c}, "");
-                                configs.add(config);
-                            }
-                        }
-                    }
-                }
-            }
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
         }
-
-        manager.scoreConfigurations(new ArrayList<>(configs), true);
-
-
-        List<EnigmaConfig> topScores = configs.stream()
-                .sorted(Comparator.comparingDouble(EnigmaConfig::getScore).reversed())
-                .limit(TOP_NUMBER)
-                .toList();
-
-        System.out.println("Top 10 Scores with Configurations:");
-        for (int i = 0; i < topScores.size(); i++) {
-            EnigmaConfig cs = topScores.get(i);
-            System.out.println(i + ": " + cs);
+        if (options.containsKey("--phased") && (options.containsKey("--resume") || options.containsKey("--shard"))) {
+            System.err.println("--phased keeps no checkpoint and sweeps the whole keyspace, so it takes neither "
+                    + "--resume nor --shard.");
+            SearchEvents.stopRecording();
+            return;
+        }
+        Shard shard = options.containsKey("--shard") ? Shard.parse(options.get("--shard")) : Shard.all();
+        boolean sharded = shard.count() > 1;
+        if (sharded && !options.containsKey("--input")) {
+            System.err.println("A sharded sweep needs --input, so that every shard cracks the same ciphertext.");
+            SearchEvents.stopRecording();
+            return;
+        }
+        if (sharded) {
+            checkpointPath = Paths.get("data/main-shard-" + shard.index() + "-of-" + shard.count() + ".checkpoint");
         }
 
-        List<EnigmaConfig> topScoresWithPlugs = new ArrayList<>();
-        while (topScoresWithPlugs.isEmpty() || topScoresWithPlugs.get(0).getPlugboard().split(":").length < 10) {
-            List<String> plugs = generatePlugboardConfig();
-
-            List<EnigmaConfig> previousTopScores = new ArrayList<>(topScoresWithPlugs);
-            topScoresWithPlugs = new ArrayList<>();
-
-            for (EnigmaConfig config : previousTopScores) {
-                for (String plug : plugs) {
-                    boolean plugused = false;
-                    for (char c : plug.toCharArray()) {
-                        if (config.getPlugboard().contains("" + c)) {
-                            plugused = true;
-                            break;
-                        }
-                    }
-                    if (plugused) continue;
-                    String plugboard = Objects.equals(config.getPlugboard(), "") ? plug : config.getPlugboard() + ":" + plug;
-                    EnigmaConfig newConfig = new EnigmaConfig(config.getRotorTypes(), config.getRotorPositions(), plugboard);
-                    topScoresWithPlugs.add(newConfig);
+        Optional<Checkpoint> resumed = options.containsKey("--resume")
+                ? Checkpoint.resume(checkpointPath, text -> fingerprint(text, shard))
+                : Optional.empty();
+        Checkpoint checkpoint;
+        if (resumed.isPresent()) {
+            checkpoint = resumed.get();
+            manager.setText(checkpoint.getCipherText());
+        } else {
+            if (options.containsKey("--input")) {
+                try {
+                    manager.setText(Files.readString(Paths.get(options.get("--input"))));
+                } catch (IOException e) {
+                    System.err.println("Error reading ciphertext: " + e.getMessage());
+                    SearchEvents.stopRecording();
+                    return;
                 }
+            } else {
+                EnigmaConfig initialConfig = manager.cipherInitialText(PLUGBOARD_SIZE);
+                System.out.println("Initial Configuration:" + initialConfig);
             }
-            manager.scoreConfigurations(topScoresWithPlugs, true);
-
-            topScoresWithPlugs = previousTopScores.stream()
-                    .sorted(Comparator.comparingDouble(EnigmaConfig::getScore).reversed())
-                    .limit(TOP_NUMBER / 10)
-                    .toList();
-
-            System.out.println("Top 10 Scores with Configurations:");
-            for (int i = 0; i < topScoresWithPlugs.size(); i++) {
-                EnigmaConfig cs = topScoresWithPlugs.get(i);
-                System.out.println(i + ": " + cs);
+            checkpoint = new Checkpoint(fingerprint(manager.getText(), shard), manager.getText(), TOP_NUMBER);
+        }
+        SearchMetrics.monitorThreshold("main", checkpoint, Checkpoint::threshold);
+        SearchMetrics.serveIfRequested(args);
+        SearchBudget budget = SearchBudget.fromArgs(args).cancelOnShutdown();
+        manager.setBudget(budget);
+
+        KeySearch search = new KeySearch(manager, checkpointPath);
+        search.setEarlyStop(EarlyStop.fromArgs(args));
+        search.setBestFirst(options.containsKey("--best-first"));
+        if (sharded) {
+            boolean swept = search.sweepRotors(checkpoint, shard);
+            budget.release();
+            if (budget.reason() != null) {
+                System.out.println("Shard " + shard + " sweep " + budget + ", resume it with --resume");
+                manager.shutdown();
+                SearchMetrics.stop();
+                SearchEvents.stopRecording();
+                return;
+            }
+            Path resultsPath = Paths.get(options.getOrDefault("--results",
+                    "data/shard-" + shard.index() + "-of-" + shard.count() + ".results"));
+            String searchFingerprint = ShardResults.fingerprint(manager.getText());
+            try {
+                (swept ? ShardResults.of(searchFingerprint, shard, TOP_NUMBER, checkpoint.top())
+                        : ShardResults.partial(searchFingerprint, shard, TOP_NUMBER, checkpoint.top()))
+                        .write(resultsPath);
+                System.out.println("Shard " + shard + " results written to " + resultsPath + (swept ? "" : ", not "
+                        + "covering the shard as its sweep may have skipped keys; run it again without --resume, "
+                        + "--stop-z or --stop-words to cover it"));
+            } catch (IOException e) {
+                System.err.println("Error writing shard results: " + e.getMessage());
+                SearchMetrics.stop();
+                SearchEvents.stopRecording();
+                return;
             }
+        } else {
+            List<EnigmaConfig> keys = options.containsKey("--phased")
+                    ? new PhasedSolver(manager, PhasedSolver.Survivors.fromArgs(args), PLUGBOARD_SIZE).solve()
+                    : search.run(checkpoint, PLUGBOARD_SIZE);
+            budget.release();
+            if (budget.reason() != null && !keys.isEmpty()) {
+                System.out.println("Best key so far: " + keys.get(0));
+            }
+        }
+        manager.shutdown();
+        SearchMetrics.stop();
+        SearchEvents.stopRecording();
+        if (options.containsKey("--phased")) {
+            // The phased solver keeps no checkpoint, so any checkpoint there belongs to another search
+            return;
+        }
+        if (budget.reason() != null) {
+            System.out.println("Checkpoint kept in " + checkpointPath + ", resume the search with --resume");
+            return;
         }
 
-        return topScoresWithPlugs;
+        try {
+            // A finished search has nothing left to resume
+            Files.deleteIfExists(checkpointPath);
+        } catch (IOException e) {
+            System.err.println("Error removing checkpoint: " + e.getMessage());
+        }
     }
 
-    static List<String> generatePlugboardConfig() {
-        List<String> plugboards = new ArrayList<>();
-        char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
-        boolean[] used = new boolean[alphabet.length];
-
-        for (int i = 0; i < alphabet.length; i++) {
-            if (used[i]) continue;
-            for (int j = i + 1; j < alphabet.length; j++) {
-                if (used[j]) continue;
-                plugboards.add("" + alphabet[i] + alphabet[j]);
-                used[i] = true;
-                used[j] = true;
-                break;
-            }
-        }
-        return plugboards;
+    private static String fingerprint(String cipherText, Shard shard) {
+        return Checkpoint.fingerprint("Main", PLUGBOARD_SIZE, TOP_NUMBER, shard, cipherText);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,397 @@
+package es.usj.crypto;
+
+import es.usj.crypto.Fitness.BatchScore;
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.LaneMachine;
+import es.usj.crypto.enigma.PositionSweep;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.ProgressBar;
+import es.usj.crypto.utils.SearchBudget;
+import es.usj.crypto.utils.SearchEvents;
+import es.usj.crypto.utils.SearchMetrics;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ciphertext-only solver that gives each part of the key the statistic that still works while the other parts are
+ * unknown, and only lets the best candidates of a phase into the next, more expensive one:
+ * <ol>
+ *   <li>Rotors: every rotor order and start position, without plugboard and with every ring at 'A', ranked by the
+ *   Index of Coincidence of the decryption (see {@link PositionSweep.Statistic#INDEX_OF_COINCIDENCE}). The n-grams
+ *   of a decryption under the wrong plugboard are noise, but the letter frequencies keep enough of English to rank
+ *   the right positions near the top on a text of two thousand letters or more.</li>
+ *   <li>Rings: the middle and right ring settings of the survivors, one per stepping pattern (see
+ *   {@link RingSearch#variants(EnigmaConfig, int)}), ranked by the Index of Coincidence again. The right ring settings
+ *   fix the turnovers the sweep got wrong, which lifts the Index of Coincidence of the right key above most of the
+ *   others. The n-gram statistics, bigrams included, still see the noise of the unknown plugboard and often prefer
+ *   the wrong ring settings of the right key.</li>
+ *   <li>Plugboard: one hill climb per survivor, in parallel. A move plugs two letters, unplugging their partners, or
+ *   unplugs a pair, and the climb takes the best move until none helps, first on trigrams from an empty plugboard and
+ *   then on quadgrams from the trigram plugboard.</li>
+ * </ol>
+ * The number of survivors of each phase is set with {@link Survivors}. Every phase runs its tasks on the threads of
+ * the manager and within its {@link SearchBudget}: once the budget runs out, the phase in progress stops and the
+ * survivors found so far are returned.
+ *
+ * The rotor phase is as expensive as the rotor sweep of {@link KeySearch}, but the plugboard phase climbs a few dozen
+ * keys instead of scoring hundreds of thousands of plugboards with {@code Score.evaluate}.
+ */
+public class PhasedSolver {
+
+    /**
+     * Candidates kept by each phase.
+     *
+     * @param rotors Best rotor settings of the sweep whose ring settings are searched.
+     * @param rings Best ring settings whose plugboard is climbed.
+     * @param plugboards Best keys returned.
+     */
+    public record Survivors(int rotors, int rings, int plugboards) {
+
+        public Survivors {
+            if (rotors <= 0 || rings <= 0 || plugboards <= 0) {
+                throw new IllegalArgumentException("Survivors should be positive: " + rotors + ", " + rings + ", "
+                        + plugboards);
+            }
+        }
+
+        public static Survivors defaults() {
+            return new Survivors(5000, 50, 10);
+        }
+
+        /**
+         * Reads the survivors from {@code --rotor-survivors=<n>}, {@code --ring-survivors=<n>} and
+         * {@code --plugboard-survivors=<n>} program arguments, the others keeping their default.
+         *
+         * @throws IllegalArgumentException If a count is not positive.
+         */
+        public static Survivors fromArgs(String[] args) {
+            Survivors survivors = defaults();
+            int rotors = survivors.rotors();
+            int rings = survivors.rings();
+            int plugboards = survivors.plugboards();
+            for (String arg : args) {
+                if (arg.startsWith("--rotor-survivors=")) {
+                    rotors = Integer.parseInt(arg.substring("--rotor-survivors=".length()));
+                } else if (arg.startsWith("--ring-survivors=")) {
+                    rings = Integer.parseInt(arg.substring("--ring-survivors=".length()));
+                } else if (arg.startsWith("--plugboard-survivors=")) {
+                    plugboards = Integer.parseInt(arg.substring("--plugboard-survivors=".length()));
+                }
+            }
+            return new Survivors(rotors, rings, plugboards);
+        }
+    }
+
+    private final EnigmaManager manager;
+    private final Survivors survivors;
+    private final int plugboardSize;
+    private final LaneMachine.Text text;
+    private final float[] trigrams;
+    private final float[] quadgrams;
+    private final int totalTrigrams;
+
+    /**
+     * @param manager Manager whose text is the ciphertext and whose threads run the phases.
+     * @param survivors Candidates kept by each phase.
+     * @param plugboardSize Most plugs the climb uses.
+     */
+    public PhasedSolver(EnigmaManager manager, Survivors survivors, int plugboardSize) {
+        this.manager = manager;
+        this.survivors = survivors;
+        this.plugboardSize = plugboardSize;
+        this.text = LaneMachine.Text.compile(manager.getText());
+        this.trigrams = BatchScore.trigramLogProbabilities();
+        this.quadgrams = BatchScore.quadgramLogProbabilities();
+        int count = 0;
+        for (byte run : text.runs()) {
+            if (run >= 2) count++;
+        }
+        this.totalTrigrams = count;
+    }
+
+    /**
+     * Runs the three phases, or as many as the budget allows.
+     *
+     * @return The best keys, best first; if the budget ran out, the survivors of the phase in progress (the keys
+     * climbed so far in the plugboard phase), possibly none.
+     */
+    public List<EnigmaConfig> solve() {
+        System.out.println("Phased search of " + text.letters().length + " letters, keeping " + survivors);
+        List<EnigmaConfig> keys = sweepRotors();
+        if (!stopped()) {
+            keys = searchRings(keys);
+        }
+        if (!stopped()) {
+            keys = climbPlugboards(keys);
+        }
+        if (stopped()) {
+            System.out.println("Phased search " + manager.getBudget() + (keys.isEmpty()
+                    ? ", no key was scored" : ", returning the best keys so far"));
+        } else if (!keys.isEmpty()) {
+            System.out.println("Phased search found " + keys.get(0));
+        }
+        return keys;
+    }
+
+    /**
+     * @return {@code true} if the phases should stop: the budget ran out or the thread was interrupted.
+     */
+    private boolean stopped() {
+        SearchBudget budget = manager.getBudget();
+        if (Thread.currentThread().isInterrupted()) {
+            budget.cancel();
+        }
+        return budget.isExhausted();
+    }
+
+    /**
+     * Phase one: ranks every start position of every rotor order by its Index of Coincidence.
+     *
+     * @return The best rotor settings, every ring at 'A', best first.
+     */
+    List<EnigmaConfig> sweepRotors() {
+        PriorityQueue<EnigmaConfig> best = new PriorityQueue<>(Comparator.comparingDouble(EnigmaConfig::getScore));
+        for (int order = 0; order < ScramblerCatalogue.ORDERS && !stopped(); order++) {
+            int[] types = ScramblerCatalogue.orderTypes(order);
+            SearchEvents.KeyspaceEnumeration event = new SearchEvents.KeyspaceEnumeration();
+            event.begin();
+            SearchMetrics.stageEntered("rotors", ScramblerCatalogue.STATES);
+            double[] scores = manager.scoreRotorPositions(types, PositionSweep.Statistic.INDEX_OF_COINCIDENCE);
+            for (int state = 0; state < ScramblerCatalogue.STATES; state++) {
+                if (best.size() == survivors.rotors() && scores[state] <= best.peek().getScore()) {
+                    continue;
+                }
+                EnigmaConfig config = new EnigmaConfig(types, new char[]{(char) ('A' + state / (26 * 26)),
+                        (char) ('A' + state / 26 % 26), (char) ('A' + state % 26)}, "");
+                config.setScore(scores[state]);
+                best.add(config);
+                if (best.size() > survivors.rotors()) {
+                    best.poll();
+                }
+            }
+            if (event.shouldCommit()) {
+                event.search = "phased";
+                event.unit = Arrays.toString(types);
+                event.candidates = ScramblerCatalogue.STATES;
+                event.commit();
+            }
+        }
+        List<EnigmaConfig> sorted = sortedBestFirst(best);
+        SearchMetrics.stageSurvived("rotors", sorted.size());
+        System.out.println("Rotors: kept " + sorted.size() + " positions by Index of Coincidence, best "
+                + (sorted.isEmpty() ? "none" : sorted.get(0)));
+        return sorted;
+    }
+
+    /**
+     * Phase two: replaces each rotor setting with its ring settings of best Index of Coincidence, one task per
+     * setting.
+     *
+     * @return The best keys with ring settings, without plugboard, best first.
+     */
+    List<EnigmaConfig> searchRings(List<EnigmaConfig> candidates) {
+        SearchMetrics.stageEntered("rings", candidates.size());
+        SearchBudget budget = manager.getBudget();
+        ProgressBar progressBar = new ProgressBar("rings", candidates.size());
+        List<CompletableFuture<EnigmaConfig>> futures = new ArrayList<>(candidates.size());
+        for (EnigmaConfig candidate : candidates) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                if (budget.isExhausted()) {
+                    progressBar.add(1);
+                    return null;
+                }
+                long startTime = System.nanoTime();
+                List<EnigmaConfig> variants = RingSearch.variants(candidate, text.letters().length);
+                EnigmaConfig best = null;
+                for (EnigmaConfig variant : variants) {
+                    variant.setScore(indexOfCoincidence(variant));
+                    if (best == null || variant.getScore() > best.getScore()) {
+                        best = variant;
+                    }
+                }
+                SearchMetrics.candidatesScored("rings", variants.size(),
+                        (long) variants.size() * text.letters().length, System.nanoTime() - startTime);
+                budget.charge(variants.size());
+                progressBar.add(1);
+                return best;
+            }, manager.getExecutor()));
+        }
+        PriorityQueue<EnigmaConfig> best = new PriorityQueue<>(Comparator.comparingDouble(EnigmaConfig::getScore));
+        for (CompletableFuture<EnigmaConfig> future : futures) {
+            EnigmaConfig config = future.join();
+            if (config != null) {
+                best.add(config);
+                if (best.size() > survivors.rings()) {
+                    best.poll();
+                }
+            }
+        }
+        progressBar.finish();
+        List<EnigmaConfig> sorted = sortedBestFirst(best);
+        SearchMetrics.stageSurvived("rings", sorted.size());
+        System.out.println("Rings: kept " + sorted.size() + " keys by Index of Coincidence, best "
+                + (sorted.isEmpty() ? "none" : sorted.get(0)));
+        return sorted;
+    }
+
+    /**
+     * @return Index of Coincidence of the decryption of the text without plugboard.
+     */
+    private double indexOfCoincidence(EnigmaConfig config) {
+        byte[] letters = text.letters();
+        int[] counts = new int[FastMachine.SIZE];
+        FastMachine machine = new FastMachine(config);
+        for (byte letter : letters) {
+            machine.step();
+            counts[machine.scramble(letter)]++;
+        }
+        long coincidences = 0;
+        for (int count : counts) {
+            coincidences += (long) count * (count - 1);
+        }
+        return letters.length < 2 ? 0 : coincidences / ((double) letters.length * (letters.length - 1));
+    }
+
+    /**
+     * Phase three: climbs the plugboard of each key on its own task. The keys are scored by the mean quadgram
+     * log10-probability the climb ended on; keys whose climb had not started when the budget ran out are dropped.
+     *
+     * @return The best climbed keys with their plugboard, best first.
+     */
+    List<EnigmaConfig> climbPlugboards(List<EnigmaConfig> candidates) {
+        SearchMetrics.stageEntered("plugboard", candidates.size());
+        SearchEvents.PlugboardRound event = new SearchEvents.PlugboardRound();
+        event.begin();
+        SearchBudget budget = manager.getBudget();
+        ProgressBar progressBar = new ProgressBar("plugboard", candidates.size());
+        List<CompletableFuture<EnigmaConfig>> futures = new ArrayList<>(candidates.size());
+        for (EnigmaConfig candidate : candidates) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                if (budget.isExhausted()) {
+                    progressBar.add(1);
+                    return null;
+                }
+                long startTime = System.nanoTime();
+                Climb climb = new Climb(candidate);
+                int[] plugboard = identity();
+                climb.run(plugboard, trigrams, 2, totalTrigrams);
+                double score = climb.run(plugboard, quadgrams, 3, text.quadgrams());
+                SearchMetrics.candidatesScored("climbs", climb.evaluations,
+                        climb.evaluations * text.letters().length, System.nanoTime() - startTime);
+                budget.charge(climb.evaluations);
+                progressBar.add(1);
+                EnigmaConfig key = new EnigmaConfig(candidate.getRotorTypes(), candidate.getRotorPositions(),
+                        candidate.getRingSettings(), toPlugboardString(plugboard));
+                key.setScore(score);
+                return key;
+            }, manager.getExecutor()));
+        }
+        List<EnigmaConfig> climbed = futures.stream().map(CompletableFuture::join).filter(Objects::nonNull).toList();
+        progressBar.finish();
+        List<EnigmaConfig> sorted = climbed.stream()
+                .sorted(Comparator.comparingDouble(EnigmaConfig::getScore).reversed())
+                .limit(survivors.plugboards())
+                .toList();
+        SearchMetrics.stageSurvived("plugboard", sorted.size());
+        if (event.shouldCommit()) {
+            event.candidates = candidates.size();
+            event.survivors = sorted.size();
+            event.bestScore = sorted.isEmpty() ? 0 : sorted.get(0).getScore();
+            event.commit();
+        }
+        return sorted;
+    }
+
+    /**
+     * Hill climb of the plugboard of one key, scored with a {@link PlugboardScorer}.
+     */
+    private final class Climb {
+
+        private final PlugboardScorer scorer;
+        // Plugboards scored by the runs so far
+        private long evaluations;
+
+        Climb(EnigmaConfig config) {
+            this.scorer = new PlugboardScorer(config, text);
+        }
+
+        /**
+         * Applies the best move until no move improves the score or the plugboard is full.
+         *
+         * @param plugboard Start plugboard as letter indices, updated in place.
+         * @param table N-gram log10-probabilities.
+         * @param run Letters that must precede the last letter of an n-gram in its word: n - 1.
+         * @param grams N-grams in the text.
+         * @return Score of the final plugboard.
+         */
+        double run(int[] plugboard, float[] table, int run, int grams) {
+            evaluations++;
+            double best = scorer.score(plugboard, table, run, grams);
+            int[] trial = new int[FastMachine.SIZE];
+            while (true) {
+                int[] bestMove = null;
+                for (int a = 0; a < FastMachine.SIZE; a++) {
+                    for (int b = a + 1; b < FastMachine.SIZE; b++) {
+                        System.arraycopy(plugboard, 0, trial, 0, FastMachine.SIZE);
+                        boolean unplug = trial[a] == b;
+                        unplug(trial, a);
+                        unplug(trial, b);
+                        if (!unplug) {
+                            trial[a] = b;
+                            trial[b] = a;
+                            if (countPairs(trial) > plugboardSize) continue;
+                        }
+                        double score = scorer.score(trial, table, run, grams);
+                        evaluations++;
+                        if (score > best) {
+                            best = score;
+                            bestMove = trial.clone();
+                        }
+                    }
+                }
+                if (bestMove == null) {
+                    return best;
+                }
+                System.arraycopy(bestMove, 0, plugboard, 0, FastMachine.SIZE);
+            }
+        }
+    }
+
+    private static List<EnigmaConfig> sortedBestFirst(PriorityQueue<EnigmaConfig> queue) {
+        List<EnigmaConfig> sorted = new ArrayList<>(queue);
+        sorted.sort(Comparator.comparingDouble(EnigmaConfig::getScore).reversed());
+        return sorted;
+    }
+
+    private static void unplug(int[] plugboard, int c) {
+        int partner = plugboard[c];
+        plugboard[partner] = partner;
+        plugboard[c] = c;
+    }
+
+    private static int[] identity() {
+        int[] plugboard = new int[FastMachine.SIZE];
+        for (int c = 0; c < FastMachine.SIZE; c++) plugboard[c] = c;
+        return plugboard;
+    }
+
+    private static int countPairs(int[] plugboard) {
+        int pairs = 0;
+        for (int c = 0; c < plugboard.length; c++) {
+            if (plugboard[c] > c) pairs++;
+        }
+        return pairs;
+    }
+
+    private static String toPlugboardString(int[] plugboard) {
+        StringJoiner joiner = new StringJoiner(":");
+        for (int c = 0; c < plugboard.length; c++) {
+            if (plugboard[c] > c) {
+                joiner.add("" + (char) ('A' + c) + (char) ('A' + plugboard[c]));
+            }
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package es.usj.crypto;
+
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.LaneMachine;
+
+/**
+ * Scores plugboards of one key without deciphering the text again. The scrambler of every letter is computed once, so
+ * that a plugboard {@code P} deciphers letter {@code i} as {@code P[scrambler_i[P[c_i]]]} with three lookups.
+ */
+final class PlugboardScorer {
+
+    private final LaneMachine.Text text;
+    // Scrambler of letter i without plugboard, indexed by i * 26 + letter
+    private final byte[] scramblers;
+
+    /**
+     * @param config Rotor types, positions and ring settings of the key; its plugboard is ignored.
+     * @param text The compiled ciphertext.
+     */
+    PlugboardScorer(EnigmaConfig config, LaneMachine.Text text) {
+        this.text = text;
+        byte[] letters = text.letters();
+        this.scramblers = new byte[letters.length * FastMachine.SIZE];
+        FastMachine machine = new FastMachine(new EnigmaConfig(config.getRotorTypes(), config.getRotorPositions(),
+                config.getRingSettings(), ""));
+        for (int i = 0; i < letters.length; i++) {
+            machine.step();
+            for (int c = 0; c < FastMachine.SIZE; c++) {
+                scramblers[i * FastMachine.SIZE + c] = (byte) machine.scramble(c);
+            }
+        }
+    }
+
+    /**
+     * @param plugboard Plugboard as letter indices.
+     * @param table N-gram log10-probabilities.
+     * @param run Letters that must precede the last letter of an n-gram in its word: n - 1.
+     * @param grams N-grams in the text.
+     * @return Mean n-gram log10-probability of the decryption.
+     */
+    double score(int[] plugboard, float[] table, int run, int grams) {
+        byte[] letters = text.letters();
+        byte[] runs = text.runs();
+        int modulus = run == 2 ? 26 * 26 : 26 * 26 * 26;
+        double sum = 0;
+        int gram = 0;
+        for (int i = 0; i < letters.length; i++) {
+            int c = plugboard[scramblers[i * FastMachine.SIZE + plugboard[letters[i]]]];
+            gram = (gram % modulus) * 26 + c;
+            if (runs[i] >= run) sum += table[gram];
+        }
+        return sum / Math.max(1, grams);
+    }
+}
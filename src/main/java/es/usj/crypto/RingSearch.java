@@ -0,0 +1,155 @@
+package es.usj.crypto;
+
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.LaneMachine;
+import es.usj.crypto.utils.EnigmaManager;
+
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Finds the ring settings of the best keys of a rotor sweep.
+ *
+ * A ring setting turns the wiring of a rotor against its window letters and notch. Turning the ring and the rotor by
+ * the same amount leaves the wiring where it was and only moves the notch, so the sweep, which runs with every ring
+ * at 'A', already finds the wiring positions and only gets the turnovers wrong. This stage keeps the wiring of each
+ * candidate and tries the ring settings of the middle and right rotors, the only ones that change stepping (the left
+ * rotor has no rotor to turn).
+ *
+ * Of the 676 middle and right ring settings, most step the rotors the same way within the message: with {@code n}
+ * letters the right rotor reaches its notch at one of {@code min(n, 26)} letters or not at all, and the middle rotor
+ * sees its notch at one of the few positions it visits or not at all. Each setting is simulated over the message
+ * length and only the first setting of each distinct stepping pattern is scored, so a candidate costs a few hundred
+ * decryptions at most instead of 676.
+ */
+public class RingSearch {
+
+    private final EnigmaManager manager;
+
+    /**
+     * @param manager Manager whose text is the ciphertext and whose threads score the variants.
+     */
+    public RingSearch(EnigmaManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Returns the variants of a configuration that keep its wiring positions and step differently within the given
+     * number of letters, one per stepping pattern. The configuration itself comes first.
+     *
+     * @param config A configuration, with or without ring settings.
+     * @param letters Number of letters of the message.
+     * @return The variants, with their window letters and middle and right ring settings changed.
+     */
+    public static List<EnigmaConfig> variants(EnigmaConfig config, int letters) {
+        int[] types = config.getRotorTypes();
+        char[] positions = config.getRotorPositions();
+        char[] ringSettings = config.getRingSettings();
+        int middleNotch = FastMachine.notchOffset(types[1]);
+        int rightNotch = FastMachine.notchOffset(types[2]);
+        // Offsets of the middle and right wiring, which every variant keeps
+        int middleWiring = FastMachine.offsetOf(types[1], positions[1]) - (ringSettings[1] - 'A');
+        int rightWiring = FastMachine.offsetOf(types[2], positions[2]) - (ringSettings[2] - 'A');
+
+        List<EnigmaConfig> variants = new ArrayList<>();
+        Set<BitSet> patterns = new HashSet<>();
+        for (int i = 0; i < FastMachine.PERIOD; i++) {
+            // Start from the configuration's own ring settings, so it represents its pattern
+            int middleRing = (ringSettings[1] - 'A' + i / FastMachine.SIZE) % FastMachine.SIZE;
+            int rightRing = (ringSettings[2] - 'A' + i % FastMachine.SIZE) % FastMachine.SIZE;
+            int middle = Math.floorMod(middleWiring + middleRing, FastMachine.SIZE);
+            int right = Math.floorMod(rightWiring + rightRing, FastMachine.SIZE);
+            if (!patterns.add(steppingPattern(middle, right, middleNotch, rightNotch, letters))) {
+                continue;
+            }
+            EnigmaConfig variant = new EnigmaConfig(types,
+                    new char[]{positions[0], FastMachine.positionOf(types[1], middle), FastMachine.positionOf(types[2], right)},
+                    new char[]{ringSettings[0], (char) ('A' + middleRing), (char) ('A' + rightRing)},
+                    config.getPlugboard());
+            variants.add(variant);
+        }
+        return variants;
+    }
+
+    /**
+     * Simulates the stepping of the rotors over a message: bit {@code 2i} is set if the middle rotor turns before
+     * letter {@code i}, and bit {@code 2i + 1} if the left rotor does. The right rotor always turns.
+     */
+    private static BitSet steppingPattern(int middle, int right, int middleNotch, int rightNotch, int letters) {
+        BitSet pattern = new BitSet(2 * letters);
+        for (int i = 0; i < letters; i++) {
+            right = right == FastMachine.SIZE - 1 ? 0 : right + 1;
+            if (right == rightNotch) {
+                middle = middle == FastMachine.SIZE - 1 ? 0 : middle + 1;
+                pattern.set(2 * i);
+            }
+            if (middle == middleNotch) {
+                pattern.set(2 * i + 1);
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * Replaces each candidate with its best scoring ring settings. A candidate is only replaced by a variant that
+     * scores strictly better.
+     *
+     * @param candidates Best keys of a sweep.
+     * @return The refined keys, best first.
+     */
+    public List<EnigmaConfig> search(List<EnigmaConfig> candidates) {
+        int letters = LaneMachine.Text.compile(manager.getText()).letters().length;
+        List<EnigmaConfig> variants = new ArrayList<>();
+        int[] first = new int[candidates.size() + 1];
+        for (int c = 0; c < candidates.size(); c++) {
+            first[c] = variants.size();
+            variants.addAll(variants(candidates.get(c), letters));
+        }
+        first[candidates.size()] = variants.size();
+
+        System.out.println("Scoring " + variants.size() + " ring settings of " + candidates.size() + " candidates ("
+                + variants.size() / Math.max(1, candidates.size()) + " stepping patterns each instead of "
+                + FastMachine.PERIOD + ")");
+        manager.scoreConfigurationsInLanes(variants, false);
+
+        List<EnigmaConfig> refined = new ArrayList<>(candidates.size());
+        for (int c = 0; c < candidates.size(); c++) {
+            EnigmaConfig best = variants.get(first[c]);
+            for (int v = first[c] + 1; v < first[c + 1]; v++) {
+                if (variants.get(v).getScore() > best.getScore()) {
+                    best = variants.get(v);
+                }
+            }
+            refined.add(best);
+        }
+        refined.sort(Comparator.comparingDouble(EnigmaConfig::getScore).reversed());
+        return refined;
+    }
+
+    /**
+     * Enciphers the sample plain text with ring settings and finds them back from the key the sweep would find,
+     * which has the same wiring positions and every ring at 'A'.
+     */
+    public static void main(String[] args) {
+        EnigmaManager manager = new EnigmaManager(Paths.get("data/plain_text.txt"));
+        EnigmaConfig key = new EnigmaConfig(new int[]{3, 5, 4}, new char[]{'J', 'D', 'A'}, new char[]{'A', 'F', 'K'}, "");
+        manager.setText(new FastMachine(key).getCipheredText(manager.getText()));
+
+        // The sweep finds the wiring positions: each window letter turned back by its ring setting
+        int[] types = key.getRotorTypes();
+        char[] sweepPositions = new char[3];
+        for (int r = 0; r < 3; r++) {
+            int offset = FastMachine.offsetOf(types[r], key.getRotorPositions()[r]) - (key.getRingSettings()[r] - 'A');
+            sweepPositions[r] = FastMachine.positionOf(types[r], Math.floorMod(offset, FastMachine.SIZE));
+        }
+        EnigmaConfig swept = new EnigmaConfig(types, sweepPositions, "");
+        manager.scoreConfigurationsInLanes(List.of(swept), false);
+        System.out.println("Sweep key: " + swept);
+
+        EnigmaConfig found = new RingSearch(manager).search(List.of(swept)).get(0);
+        System.out.println("Ring search: " + found);
+        System.out.println("Actual key:  " + key);
+        System.out.println(new FastMachine(found).getCipheredText(manager.getText()));
+        manager.shutdown();
+    }
+}
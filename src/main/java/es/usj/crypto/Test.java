@@ -2,10 +2,13 @@ package es.usj.crypto;
 
 import com.acidmanic.consoletools.terminal.Terminal;
 import com.acidmanic.consoletools.terminal.styling.TerminalStyles;
+import es.usj.crypto.utils.Checkpoint;
 import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.SearchBudget;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -23,23 +26,70 @@ public class Test {
     private static final Path plainTextPath = Paths.get("data/plain_text.txt");
     private static EnigmaManager manager = new EnigmaManager(plainTextPath);
 
+    private static final Path checkpointPath = Paths.get("data/test.checkpoint");
+    private static final int ITERATIONS = 10;
+
+    /**
+     * @param args {@code --resume} skips the iterations saved in {@code data/test.checkpoint}; {@code --timeout=<seconds>}
+     *             and {@code --max-evaluations=<keys>} bound the whole run, see {@link SearchBudget}, keeping the
+     *             checkpoint of the iterations finished before it stopped.
+     */
     public static void main(String[] args) {
         Terminal terminal = new Terminal();
         terminal.setScreenAttributes(TerminalStyles.BIOS);
 
+        // Every iteration ciphers a new random text, so the checkpoint only records the finished iterations
+        String fingerprint = Checkpoint.fingerprint("Test", PLUGBOARD_SIZE, FIXED_PLUGBOARD_SIZE, FIX_ROTOR_POSITIONS, ITERATIONS);
+        Checkpoint checkpoint = Arrays.asList(args).contains("--resume")
+                ? Checkpoint.resume(checkpointPath, cipherText -> fingerprint).orElse(null)
+                : null;
+        if (checkpoint == null) {
+            checkpoint = new Checkpoint(fingerprint, "", 0);
+        }
+        SearchBudget budget = SearchBudget.fromArgs(args).cancelOnShutdown();
 
         List<Integer> positions = new ArrayList<>();
-        EnigmaConfig initialConfig = manager.cipherInitialText(PLUGBOARD_SIZE);
-        System.out.println("Initial Configuration:" + initialConfig);
-        for (int iteration = 0; iteration < 10; iteration++) {
-            positions.add(generateAndTestConfigs(initialConfig));
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            if (checkpoint.isCompleted(iteration)) {
+                positions.add((int) checkpoint.getCounter("position." + iteration));
+                continue;
+            }
+            if (budget.isExhausted()) {
+                break;
+            }
             manager.shutdown();
             manager = new EnigmaManager(plainTextPath);
-            initialConfig = manager.cipherInitialText(PLUGBOARD_SIZE);
+            manager.setBudget(budget);
+            EnigmaConfig initialConfig = manager.cipherInitialText(PLUGBOARD_SIZE);
             System.out.println("Initial Configuration:" + initialConfig);
+            int position = generateAndTestConfigs(initialConfig);
+            if (budget.isExhausted()) {
+                // Part of the keys were never scored, so the position means nothing
+                break;
+            }
+            positions.add(position);
+
+            checkpoint.addCounter("position." + iteration, position);
+            checkpoint.markCompleted(iteration);
+            try {
+                checkpoint.save(checkpointPath);
+            } catch (IOException e) {
+                System.err.println("Error writing checkpoint: " + e.getMessage());
+            }
         }
+        budget.release();
+        manager.shutdown();
         System.out.println("Positions: " + positions);
+        if (budget.reason() != null) {
+            System.out.println("Run " + budget + ", resume it with --resume");
+            return;
+        }
 
+        try {
+            Files.deleteIfExists(checkpointPath);
+        } catch (IOException e) {
+            System.err.println("Error removing checkpoint: " + e.getMessage());
+        }
     }
 
 
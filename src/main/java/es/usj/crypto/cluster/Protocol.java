@@ -0,0 +1,64 @@
+package es.usj.crypto.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Messages exchanged between a {@link SweepCoordinator} and its {@link SweepWorker}s.
+ *
+ * Every exchange is a request from the worker followed by one reply from the coordinator, written with
+ * {@link java.io.DataOutputStream} over a TCP connection. Every reply ends with the current admission threshold (the
+ * score of the worst key in the coordinator's top-K), which is how the threshold is broadcast: workers learn about a
+ * better threshold on their next heartbeat or result batch and stop sending keys below it.
+ *
+ * <pre>
+ * worker                                   coordinator
+ * HELLO version                        ->  WELCOME ciphertext leaseMillis threshold | REJECT reason
+ * REQUEST                              ->  LEASE id start end threshold | WAIT millis threshold | DONE threshold
+ * HEARTBEAT id                         ->  ACK threshold | LOST threshold (the lease expired and was reassigned)
+ * RESULTS id n (key, score) x n        ->  ACK threshold | LOST threshold
+ * COMPLETE id                          ->  ACK threshold | LOST threshold
+ * </pre>
+ */
+final class Protocol {
+
+    static final int VERSION = 1;
+
+    // Worker requests
+    static final byte HELLO = 1;
+    static final byte REQUEST = 2;
+    static final byte HEARTBEAT = 3;
+    static final byte RESULTS = 4;
+    static final byte COMPLETE = 5;
+
+    // Coordinator replies
+    static final byte WELCOME = 10;
+    static final byte REJECT = 11;
+    static final byte LEASE = 12;
+    static final byte WAIT = 13;
+    static final byte DONE = 14;
+    static final byte ACK = 15;
+    static final byte LOST = 16;
+
+    static final int DEFAULT_PORT = 7654;
+
+    private Protocol() {
+    }
+
+    /**
+     * Writes a text of any length, as {@link DataOutputStream#writeUTF(String)} is limited to 64 KB.
+     */
+    static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readText(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,351 @@
+package es.usj.crypto.cluster;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.utils.SearchMetrics;
+import es.usj.crypto.utils.Shard;
+import es.usj.crypto.utils.ShardResults;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the rotor keyspace of {@code Main} to {@link SweepWorker} processes over TCP and gathers their best keys.
+ *
+ * The keyspace is split into ranges (the shards of {@link Shard}) that are leased to workers one at a time. A lease
+ * lasts {@code leaseMillis} and is extended by every heartbeat or result batch of its worker; a lease that runs out,
+ * for example because the worker was killed, goes back to the pending ranges and the next worker asking for work gets
+ * it. Results of a lease that was reassigned are still kept, as they are just as valid, but only the first completion
+ * of a range counts.
+ *
+ * The best keys of every worker are merged into a global top-K. Its worst score is the admission threshold: it is sent
+ * with every reply, and workers do not send keys below it.
+ */
+public class SweepCoordinator {
+
+    public static final int DEFAULT_RANGES = 240;
+    public static final long DEFAULT_LEASE_MILLIS = 30_000;
+    public static final int DEFAULT_CAPACITY = 5000;
+    // Time a worker waits before asking again when every range is leased
+    private static final long RETRY_MILLIS = 1_000;
+
+    private final String cipherText;
+    private final int ranges;
+    private final long leaseMillis;
+    private final int capacity;
+
+    // Guarded by this
+    private final BitSet done;
+    private final Deque<Integer> pending;
+    private final Map<Long, Lease> leases;
+    private final Map<Long, EnigmaConfig> bestByKey;
+    private final PriorityQueue<EnigmaConfig> top;
+    private final AtomicLong nextLeaseId = new AtomicLong(1);
+    private final long startTime = System.currentTimeMillis();
+    private long reassigned;
+
+    private volatile ServerSocket server;
+
+    public SweepCoordinator(String cipherText, int ranges, long leaseMillis, int capacity) {
+        if (ranges < 1 || ranges > Shard.KEYSPACE) {
+            throw new IllegalArgumentException("Ranges should be between 1 and " + Shard.KEYSPACE + ": " + ranges);
+        }
+        this.cipherText = cipherText;
+        this.ranges = ranges;
+        this.leaseMillis = leaseMillis;
+        this.capacity = capacity;
+        this.done = new BitSet(ranges);
+        this.pending = new ArrayDeque<>();
+        for (int range = 1; range <= ranges; range++) {
+            pending.add(range);
+        }
+        this.leases = new HashMap<>();
+        this.bestByKey = new HashMap<>();
+        this.top = new PriorityQueue<>(Comparator.comparingDouble(EnigmaConfig::getScore));
+        SearchMetrics.monitorThreshold("coordinator", this, SweepCoordinator::threshold);
+    }
+
+    /**
+     * Accepts workers until every range is done, then closes the server socket.
+     *
+     * @param port TCP port to listen on, 0 for any free port.
+     * @throws IOException if the port cannot be opened.
+     */
+    public void run(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            server = serverSocket;
+            System.out.println("Coordinator listening on port " + serverSocket.getLocalPort() + ", " + ranges
+                    + " ranges of about " + Shard.KEYSPACE / ranges + " keys");
+            while (!isComplete()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    // Closed once the last range is done
+                    break;
+                }
+                Thread thread = new Thread(() -> serve(socket), "coordinator-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        System.out.println("Sweep completed in " + (System.currentTimeMillis() - startTime) + " ms, "
+                + reassigned + " leases reassigned");
+    }
+
+    /**
+     * @return The port the coordinator listens on, or -1 before {@link #run(int)} opened it.
+     */
+    public int getLocalPort() {
+        ServerSocket serverSocket = server;
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    private void serve(Socket socket) {
+        String worker = String.valueOf(socket.getRemoteSocketAddress());
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            if (in.readByte() != Protocol.HELLO || in.readInt() != Protocol.VERSION) {
+                out.writeByte(Protocol.REJECT);
+                out.writeUTF("Unsupported protocol, expected version " + Protocol.VERSION);
+                out.flush();
+                return;
+            }
+            out.writeByte(Protocol.WELCOME);
+            Protocol.writeText(out, cipherText);
+            out.writeLong(leaseMillis);
+            out.writeDouble(threshold());
+            out.flush();
+            System.out.println("Worker " + worker + " connected");
+
+            while (true) {
+                byte request = in.readByte();
+                switch (request) {
+                    case Protocol.REQUEST -> grant(worker, out);
+                    case Protocol.HEARTBEAT -> reply(out, renew(in.readLong()));
+                    case Protocol.RESULTS -> {
+                        long leaseId = in.readLong();
+                        int count = in.readInt();
+                        List<EnigmaConfig> results = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            EnigmaConfig config = Shard.configOf(in.readLong());
+                            config.setScore(in.readDouble());
+                            results.add(config);
+                        }
+                        reply(out, offer(leaseId, results));
+                    }
+                    case Protocol.COMPLETE -> reply(out, complete(in.readLong()));
+                    default -> throw new IOException("Unknown request " + request);
+                }
+                out.flush();
+                if (isComplete()) {
+                    // Wakes up the accept loop; workers still connected get DONE on their next request
+                    stopAccepting();
+                }
+            }
+        } catch (EOFException e) {
+            System.out.println("Worker " + worker + " disconnected");
+        } catch (IOException e) {
+            System.err.println("Worker " + worker + " failed: " + e.getMessage());
+        }
+    }
+
+    private void grant(String worker, DataOutputStream out) throws IOException {
+        Lease lease;
+        boolean complete;
+        synchronized (this) {
+            expireLeases();
+            complete = isComplete();
+            Integer range = pending.pollFirst();
+            lease = range == null ? null : new Lease(nextLeaseId.getAndIncrement(), range, worker);
+            if (lease != null) {
+                lease.deadline = System.currentTimeMillis() + leaseMillis;
+                leases.put(lease.id, lease);
+            }
+        }
+        if (lease != null) {
+            Shard shard = new Shard(lease.range, ranges);
+            out.writeByte(Protocol.LEASE);
+            out.writeLong(lease.id);
+            out.writeLong(shard.start());
+            out.writeLong(shard.end());
+        } else if (complete) {
+            out.writeByte(Protocol.DONE);
+        } else {
+            out.writeByte(Protocol.WAIT);
+            out.writeLong(RETRY_MILLIS);
+        }
+        out.writeDouble(threshold());
+    }
+
+    private void reply(DataOutputStream out, boolean valid) throws IOException {
+        out.writeByte(valid ? Protocol.ACK : Protocol.LOST);
+        out.writeDouble(threshold());
+    }
+
+    /**
+     * Moves the leases that ran out back to the pending ranges.
+     */
+    private synchronized void expireLeases() {
+        long now = System.currentTimeMillis();
+        Iterator<Lease> iterator = leases.values().iterator();
+        while (iterator.hasNext()) {
+            Lease lease = iterator.next();
+            if (lease.deadline < now) {
+                iterator.remove();
+                if (!done.get(lease.range - 1)) {
+                    System.out.println("Lease " + lease.id + " of range " + lease.range + " held by " + lease.worker
+                            + " expired, reassigning");
+                    pending.addFirst(lease.range);
+                    reassigned++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Extends a lease.
+     *
+     * @return {@code false} if the lease expired and its range went back to the pending ranges. Leases are only
+     * reclaimed when a worker asks for work, so a late heartbeat still saves a lease nobody else needed.
+     */
+    private synchronized boolean renew(long leaseId) {
+        Lease lease = leases.get(leaseId);
+        if (lease == null) {
+            return false;
+        }
+        lease.deadline = System.currentTimeMillis() + leaseMillis;
+        return true;
+    }
+
+    private synchronized boolean offer(long leaseId, List<EnigmaConfig> results) {
+        SearchMetrics.stageEntered("cluster", results.size());
+        int admitted = 0;
+        for (EnigmaConfig config : results) {
+            long key = Shard.keyOf(config);
+            EnigmaConfig kept = bestByKey.get(key);
+            if (kept != null) {
+                // The same key sent twice, by a reassigned range
+                continue;
+            }
+            if (top.size() < capacity) {
+                top.add(config);
+                bestByKey.put(key, config);
+                admitted++;
+            } else if (config.getScore() > top.peek().getScore()) {
+                bestByKey.remove(Shard.keyOf(top.poll()));
+                top.add(config);
+                bestByKey.put(key, config);
+                admitted++;
+            }
+        }
+        SearchMetrics.stageSurvived("cluster", admitted);
+        return renew(leaseId);
+    }
+
+    private synchronized boolean complete(long leaseId) {
+        Lease lease = leases.remove(leaseId);
+        if (lease == null) {
+            return false;
+        }
+        if (!done.get(lease.range - 1)) {
+            done.set(lease.range - 1);
+            System.out.println("Range " + lease.range + " done by " + lease.worker + " (" + done.cardinality() + "/"
+                    + ranges + "), threshold " + threshold());
+        }
+        return true;
+    }
+
+    private synchronized void stopAccepting() throws IOException {
+        ServerSocket serverSocket = server;
+        if (serverSocket != null && !serverSocket.isClosed()) {
+            serverSocket.close();
+        }
+    }
+
+    public synchronized boolean isComplete() {
+        return done.cardinality() == ranges;
+    }
+
+    /**
+     * @return The score a key must beat to enter the top-K, or negative infinity while it is not full.
+     */
+    public synchronized double threshold() {
+        return top.size() < capacity ? Double.NEGATIVE_INFINITY : top.peek().getScore();
+    }
+
+    /**
+     * @return The best keys received, best first, without plugboard.
+     */
+    public synchronized List<EnigmaConfig> top() {
+        List<EnigmaConfig> best = new ArrayList<>(top);
+        best.sort(Comparator.comparingDouble(EnigmaConfig::getScore).reversed());
+        return best;
+    }
+
+    /**
+     * @return The results, covering the ranges done so far as shards of {@code ranges}, so that they merge with the
+     * results of {@code Main --shard=<k>/<ranges>} for the same ciphertext.
+     */
+    public synchronized ShardResults results() {
+        return new ShardResults(ShardResults.fingerprint(cipherText), ranges, (BitSet) done.clone(), capacity, top());
+    }
+
+    private static final class Lease {
+        private final long id;
+        private final int range;
+        private final String worker;
+        private long deadline;
+
+        private Lease(long id, int range, String worker) {
+            this.id = id;
+            this.range = range;
+            this.worker = worker;
+        }
+    }
+
+    /**
+     * Runs a coordinator. Start workers with {@link SweepWorker#main(String[])}, on this machine or others.
+     *
+     * @param args ciphertext file, then optional --port=7654, --ranges=240, --lease=30000 (ms), --top=5000,
+     *             --results=data/cluster.results and --metrics-port to serve the metrics for Prometheus
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SweepCoordinator <ciphertext file> [--port=N] [--ranges=N] [--lease=ms] [--top=N] [--results=file]");
+            return;
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+        SweepCoordinator coordinator = new SweepCoordinator(
+                Files.readString(Paths.get(args[0])),
+                Integer.parseInt(options.getOrDefault("--ranges", String.valueOf(DEFAULT_RANGES))),
+                Long.parseLong(options.getOrDefault("--lease", String.valueOf(DEFAULT_LEASE_MILLIS))),
+                Integer.parseInt(options.getOrDefault("--top", String.valueOf(DEFAULT_CAPACITY))));
+        SearchMetrics.serveIfRequested(args);
+        try {
+            coordinator.run(Integer.parseInt(options.getOrDefault("--port", String.valueOf(Protocol.DEFAULT_PORT))));
+        } finally {
+            SearchMetrics.stop();
+        }
+
+        Path results = Paths.get(options.getOrDefault("--results", "data/cluster.results"));
+        coordinator.results().write(results);
+        System.out.println("Results written to " + results);
+        List<EnigmaConfig> best = coordinator.top();
+        System.out.println("Top 10 Scores with Configurations:");
+        for (int i = 0; i < Math.min(10, best.size()); i++) {
+            System.out.println(i + ": " + best.get(i));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package es.usj.crypto.cluster;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.SearchMetrics;
+import es.usj.crypto.utils.Shard;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps the key ranges leased by a {@link SweepCoordinator} and streams the best keys back.
+ *
+ * Each lease is scored batch by batch on the lane pipeline of an {@link EnigmaManager}; after every batch the keys
+ * above the admission threshold are sent to the coordinator, whose reply carries the new threshold, so the better the
+ * global top-K gets the less each worker sends. A background thread sends a heartbeat every third of the lease time so
+ * that slow batches do not lose their lease. When the coordinator reports a lease as lost, the worker drops it and asks
+ * for another one.
+ */
+public class SweepWorker {
+
+    // Keys scored between two result messages
+    private static final int BATCH_SIZE = 4096;
+
+    private final EnigmaManager manager;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final long leaseMillis;
+    private volatile double threshold;
+    private volatile long currentLease;
+    private long keysScored;
+    private long keysSent;
+
+    /**
+     * Connects to a coordinator and receives the ciphertext.
+     *
+     * @param socket Connection to the coordinator.
+     * @param manager Manager whose threads score the keys; its text is replaced with the ciphertext of the sweep.
+     * @throws IOException if the coordinator cannot be reached or rejects the worker.
+     */
+    public SweepWorker(Socket socket, EnigmaManager manager) throws IOException {
+        this.manager = manager;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeByte(Protocol.HELLO);
+        out.writeInt(Protocol.VERSION);
+        out.flush();
+        byte reply = in.readByte();
+        if (reply != Protocol.WELCOME) {
+            throw new IOException("Rejected by coordinator: " + (reply == Protocol.REJECT ? in.readUTF() : reply));
+        }
+        manager.setText(Protocol.readText(in));
+        this.leaseMillis = in.readLong();
+        this.threshold = in.readDouble();
+    }
+
+    /**
+     * Sweeps leases until the coordinator has no work left.
+     *
+     * @throws IOException if the connection to the coordinator fails.
+     */
+    public void run() throws IOException {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, leaseMillis / 3);
+        heartbeat.scheduleAtFixedRate(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        try {
+            while (true) {
+                long start;
+                long end;
+                long wait = 0;
+                synchronized (this) {
+                    out.writeByte(Protocol.REQUEST);
+                    out.flush();
+                    byte reply = in.readByte();
+                    if (reply == Protocol.DONE) {
+                        threshold = in.readDouble();
+                        break;
+                    }
+                    if (reply == Protocol.WAIT) {
+                        wait = in.readLong();
+                        start = end = 0;
+                    } else if (reply == Protocol.LEASE) {
+                        currentLease = in.readLong();
+                        start = in.readLong();
+                        end = in.readLong();
+                    } else {
+                        throw new IOException("Unexpected reply " + reply);
+                    }
+                    threshold = in.readDouble();
+                }
+                if (wait > 0) {
+                    sleep(wait);
+                } else {
+                    sweep(start, end);
+                }
+            }
+        } finally {
+            heartbeat.shutdownNow();
+        }
+        System.out.println("No work left: " + keysScored + " keys scored, " + keysSent + " sent");
+    }
+
+    private void sweep(long start, long end) throws IOException {
+        long leaseId = currentLease;
+        for (long from = start; from < end; from += BATCH_SIZE) {
+            List<EnigmaConfig> batch = new ArrayList<>(BATCH_SIZE);
+            for (long key = from; key < Math.min(from + BATCH_SIZE, end); key++) {
+                batch.add(Shard.configOf(key));
+            }
+            manager.scoreConfigurationsInLanes(batch, false);
+            keysScored += batch.size();
+
+            double admission = threshold;
+            List<EnigmaConfig> admitted = batch.stream().filter(config -> config.getScore() > admission).toList();
+            keysSent += admitted.size();
+            if (!send(leaseId, admitted)) {
+                System.out.println("Lease " + leaseId + " lost, dropping it");
+                currentLease = 0;
+                return;
+            }
+        }
+        synchronized (this) {
+            currentLease = 0;
+            out.writeByte(Protocol.COMPLETE);
+            out.writeLong(leaseId);
+            out.flush();
+            readAcknowledgement();
+        }
+    }
+
+    private synchronized boolean send(long leaseId, List<EnigmaConfig> configs) throws IOException {
+        out.writeByte(Protocol.RESULTS);
+        out.writeLong(leaseId);
+        out.writeInt(configs.size());
+        for (EnigmaConfig config : configs) {
+            out.writeLong(Shard.keyOf(config));
+            out.writeDouble(config.getScore());
+        }
+        out.flush();
+        return readAcknowledgement();
+    }
+
+    private synchronized void heartbeat() {
+        long leaseId = currentLease;
+        if (leaseId == 0) {
+            return;
+        }
+        try {
+            out.writeByte(Protocol.HEARTBEAT);
+            out.writeLong(leaseId);
+            out.flush();
+            readAcknowledgement();
+        } catch (IOException e) {
+            // The sweeping thread gets the same error on its next message
+            System.err.println("Heartbeat failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return {@code true} if the lease is still held.
+     */
+    private boolean readAcknowledgement() throws IOException {
+        byte reply = in.readByte();
+        threshold = in.readDouble();
+        if (reply != Protocol.ACK && reply != Protocol.LOST) {
+            throw new IOException("Unexpected reply " + reply);
+        }
+        return reply == Protocol.ACK;
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for work");
+        }
+    }
+
+    /**
+     * Runs a worker. Start as many as needed, on this machine or others.
+     *
+     * @param args optional --host=localhost, --port=7654 and --metrics-port to serve the metrics for Prometheus
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+        String host = options.getOrDefault("--host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("--port", String.valueOf(Protocol.DEFAULT_PORT)));
+        SearchMetrics.serveIfRequested(args);
+        EnigmaManager manager = new EnigmaManager();
+        try (Socket socket = new Socket(host, port)) {
+            System.out.println("Connected to coordinator " + host + ":" + port);
+            new SweepWorker(socket, manager).run();
+        } catch (EOFException e) {
+            System.out.println("Coordinator closed the connection");
+        } finally {
+            manager.shutdown();
+            SearchMetrics.stop();
+        }
+    }
+}
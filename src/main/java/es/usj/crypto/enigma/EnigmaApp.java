@@ -20,7 +20,8 @@ import java.util.Optional;
  *
  * Combinations of 3 rotors out of 5 = (5 x 4 x 3) = 60
  * Each ring can be set in any of 26 positions = (26 x 26 x 26) = 17,576
- * Notch combinations (most-left rotor is excluded) = (26 x 26) = 676
+ * Notch combinations (most-left rotor is excluded) = (26 x 26) = 676, set with the optional ring settings; the ring
+ * setting of the left rotor only duplicates its position
  * Plugboard combinations (10 cables) = 26! / (26 - 2 · 10)! · 10! · 2 · 10 = 150,738,274,937,250
  *
  * Complexity is equals to 60 x 17,576 x 676 x 150,738,274,937,250 = 107,458,687,327,250,619,360,000
@@ -49,6 +50,7 @@ public class EnigmaApp {
     private char middleRotorPosition;
     private int rightRotor;
     private char rightRotorPosition;
+    private char[] ringSettings;
     //private String outFile;
 
     /**
@@ -107,6 +109,8 @@ public class EnigmaApp {
         rightRotor = parseRotorNumber(validateRequiredProperty(ps, "right-rotor"));
         rightRotorPosition = parseRotorPosition(validateRequiredProperty(ps, "right-rotor-position"));
 
+        ringSettings = parseRingSettings(Optional.ofNullable(ps.getProperty("ring-settings")).map(Object::toString).orElse("AAA"));
+
         //outFile = validateRequiredProperty(ps, "output-file");
     }
 
@@ -154,6 +158,26 @@ public class EnigmaApp {
         return positionValue.charAt(0);
     }
 
+    /**
+     * Parses the ring settings of the left, middle and right rotors from the command line argument.
+     *
+     * @param ringSettingsValue Three letters, e.g. "AAA" for no ring shift
+     * @return The ring settings, left to right
+     * @throws IllegalArgumentException if the ring settings are invalid
+     */
+    private char[] parseRingSettings(String ringSettingsValue) {
+        if (ringSettingsValue.length() != 3) {
+            throw new IllegalArgumentException("Ring settings must be 3 letters between " + MIN_POSITION + " and " + MAX_POSITION);
+        }
+        char[] settings = ringSettingsValue.toCharArray();
+        for (char setting : settings) {
+            if (setting < MIN_POSITION || setting > MAX_POSITION) {
+                throw new IllegalArgumentException("Ring settings must be 3 letters between " + MIN_POSITION + " and " + MAX_POSITION);
+            }
+        }
+        return settings;
+    }
+
     /**
      * Creates and configures the Enigma machine with the provided settings.
      *
@@ -162,9 +186,9 @@ public class EnigmaApp {
     private Machine createMachine() {
         return new Machine(
                 new Plugboard(plugboard),
-                createRotor(rightRotor, rightRotorPosition),
-                createRotor(middleRotor, middleRotorPosition),
-                createRotor(leftRotor, leftRotorPosition),
+                createRotor(rightRotor, rightRotorPosition, ringSettings[2]),
+                createRotor(middleRotor, middleRotorPosition, ringSettings[1]),
+                createRotor(leftRotor, leftRotorPosition, ringSettings[0]),
                 new Reflector(ReflectorConfiguration.REFLECTOR_DEFAULT)
         );
     }
@@ -177,7 +201,19 @@ public class EnigmaApp {
      * @return A new Rotor instance
      */
     Rotor createRotor(int rotorNumber, char initialPosition) {
-        return new Rotor(RotorConfiguration.getRotorConfiguration(rotorNumber), initialPosition);
+        return createRotor(rotorNumber, initialPosition, 'A');
+    }
+
+    /**
+     * Creates a rotor based on its configuration, initial position and ring setting.
+     *
+     * @param rotorNumber     The rotor number (1-5)
+     * @param initialPosition The initial position of the rotor (A-Z)
+     * @param ringSetting     The ring setting of the rotor (A-Z)
+     * @return A new Rotor instance
+     */
+    Rotor createRotor(int rotorNumber, char initialPosition, char ringSetting) {
+        return new Rotor(RotorConfiguration.getRotorConfiguration(rotorNumber), initialPosition, ringSetting);
     }
 
     /**
@@ -0,0 +1,95 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader that ciphers the characters of another reader as they are read.
+ *
+ * The rotor state carries over between reads, so reading a message in pieces gives the same text as
+ * {@link Machine#getCipheredText(String)} on the whole message. Blank space passes through unchanged and other
+ * characters that are not letters are skipped (see {@link FastMachine#cipherChar(char)}).
+ */
+public class EnigmaReader extends FilterReader {
+
+    private final FastMachine machine;
+
+    public EnigmaReader(Reader in, EnigmaConfig config) {
+        this(in, new FastMachine(config));
+    }
+
+    public EnigmaReader(Reader in, FastMachine machine) {
+        super(in);
+        this.machine = machine;
+    }
+
+    @Override
+    public int read() throws IOException {
+        char[] c = new char[1];
+        return read(c, 0, 1) == -1 ? -1 : c[0];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        // Ciphering never produces more characters than it reads, so the buffer is filtered in place. Keep reading
+        // until at least one character survives, as returning 0 would mean no progress.
+        while (true) {
+            int read = in.read(cbuf, off, len);
+            if (read == -1) {
+                return -1;
+            }
+            int length = 0;
+            for (int i = 0; i < read; i++) {
+                int ciphered = machine.cipherChar(cbuf[off + i]);
+                if (ciphered != -1) {
+                    cbuf[off + length++] = (char) ciphered;
+                }
+            }
+            if (length > 0) {
+                return length;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0L) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+        char[] buffer = new char[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    public FastMachine getMachine() {
+        return machine;
+    }
+}
@@ -0,0 +1,73 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer that ciphers characters before passing them to another writer.
+ *
+ * The rotor state carries over between writes, so writing a message in pieces gives the same text as
+ * {@link Machine#getCipheredText(String)} on the whole message. Blank space passes through unchanged and other
+ * characters that are not letters are dropped (see {@link FastMachine#cipherChar(char)}).
+ */
+public class EnigmaWriter extends FilterWriter {
+
+    private final FastMachine machine;
+    private final char[] buffer = new char[8192];
+
+    public EnigmaWriter(Writer out, EnigmaConfig config) {
+        this(out, new FastMachine(config));
+    }
+
+    public EnigmaWriter(Writer out, FastMachine machine) {
+        super(out);
+        this.machine = machine;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        int ciphered = machine.cipherChar((char) c);
+        if (ciphered != -1) {
+            out.write(ciphered);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int length = 0;
+        for (int i = off; i < off + len; i++) {
+            int ciphered = machine.cipherChar(cbuf[i]);
+            if (ciphered != -1) {
+                buffer[length++] = (char) ciphered;
+                if (length == buffer.length) {
+                    out.write(buffer, 0, length);
+                    length = 0;
+                }
+            }
+        }
+        out.write(buffer, 0, length);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int length = 0;
+        for (int i = off; i < off + len; i++) {
+            int ciphered = machine.cipherChar(str.charAt(i));
+            if (ciphered != -1) {
+                buffer[length++] = (char) ciphered;
+                if (length == buffer.length) {
+                    out.write(buffer, 0, length);
+                    length = 0;
+                }
+            }
+        }
+        out.write(buffer, 0, length);
+    }
+
+    public FastMachine getMachine() {
+        return machine;
+    }
+}
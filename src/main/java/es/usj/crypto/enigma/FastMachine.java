@@ -0,0 +1,359 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.enigma.constant.ReflectorConfiguration;
+import es.usj.crypto.enigma.constant.RotorConfiguration;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static es.usj.crypto.enigma.Machine.ALPHABET;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Table-driven equivalent of {@link Machine} used by the search engines.
+ *
+ * Instead of rotating ring sequence strings and looking characters up with {@code indexOf}, every rotor is
+ * precompiled into forward and backward tables indexed by its rotation offset, and the machine state is reduced
+ * to three integer offsets. Letters are handled as indices (0 = 'A' ... 25 = 'Z').
+ *
+ * The behaviour is identical to {@link Machine#getCipheredText(String)}:
+ * <ul>
+ *   <li>The input is converted to uppercase and characters that are neither letters nor blank space are dropped.</li>
+ *   <li>Blank space passes through unchanged and does not rotate the rotors.</li>
+ *   <li>The rotors rotate before each letter is ciphered; the middle rotor turns when the right rotor reaches its
+ *   notch, and the left rotor turns whenever the middle rotor sits on its notch.</li>
+ * </ul>
+ *
+ * A rotor with offset {@code k} has been rotated {@code k} times from its base ring sequence, so the character shown
+ * in the window is {@code ringSequence[(26 - k) % 26]}. The offset drives the stepping. A ring setting {@code r}
+ * ('A' + r) turns the wiring {@code r} places back against the letter ring and the notch, so the wiring in use is
+ * the one of offset {@code k - r}; each machine keeps the wiring tables of its rotors already shifted by their ring
+ * settings.
+ */
+public class FastMachine {
+
+    // Number of letters in the ALPHABET
+    public static final int SIZE = 26;
+    // Number of letters after which the rotors are back in the same positions
+    public static final int PERIOD = SIZE * SIZE;
+
+    // Forward and backward substitution tables indexed by [rotor type][offset][letter]
+    static final int[][][] FORWARD = new int[6][SIZE][SIZE];
+    static final int[][][] BACKWARD = new int[6][SIZE][SIZE];
+    // Offset at which each rotor type shows its notch in the window
+    static final int[] NOTCH = new int[6];
+    // Reflector pairing as letter indices
+    static final int[] REFLECTOR = new int[SIZE];
+
+    static {
+        for (int type = 1; type <= 5; type++) {
+            RotorConfiguration configuration = RotorConfiguration.getRotorConfiguration(type);
+            String sequence = configuration.getRingSequence();
+            for (int offset = 0; offset < SIZE; offset++) {
+                for (int c = 0; c < SIZE; c++) {
+                    FORWARD[type][offset][c] = sequence.charAt((c - offset + SIZE) % SIZE) - 'A';
+                    BACKWARD[type][offset][c] = (sequence.indexOf('A' + c) + offset) % SIZE;
+                }
+            }
+            NOTCH[type] = offsetOf(type, configuration.getNotch());
+        }
+        for (String reflection : ReflectorConfiguration.REFLECTOR_DEFAULT.getSequence().split(":")) {
+            REFLECTOR[reflection.charAt(0) - 'A'] = reflection.charAt(1) - 'A';
+            REFLECTOR[reflection.charAt(1) - 'A'] = reflection.charAt(0) - 'A';
+        }
+    }
+
+    private final int leftType;
+    private final int middleType;
+    private final int rightType;
+    // Substitution tables of each rotor indexed by [offset][letter], shifted by the ring setting
+    private final int[][] leftForward;
+    private final int[][] leftBackward;
+    private final int[][] middleForward;
+    private final int[][] middleBackward;
+    private final int[][] rightForward;
+    private final int[][] rightBackward;
+    private int leftOffset;
+    private int middleOffset;
+    private int rightOffset;
+    private final int[] plugboard = new int[SIZE];
+
+    /**
+     * Constructs a machine from a configuration. Rotor types, positions and ring settings are given left to right, as
+     * in {@link EnigmaConfig}.
+     *
+     * @param config The rotor types, rotor positions, ring settings and plugboard to use.
+     */
+    public FastMachine(EnigmaConfig config) {
+        int[] rotorTypes = config.getRotorTypes();
+        char[] rotorPositions = config.getRotorPositions();
+        char[] ringSettings = config.getRingSettings();
+        assertTrue("Each rotor configuration should be different",
+                rotorTypes[0] != rotorTypes[1] && rotorTypes[1] != rotorTypes[2] && rotorTypes[0] != rotorTypes[2]);
+        this.leftType = rotorTypes[0];
+        this.middleType = rotorTypes[1];
+        this.rightType = rotorTypes[2];
+        this.leftForward = shift(FORWARD[leftType], ringSettings[0] - 'A');
+        this.leftBackward = shift(BACKWARD[leftType], ringSettings[0] - 'A');
+        this.middleForward = shift(FORWARD[middleType], ringSettings[1] - 'A');
+        this.middleBackward = shift(BACKWARD[middleType], ringSettings[1] - 'A');
+        this.rightForward = shift(FORWARD[rightType], ringSettings[2] - 'A');
+        this.rightBackward = shift(BACKWARD[rightType], ringSettings[2] - 'A');
+        this.leftOffset = offsetOf(leftType, rotorPositions[0]);
+        this.middleOffset = offsetOf(middleType, rotorPositions[1]);
+        this.rightOffset = offsetOf(rightType, rotorPositions[2]);
+        setPlugboard(config.getPlugboard());
+    }
+
+    // copy constructor
+    public FastMachine(FastMachine machine) {
+        this.leftType = machine.leftType;
+        this.middleType = machine.middleType;
+        this.rightType = machine.rightType;
+        this.leftForward = machine.leftForward;
+        this.leftBackward = machine.leftBackward;
+        this.middleForward = machine.middleForward;
+        this.middleBackward = machine.middleBackward;
+        this.rightForward = machine.rightForward;
+        this.rightBackward = machine.rightBackward;
+        this.leftOffset = machine.leftOffset;
+        this.middleOffset = machine.middleOffset;
+        this.rightOffset = machine.rightOffset;
+        setPlugboard(machine.plugboard);
+    }
+
+    /**
+     * Returns the tables of a rotor whose wiring is turned back by a ring setting: row {@code k} is the wiring of
+     * offset {@code k - ringSetting}. Rows are shared, not copied.
+     */
+    private static int[][] shift(int[][] table, int ringSetting) {
+        if (ringSetting == 0) {
+            return table;
+        }
+        int[][] shifted = new int[SIZE][];
+        for (int offset = 0; offset < SIZE; offset++) {
+            shifted[offset] = table[(offset - ringSetting + SIZE) % SIZE];
+        }
+        return shifted;
+    }
+
+    /**
+     * Returns the rotation offset of a rotor showing the given position in the window.
+     *
+     * @param rotorType The rotor number (1-5).
+     * @param position The character shown in the window (A-Z).
+     * @return The rotation offset (0-25).
+     */
+    public static int offsetOf(int rotorType, char position) {
+        assertTrue("Initial position should be A to Z", ALPHABET.indexOf(position) != -1);
+        String sequence = RotorConfiguration.getRotorConfiguration(rotorType).getRingSequence();
+        return (SIZE - sequence.indexOf(position)) % SIZE;
+    }
+
+    /**
+     * Returns the offset at which a rotor shows its notch in the window, that is the offset after which the rotor to
+     * its left turns.
+     *
+     * @param rotorType The rotor number (1-5).
+     * @return The notch offset (0-25).
+     */
+    public static int notchOffset(int rotorType) {
+        return NOTCH[rotorType];
+    }
+
+    /**
+     * Returns the character shown in the window of a rotor rotated by the given offset.
+     *
+     * @param rotorType The rotor number (1-5).
+     * @param offset The rotation offset (0-25).
+     * @return The window character (A-Z).
+     */
+    public static char positionOf(int rotorType, int offset) {
+        String sequence = RotorConfiguration.getRotorConfiguration(rotorType).getRingSequence();
+        return sequence.charAt((SIZE - offset) % SIZE);
+    }
+
+    /**
+     * Turns the rotors to the given window characters, keeping the rotor types and the plugboard.
+     *
+     * @param rotorPositions The window characters, left to right.
+     */
+    public void setRotorPositions(char[] rotorPositions) {
+        this.leftOffset = offsetOf(leftType, rotorPositions[0]);
+        this.middleOffset = offsetOf(middleType, rotorPositions[1]);
+        this.rightOffset = offsetOf(rightType, rotorPositions[2]);
+    }
+
+    /**
+     * Replaces the plugboard with the given pairings.
+     *
+     * @param plugboardSettings Pairs of characters separated by ':', or an empty string.
+     */
+    public void setPlugboard(String plugboardSettings) {
+        for (int c = 0; c < SIZE; c++) {
+            plugboard[c] = c;
+        }
+        if (plugboardSettings == null || plugboardSettings.isEmpty()) {
+            return;
+        }
+        for (String pair : plugboardSettings.split(":")) {
+            plugboard[pair.charAt(0) - 'A'] = pair.charAt(1) - 'A';
+            plugboard[pair.charAt(1) - 'A'] = pair.charAt(0) - 'A';
+        }
+    }
+
+    /**
+     * Replaces the plugboard with a mapping of letter indices. The mapping must be an involution.
+     *
+     * @param plugboardMapping Array of 26 letter indices.
+     */
+    public void setPlugboard(int[] plugboardMapping) {
+        System.arraycopy(plugboardMapping, 0, plugboard, 0, SIZE);
+    }
+
+    /**
+     * Rotates the rotors once, exactly as {@link Machine} does before ciphering a letter.
+     */
+    public void step() {
+        rightOffset = rightOffset == SIZE - 1 ? 0 : rightOffset + 1;
+        if (rightOffset == NOTCH[rightType]) {
+            middleOffset = middleOffset == SIZE - 1 ? 0 : middleOffset + 1;
+        }
+        if (middleOffset == NOTCH[middleType]) {
+            leftOffset = leftOffset == SIZE - 1 ? 0 : leftOffset + 1;
+        }
+    }
+
+    /**
+     * Rotates the rotors the given number of times.
+     *
+     * The machine state repeats every {@link #PERIOD} letters: the middle rotor makes a full turn every 676 letters,
+     * and during that turn it sits on its notch for 26 letters, which turns the left rotor exactly once around too.
+     * Jumping ahead therefore costs at most 675 steps whatever the distance.
+     *
+     * @param steps Number of letters to skip.
+     */
+    public void advance(long steps) {
+        long remaining = steps % PERIOD;
+        for (long i = 0; i < remaining; i++) {
+            step();
+        }
+    }
+
+    /**
+     * Substitutes a letter through the rotors and reflector at the current position, without plugboard or rotation.
+     *
+     * @param c Letter index (0-25).
+     * @return The substituted letter index.
+     */
+    public int scramble(int c) {
+        c = rightForward[rightOffset][c];
+        c = middleForward[middleOffset][c];
+        c = leftForward[leftOffset][c];
+        c = REFLECTOR[c];
+        c = leftBackward[leftOffset][c];
+        c = middleBackward[middleOffset][c];
+        return rightBackward[rightOffset][c];
+    }
+
+    /**
+     * Ciphers a letter at the current position, including the plugboard but without rotating the rotors.
+     *
+     * @param c Letter index (0-25).
+     * @return The ciphered letter index.
+     */
+    public int cipher(int c) {
+        return plugboard[scramble(plugboard[c])];
+    }
+
+    /**
+     * Ciphers a given text with the same rules as {@link Machine#getCipheredText(String)}.
+     *
+     * @param plainText The text to be ciphered.
+     * @return The ciphered text.
+     */
+    public String getCipheredText(String plainText) {
+        String text = plainText.toUpperCase(Locale.ROOT);
+        char[] output = new char[text.length()];
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char input = text.charAt(i);
+            if (input >= 'A' && input <= 'Z') {
+                step();
+                output[length++] = (char) ('A' + cipher(input - 'A'));
+            } else if (isBlank(input)) {
+                output[length++] = input;
+            }
+        }
+        return new String(output, 0, length);
+    }
+
+    /**
+     * Ciphers one character of a stream, rotating the rotors if it is a letter. Characters are uppercased one at a
+     * time, which matches {@link #getCipheredText(String)} except for the few characters whose uppercase form is
+     * several letters (such as 'ß'), which are dropped.
+     *
+     * @param c The character to cipher.
+     * @return The ciphered letter, the character itself if it is blank space, or -1 if it is dropped.
+     */
+    public int cipherChar(char c) {
+        char upper = c < 128 ? (c >= 'a' && c <= 'z' ? (char) (c - 'a' + 'A') : c) : Character.toUpperCase(c);
+        if (upper >= 'A' && upper <= 'Z') {
+            step();
+            return 'A' + cipher(upper - 'A');
+        }
+        return isBlank(c) ? c : -1;
+    }
+
+    /**
+     * Ciphers bytes of ASCII text from one buffer into another, with the same rules as {@link #cipherChar(char)}.
+     * Bytes outside ASCII are dropped. Transfers as many bytes as the output has room for and advances the position
+     * of both buffers, so the input can be refilled and the call repeated; the rotor state carries over.
+     *
+     * @param input Buffer to read from.
+     * @param output Buffer to write to.
+     */
+    public void cipher(ByteBuffer input, ByteBuffer output) {
+        while (input.hasRemaining() && output.hasRemaining()) {
+            byte b = input.get();
+            int ciphered = b < 0 ? -1 : cipherChar((char) b);
+            if (ciphered != -1) {
+                output.put((byte) ciphered);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a character is blank space as accepted by {@link Machine}.
+     *
+     * @param c The character to check.
+     * @return {@code true} if the character passes through the machine unchanged.
+     */
+    public static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Returns the characters currently shown in the windows, left to right.
+     *
+     * @return The rotor positions.
+     */
+    public char[] getRotorPositions() {
+        return new char[]{
+                positionOf(leftType, leftOffset),
+                positionOf(middleType, middleOffset),
+                positionOf(rightType, rightOffset)
+        };
+    }
+
+    /**
+     * Returns a copy of the plugboard mapping as letter indices.
+     *
+     * @return Array of 26 letter indices.
+     */
+    public int[] getPlugboard() {
+        return Arrays.copyOf(plugboard, SIZE);
+    }
+}
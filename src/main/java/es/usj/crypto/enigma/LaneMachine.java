@@ -0,0 +1,149 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.Fitness.QuadgramFitness;
+import es.usj.crypto.Fitness.Score;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Deciphers the same text under several configurations at once, one configuration per lane, and scores every
+ * result with the quadgram statistic of {@link QuadgramFitness}.
+ *
+ * This class is the scalar implementation, which simply runs the lanes one after the other. {@link #create()}
+ * returns the SIMD implementation ({@link VectorLaneMachine}) when the {@code jdk.incubator.vector} module is
+ * available, so callers only need to fill batches of {@link #lanes()} configurations.
+ *
+ * The scores match {@link QuadgramFitness#score(String)} on the deciphered text up to floating point rounding.
+ */
+public class LaneMachine {
+
+    // Number of configurations processed together by the scalar implementation
+    private static final int SCALAR_LANES = 8;
+    // Shared flattened copy of the quadgram table
+    static final float[] QUADGRAMS = Score.getQuadgramFitness().flatScores();
+
+    protected final float[] quadgrams;
+    protected final QuadgramFitness quadgramFitness;
+
+    protected LaneMachine() {
+        this.quadgramFitness = Score.getQuadgramFitness();
+        this.quadgrams = QUADGRAMS;
+    }
+
+    /**
+     * Creates the fastest implementation available in this JVM. The vector implementation is used unless the
+     * {@code jdk.incubator.vector} module is missing or the {@code enigma.vector} system property is {@code false}.
+     *
+     * @return A lane machine; instances keep scratch buffers and must not be shared between threads.
+     */
+    public static LaneMachine create() {
+        if (Boolean.parseBoolean(System.getProperty("enigma.vector", "true"))) {
+            try {
+                return (LaneMachine) Class.forName("es.usj.crypto.enigma.VectorLaneMachine")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // jdk.incubator.vector is not available, fall back to the scalar lanes
+            }
+        }
+        return new LaneMachine();
+    }
+
+    /**
+     * @return The number of configurations processed in one batch.
+     */
+    public int lanes() {
+        return SCALAR_LANES;
+    }
+
+    /**
+     * Deciphers the text under each configuration and stores the quadgram score of each result.
+     *
+     * @param configs Configurations to evaluate; only the first {@code count} are used.
+     * @param count Number of configurations, at most {@link #lanes()}.
+     * @param text The compiled ciphertext.
+     * @param scores Receives one score per configuration.
+     */
+    public void score(EnigmaConfig[] configs, int count, Text text, double[] scores) {
+        byte[] letters = text.letters();
+        byte[] runs = text.runs();
+        for (int lane = 0; lane < count; lane++) {
+            FastMachine machine = new FastMachine(configs[lane]);
+            double fitness = 0;
+            int gram = 0;
+            for (int i = 0; i < letters.length; i++) {
+                machine.step();
+                int output = machine.cipher(letters[i]);
+                gram = (gram % (26 * 26 * 26)) * 26 + output;
+                if (runs[i] >= 3) {
+                    fitness += quadgrams[gram];
+                }
+            }
+            scores[lane] = quadgramFitness.normalize(fitness, text.quadgrams());
+        }
+    }
+
+    /**
+     * Deciphers the text under each configuration into a column-wise, position-major buffer, the layout expected by
+     * {@link es.usj.crypto.Fitness.BatchScore}: the letter of configuration {@code c} at position {@code p} is
+     * stored at {@code columns[p * count + c]}.
+     *
+     * @param configs Configurations to decipher with.
+     * @param count Number of configurations.
+     * @param text The compiled ciphertext.
+     * @param columns Receives {@code text.letters().length * count} letter indices.
+     */
+    public void decipher(EnigmaConfig[] configs, int count, Text text, byte[] columns) {
+        byte[] letters = text.letters();
+        for (int lane = 0; lane < count; lane++) {
+            FastMachine machine = new FastMachine(configs[lane]);
+            for (int i = 0; i < letters.length; i++) {
+                machine.step();
+                columns[i * count + lane] = (byte) machine.cipher(letters[i]);
+            }
+        }
+    }
+
+    /**
+     * Ciphertext prepared for lane processing: the letters as indices, and for each letter how many letters precede
+     * it in the same word (capped at 3), so quadgrams are only counted inside words as {@link QuadgramFitness} does.
+     *
+     * @param letters Letter indices (0-25) in message order, blank space removed.
+     * @param runs Letters preceding each letter in its word, capped at 3.
+     * @param quadgrams Number of quadgrams in the text.
+     */
+    public record Text(byte[] letters, byte[] runs, int quadgrams) {
+
+        /**
+         * Prepares a ciphertext with the same filtering as {@link Machine#getCipheredText(String)}.
+         *
+         * @param cipherText The ciphertext.
+         * @return The compiled text.
+         */
+        public static Text compile(String cipherText) {
+            String text = cipherText.toUpperCase(Locale.ROOT);
+            byte[] letters = new byte[text.length()];
+            byte[] runs = new byte[text.length()];
+            int length = 0;
+            int run = 0;
+            int quadgrams = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    letters[length] = (byte) (c - 'A');
+                    runs[length++] = (byte) run;
+                    if (run == 3) {
+                        quadgrams++;
+                    } else {
+                        run++;
+                    }
+                } else if (FastMachine.isBlank(c)) {
+                    run = 0;
+                }
+            }
+            return new Text(Arrays.copyOf(letters, length), Arrays.copyOf(runs, length), quadgrams);
+        }
+    }
+}
@@ -186,9 +186,9 @@ public class Machine {
 
     public void applyConfig(EnigmaConfig config) {
         EnigmaApp app = new EnigmaApp();
-        rightRotor = app.createRotor(config.getRotorTypes()[0], config.getRotorPositions()[0]);
-        middleRotor = app.createRotor(config.getRotorTypes()[1], config.getRotorPositions()[1]);
-        leftRotor = app.createRotor(config.getRotorTypes()[2], config.getRotorPositions()[2]);
+        rightRotor = app.createRotor(config.getRotorTypes()[0], config.getRotorPositions()[0], config.getRingSettings()[0]);
+        middleRotor = app.createRotor(config.getRotorTypes()[1], config.getRotorPositions()[1], config.getRingSettings()[1]);
+        leftRotor = app.createRotor(config.getRotorTypes()[2], config.getRotorPositions()[2], config.getRingSettings()[2]);
     }
 
     public void setPlugboard(String plugboardSettings) {
@@ -204,9 +204,13 @@ public class Machine {
     }
 
     public void setRotors(int[] rotorTypes, char[] rotorPositions) {
-        this.leftRotor.setConfig(rotorTypes[0], rotorPositions[0]);
-        this.middleRotor.setConfig(rotorTypes[1], rotorPositions[1]);
-        this.rightRotor.setConfig(rotorTypes[2], rotorPositions[2]);
+        setRotors(rotorTypes, rotorPositions, new char[]{'A', 'A', 'A'});
+    }
+
+    public void setRotors(int[] rotorTypes, char[] rotorPositions, char[] ringSettings) {
+        this.leftRotor.setConfig(rotorTypes[0], rotorPositions[0], ringSettings[0]);
+        this.middleRotor.setConfig(rotorTypes[1], rotorPositions[1], ringSettings[1]);
+        this.rightRotor.setConfig(rotorTypes[2], rotorPositions[2], ringSettings[2]);
     }
 
 }
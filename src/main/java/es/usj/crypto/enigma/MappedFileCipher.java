@@ -0,0 +1,262 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ciphers files of any size with a known key by memory-mapping the input and the output.
+ *
+ * The file is split into chunks that are processed in two parallel passes:
+ * <ol>
+ *   <li>Each chunk counts its letters and the bytes it will write. Prefix sums of these counts give every chunk the
+ *   number of letters ciphered before it and the offset of its output.</li>
+ *   <li>Each chunk jumps ahead by the letters before it and ciphers straight into its region of the output
+ *   mapping.</li>
+ * </ol>
+ * As the rotors return to their positions every {@link FastMachine#PERIOD} letters, the key is first expanded into the
+ * complete output of every byte value at each of the 676 positions of the cycle. Jumping ahead is then a modulo, and
+ * each input byte costs one lookup in a 173 KB table, with no branch on the text.
+ * Heap use does not depend on the file size: every task only keeps a small transfer buffer.
+ *
+ * The bytes follow the rules of {@link Machine#getCipheredText(String)} for ASCII text: letters are uppercased and
+ * ciphered, blank space is copied, and everything else is dropped. Bytes outside ASCII are dropped as well, so the
+ * few non-ASCII letters that {@link String#toUpperCase()} turns into ASCII letters are not ciphered.
+ */
+public class MappedFileCipher {
+
+    // Bytes of input handled by each task
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    // Bytes moved between the mappings and the heap at a time
+    private static final int TRANSFER_SIZE = 64 * 1024;
+    // Per byte value: 1 for ASCII letters, which are ciphered and rotate the rotors, 0 otherwise
+    private static final int[] LETTER = new int[256];
+    // Per byte value: 1 for letters and blank space, which are written, 0 for dropped bytes
+    private static final int[] KEPT = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            boolean letter = (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+            LETTER[b] = letter ? 1 : 0;
+            KEPT[b] = letter || FastMachine.isBlank((char) b) ? 1 : 0;
+        }
+    }
+
+    private final EnigmaConfig config;
+    private final ExecutorService executor;
+    private final int chunkSize;
+
+    public MappedFileCipher(EnigmaConfig config, ExecutorService executor) {
+        this(config, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    public MappedFileCipher(EnigmaConfig config, ExecutorService executor, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive: " + chunkSize);
+        }
+        this.config = config;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Ciphers a file. The output is written next to the target and moved into place once complete.
+     *
+     * @param input File to cipher.
+     * @param output Location of the ciphered file.
+     * @return The number of bytes written.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public long cipher(Path input, Path output) throws IOException {
+        Path absolute = output.toAbsolutePath();
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        long written;
+        // Deleted on any failure, also of a chunk task, unless it was moved into place
+        boolean moved = false;
+        try {
+            try (FileChannel source = FileChannel.open(input, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = source.size();
+                int chunks = (int) ((size + chunkSize - 1) / chunkSize);
+
+                // First pass: letters and output bytes of every chunk
+                List<long[]> counts = join(chunks, chunk -> count(map(source, chunk, size)));
+                long[] lettersBefore = new long[chunks];
+                long[] outputOffset = new long[chunks + 1];
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    if (chunk > 0) {
+                        lettersBefore[chunk] = lettersBefore[chunk - 1] + counts.get(chunk - 1)[0];
+                    }
+                    outputOffset[chunk + 1] = outputOffset[chunk] + counts.get(chunk)[1];
+                }
+                written = outputOffset[chunks];
+                byte[] cycle = expandCycle();
+
+                // Second pass: cipher every chunk into its own region of the output
+                if (written > 0) {
+                    target.write(ByteBuffer.wrap(new byte[1]), written - 1);
+                }
+                join(chunks, chunk -> {
+                    MappedByteBuffer in = map(source, chunk, size);
+                    MappedByteBuffer out = target.map(FileChannel.MapMode.READ_WRITE, outputOffset[chunk],
+                            counts.get(chunk)[1]);
+                    cipher(cycle, (int) (lettersBefore[chunk] % FastMachine.PERIOD), in, out);
+                    out.force();
+                    return null;
+                });
+                target.force(true);
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Counts the letters of a chunk and the bytes it produces.
+     *
+     * @return {@code {letters, output bytes}}.
+     */
+    private static long[] count(MappedByteBuffer in) {
+        byte[] buffer = new byte[TRANSFER_SIZE];
+        long letters = 0;
+        long kept = 0;
+        while (in.hasRemaining()) {
+            int length = Math.min(buffer.length, in.remaining());
+            in.get(buffer, 0, length);
+            for (int i = 0; i < length; i++) {
+                int b = buffer[i] & 0xFF;
+                letters += LETTER[b];
+                kept += KEPT[b];
+            }
+        }
+        return new long[]{letters, kept};
+    }
+
+    /**
+     * Returns the output byte of every input byte at every position of the rotor cycle: the output for byte {@code b}
+     * when {@code n} letters precede it is {@code cycle[(n % PERIOD) * 256 + b]}. Blank space maps to itself and
+     * dropped bytes map to anything, as they are overwritten by the next kept byte.
+     */
+    private byte[] expandCycle() {
+        FastMachine machine = new FastMachine(config);
+        byte[] cycle = new byte[FastMachine.PERIOD * 256];
+        for (int position = 0; position < FastMachine.PERIOD; position++) {
+            machine.step();
+            for (int b = 0; b < 256; b++) {
+                byte output = (byte) b;
+                if (LETTER[b] == 1) {
+                    output = (byte) ('A' + machine.cipher((b & ~0x20) - 'A'));
+                }
+                cycle[position * 256 + b] = output;
+            }
+        }
+        return cycle;
+    }
+
+    private static void cipher(byte[] cycle, int position, MappedByteBuffer in, MappedByteBuffer out) {
+        byte[] input = new byte[TRANSFER_SIZE];
+        byte[] output = new byte[TRANSFER_SIZE];
+        int index = position * 256;
+        while (in.hasRemaining()) {
+            int length = Math.min(input.length, in.remaining());
+            in.get(input, 0, length);
+            int kept = 0;
+            for (int i = 0; i < length; i++) {
+                int b = input[i] & 0xFF;
+                // Written unconditionally and only kept when the byte counts, so the loop has no branches on the text
+                output[kept] = cycle[index + b];
+                kept += KEPT[b];
+                index += LETTER[b] << 8;
+                if (index == cycle.length) {
+                    index = 0;
+                }
+            }
+            out.put(output, 0, kept);
+        }
+    }
+
+    private MappedByteBuffer map(FileChannel source, int chunk, long size) throws IOException {
+        long start = (long) chunk * chunkSize;
+        return source.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+    }
+
+    /**
+     * Runs a task per chunk on the executor and waits for all of them.
+     */
+    private <T> List<T> join(int chunks, ChunkTask<T> task) throws IOException {
+        List<CompletableFuture<T>> futures = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int index = chunk;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.run(index);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+        List<T> results = new ArrayList<>(chunks);
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    @FunctionalInterface
+    private interface ChunkTask<T> {
+        T run(int chunk) throws IOException;
+    }
+
+    /**
+     * Ciphers a file from the command line.
+     *
+     * @param args input file, output file, rotor types (e.g. 1,2,3), rotor positions (e.g. ABC) and an optional
+     *             plugboard (e.g. AB:CD)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: MappedFileCipher <input> <output> <rotor types> <rotor positions> [plugboard]");
+            return;
+        }
+        String[] types = args[2].split(",");
+        EnigmaConfig config = new EnigmaConfig(
+                new int[]{Integer.parseInt(types[0]), Integer.parseInt(types[1]), Integer.parseInt(types[2])},
+                args[3].toUpperCase().toCharArray(),
+                args.length > 4 ? args[4].toUpperCase() : "");
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            long start = System.currentTimeMillis();
+            long written = new MappedFileCipher(config, executor).cipher(Paths.get(args[0]), Paths.get(args[1]));
+            System.out.println(written + " bytes written to " + args[1] + " in " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.Fitness.QuadgramFitness;
+import es.usj.crypto.Fitness.Score;
+
+import java.util.Arrays;
+
+/**
+ * Scores every start position of one rotor order without plugboard, sharing the work of candidates that step alike.
+ *
+ * The stepping of the rotors only depends on the positions of the middle and right rotors: the right rotor always
+ * turns, the middle one turns when the right one reaches its notch, and the left one turns while the middle one sits
+ * on its notch. The 26 left positions of a middle and right pair therefore share one turnover schedule, computed once
+ * from the notches and the message length, and the same path through the right and middle rotors. Each class of 26
+ * candidates is handled as follows:
+ * <ol>
+ *   <li>Step the middle and right rotors over the message once, recording for each letter the offsets of both rotors
+ *   and how many times the left rotor turned so far (always zero on intercepts too short for the middle rotor to reach
+ *   its notch).</li>
+ *   <li>Send each letter through the right and middle rotors once.</li>
+ *   <li>For each left position, finish the letter with a single lookup into a precompiled table of the left rotor,
+ *   reflector and left rotor back, then through the middle and right rotors backwards.</li>
+ * </ol>
+ * A candidate then costs 3 table lookups per letter instead of the 7 of {@link FastMachine#scramble(int)}.
+ *
+ * The right rotor's part of the compiled tables (its offsets, the letters after it and the turns of the middle rotor)
+ * does not depend on the middle rotor, so it is built once per right offset and kept for the 26 middle offsets of
+ * {@link #scoreRight(char, double[])}; only the middle rotor's part is rebuilt for each class.
+ *
+ * Positions are never equivalent to each other: the stepping is a bijection on the rotor states, so two start
+ * positions never decipher alike. Only ring settings can be (see {@code RingSearch}).
+ *
+ * The scores are the normalized quadgram scores of {@link LaneMachine}, bit for bit, unless another
+ * {@link Statistic} is set. Instances keep scratch buffers and must not be shared between threads.
+ */
+public class PositionSweep {
+
+    /**
+     * What the scores of a sweep measure.
+     */
+    public enum Statistic {
+        /** Normalized quadgram score of {@link QuadgramFitness#normalize}, as {@link LaneMachine}. */
+        QUADGRAMS,
+        /**
+         * Mean quadgram score, without the normalization, which clips at 1: on a short text many positions reach the
+         * clip, and only the mean still ranks them.
+         */
+        MEAN_QUADGRAMS,
+        /**
+         * Index of Coincidence of the letters, from integer counts. A plugboard swaps letters in and out of the
+         * scrambler, which breaks the n-grams but only partly flattens the letter frequencies, so the right rotor
+         * positions still stand out under an unknown plugboard on a long enough text.
+         */
+        INDEX_OF_COINCIDENCE
+    }
+
+    private static final int SIZE = FastMachine.SIZE;
+
+    private final int leftType;
+    private final int middleType;
+    private final int rightType;
+    private final int middleNotch;
+    private final int rightNotch;
+    private final LaneMachine.Text text;
+    private final float[] quadgrams;
+    private final QuadgramFitness quadgramFitness;
+    // Left rotor, reflector and left rotor back as one table indexed by (left offset * 26 + letter); the offsets run
+    // to 51 so that a start offset plus the turns of the left rotor never needs a modulo
+    private final int[] turnaround;
+    // Backward tables of the middle and right rotors indexed by (offset * 26 + letter)
+    private final int[] middleBackward;
+    private final int[] rightBackward;
+
+    // Forward table of the middle rotor indexed by (offset * 26 + letter)
+    private final int[] middleForward;
+
+    // Per letter, the part of the right rotor: letter after the right rotor, row of the right backward table, and
+    // turns of the middle rotor so far (modulo 26)
+    private final int[] rightForward;
+    private final int[] rightRow;
+    private final int[] middleTurns;
+    // Right offset the right part was built for, or -1
+    private int compiledRight = -1;
+    private Statistic statistic = Statistic.QUADGRAMS;
+
+    // Per letter, the part of the middle rotor: letter after the right and middle rotors, row of the middle backward
+    // table, and turns of the left rotor so far times 26
+    private final int[] forward;
+    private final int[] middleRow;
+    private final int[] leftShift;
+    // Running quadgram and fitness of each left position
+    private final int[] grams = new int[SIZE];
+    private final double[] fitness = new double[SIZE];
+    // Letter counts of each left position, left * 26 + letter
+    private final int[] counts = new int[SIZE * SIZE];
+
+    /**
+     * @param rotorTypes Rotor types, left to right.
+     * @param text The compiled ciphertext.
+     */
+    public PositionSweep(int[] rotorTypes, LaneMachine.Text text) {
+        this.leftType = rotorTypes[0];
+        this.middleType = rotorTypes[1];
+        this.rightType = rotorTypes[2];
+        this.middleNotch = FastMachine.NOTCH[middleType];
+        this.rightNotch = FastMachine.NOTCH[rightType];
+        this.text = text;
+        this.quadgrams = LaneMachine.QUADGRAMS;
+        this.quadgramFitness = Score.getQuadgramFitness();
+
+        this.turnaround = new int[2 * SIZE * SIZE];
+        this.middleBackward = new int[SIZE * SIZE];
+        this.rightBackward = new int[SIZE * SIZE];
+        this.middleForward = new int[SIZE * SIZE];
+        for (int offset = 0; offset < 2 * SIZE; offset++) {
+            for (int c = 0; c < SIZE; c++) {
+                int left = offset % SIZE;
+                turnaround[offset * SIZE + c] = FastMachine.BACKWARD[leftType][left][
+                        FastMachine.REFLECTOR[FastMachine.FORWARD[leftType][left][c]]];
+                if (offset < SIZE) {
+                    middleBackward[offset * SIZE + c] = FastMachine.BACKWARD[middleType][offset][c];
+                    middleForward[offset * SIZE + c] = FastMachine.FORWARD[middleType][offset][c];
+                    rightBackward[offset * SIZE + c] = FastMachine.BACKWARD[rightType][offset][c];
+                }
+            }
+        }
+
+        int length = text.letters().length;
+        this.rightForward = new int[length];
+        this.rightRow = new int[length];
+        this.middleTurns = new int[length];
+        this.forward = new int[length];
+        this.middleRow = new int[length];
+        this.leftShift = new int[length];
+    }
+
+    public void setStatistic(Statistic statistic) {
+        this.statistic = statistic;
+    }
+
+    /**
+     * Scores the 26 left positions of a middle and right position pair. The right rotor's part is reused when the
+     * previous call had the same right position.
+     *
+     * @param middle Window letter of the middle rotor.
+     * @param right Window letter of the right rotor.
+     * @param scores Receives the scores, indexed by {@link ScramblerCatalogue#stateIndex(char, char, char)}.
+     */
+    public void score(char middle, char right, double[] scores) {
+        int rightOffset = FastMachine.offsetOf(rightType, right);
+        if (rightOffset != compiledRight) {
+            compileRight(rightOffset);
+        }
+        compileMiddle(FastMachine.offsetOf(middleType, middle));
+        if (statistic == Statistic.INDEX_OF_COINCIDENCE) {
+            scoreCoincidences(middle, right, scores);
+            return;
+        }
+
+        byte[] runs = text.runs();
+        int length = forward.length;
+        Arrays.fill(grams, 0);
+        Arrays.fill(fitness, 0);
+        for (int i = 0; i < length; i++) {
+            // Shared by the 26 left positions
+            int in = forward[i] + leftShift[i];
+            int middleBase = middleRow[i];
+            int rightBase = rightRow[i];
+            boolean counted = runs[i] >= 3;
+            for (int left = 0; left < SIZE; left++) {
+                int c = turnaround[left * SIZE + in];
+                c = rightBackward[rightBase + middleBackward[middleBase + c]];
+                int gram = (grams[left] % (SIZE * SIZE * SIZE)) * SIZE + c;
+                grams[left] = gram;
+                if (counted) {
+                    fitness[left] += quadgrams[gram];
+                }
+            }
+        }
+        for (int left = 0; left < SIZE; left++) {
+            char window = FastMachine.positionOf(leftType, left);
+            scores[ScramblerCatalogue.stateIndex(window, middle, right)] = statistic == Statistic.MEAN_QUADGRAMS
+                    ? (text.quadgrams() == 0 ? 0 : fitness[left] / text.quadgrams())
+                    : quadgramFitness.normalize(fitness[left], text.quadgrams());
+        }
+    }
+
+    /**
+     * Counts the letters each left position deciphers to and turns the counts into the Index of Coincidence,
+     * {@code sum n(n - 1) / (N(N - 1))}.
+     */
+    private void scoreCoincidences(char middle, char right, double[] scores) {
+        int length = forward.length;
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < length; i++) {
+            int in = forward[i] + leftShift[i];
+            int middleBase = middleRow[i];
+            int rightBase = rightRow[i];
+            for (int left = 0; left < SIZE; left++) {
+                int c = turnaround[left * SIZE + in];
+                counts[left * SIZE + rightBackward[rightBase + middleBackward[middleBase + c]]]++;
+            }
+        }
+        double pairs = (double) length * (length - 1);
+        for (int left = 0; left < SIZE; left++) {
+            long coincidences = 0;
+            for (int c = left * SIZE; c < (left + 1) * SIZE; c++) {
+                coincidences += (long) counts[c] * (counts[c] - 1);
+            }
+            char window = FastMachine.positionOf(leftType, left);
+            scores[ScramblerCatalogue.stateIndex(window, middle, right)] = length < 2 ? 0 : coincidences / pairs;
+        }
+    }
+
+    /**
+     * Scores the 676 start positions sharing a right position, visiting the middle offsets in order so the right
+     * rotor's part is built once.
+     *
+     * @param right Window letter of the right rotor.
+     * @param scores Receives the scores, indexed by {@link ScramblerCatalogue#stateIndex(char, char, char)}.
+     */
+    public void scoreRight(char right, double[] scores) {
+        for (int middle = 0; middle < SIZE; middle++) {
+            score(FastMachine.positionOf(middleType, middle), right, scores);
+        }
+    }
+
+    /**
+     * Steps the right rotor over the message from the given offset, exactly as {@link FastMachine#step()}, sends every
+     * letter through it and counts the turns of the middle rotor.
+     */
+    private void compileRight(int offset) {
+        byte[] letters = text.letters();
+        int right = offset;
+        int turns = 0;
+        for (int i = 0; i < letters.length; i++) {
+            right = right == SIZE - 1 ? 0 : right + 1;
+            if (right == rightNotch) {
+                turns = turns == SIZE - 1 ? 0 : turns + 1;
+            }
+            rightForward[i] = FastMachine.FORWARD[rightType][right][letters[i]];
+            rightRow[i] = right * SIZE;
+            middleTurns[i] = turns;
+        }
+        compiledRight = offset;
+    }
+
+    /**
+     * Moves the middle rotor along the turns recorded by {@link #compileRight(int)} from the given offset, sends every
+     * letter through it and counts the turns of the left rotor.
+     */
+    private void compileMiddle(int middle) {
+        int turns = 0;
+        for (int i = 0; i < forward.length; i++) {
+            int offset = middle + middleTurns[i];
+            offset = offset >= SIZE ? offset - SIZE : offset;
+            if (offset == middleNotch) {
+                turns = turns == SIZE - 1 ? 0 : turns + 1;
+            }
+            forward[i] = middleForward[offset * SIZE + rightForward[i]];
+            middleRow[i] = offset * SIZE;
+            leftShift[i] = turns * SIZE;
+        }
+    }
+}
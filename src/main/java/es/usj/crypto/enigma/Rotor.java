@@ -15,6 +15,8 @@ import static org.junit.Assert.assertTrue;
  * - A 26-character sequence for the ring, containing every character from the ALPHABET without repetitions.
  * - The Notch position, which triggers the rotation of the adjacent rotor.
  * - The Rotor Position, the initial character of the ring sequence, is set to one character from the ALPHABET.
+ * - The Ring Setting, which turns the wiring back against the ring sequence and the notch by 0 ('A') to 25 ('Z')
+ *   positions. The window and the notch follow the ring sequence, while the substitution follows the wiring.
  */
 public class Rotor {
 
@@ -30,8 +32,16 @@ public class Rotor {
     private char notch;
     // Initial position of the rotor
     private char rotorPosition;
+    // Ring setting of the rotor ('A' leaves the wiring aligned with the ring sequence)
+    private char ringSetting = 'A';
+    // Ring sequence turned back by the ring setting, used for the substitutions
+    private String wiring;
 
     public void setConfig(int rotorType, char rotorPosition) {
+        setConfig(rotorType, rotorPosition, 'A');
+    }
+
+    public void setConfig(int rotorType, char rotorPosition, char ringSetting) {
         this.ringSequence = RotorConfiguration.getRotorConfiguration(rotorType).getRingSequence();
         this.notch = RotorConfiguration.getRotorConfiguration(rotorType).getNotch();
 
@@ -39,6 +49,8 @@ public class Rotor {
         while (this.ringSequence.charAt(0) != this.rotorPosition) {
             this.ringSequence = rotate(this.ringSequence);
         }
+        this.ringSetting = ringSetting;
+        this.wiring = applyRingSetting(this.ringSequence, ringSetting);
     }
 
     /**
@@ -48,6 +60,17 @@ public class Rotor {
      * @param rotorPosition The initial position of the rotor (A-Z).
      */
     public Rotor(RotorConfiguration rotorConfiguration, char rotorPosition) {
+        this(rotorConfiguration, rotorPosition, 'A');
+    }
+
+    /**
+     * Constructs a Rotor with the provided configuration, starting position and ring setting.
+     *
+     * @param rotorConfiguration Contains the ring sequence and notch position.
+     * @param rotorPosition The initial position of the rotor (A-Z).
+     * @param ringSetting The ring setting of the rotor (A-Z).
+     */
+    public Rotor(RotorConfiguration rotorConfiguration, char rotorPosition, char ringSetting) {
 
         // Validate rotor position is within A-Z
         assertTrue("Initial position should be A to Z", ALPHABET.indexOf(rotorPosition) != -1);
@@ -70,6 +93,11 @@ public class Rotor {
         // Validate notch position is within A-Z
         assertTrue("Notch position should be A to Z", ALPHABET.indexOf(rotorConfiguration.getNotch()) != -1);
         this.notch = rotorConfiguration.getNotch();
+
+        // Validate ring setting is within A-Z
+        assertTrue("Ring setting should be A to Z", ALPHABET.indexOf(ringSetting) != -1);
+        this.ringSetting = ringSetting;
+        this.wiring = applyRingSetting(this.ringSequence, ringSetting);
     }
 
     /**
@@ -81,7 +109,7 @@ public class Rotor {
     public char forward(char c) {
         int index = ALPHABET.indexOf(c);
         if (index >= 0) {
-            return ringSequence.charAt(index);
+            return wiring.charAt(index);
         } else {
             return c;
         }
@@ -94,7 +122,7 @@ public class Rotor {
      * @return The substituted character.
      */
     public char backward(char c) {
-        int index = ringSequence.indexOf(c);
+        int index = wiring.indexOf(c);
         if (index >= 0) {
             return ALPHABET.charAt(index);
         } else {
@@ -110,9 +138,22 @@ public class Rotor {
     public void update(Rotor rightRotor) {
         if (rightRotor == null || rightRotor.ringSequence.charAt(0) == rightRotor.notch) {
             ringSequence = rotate(ringSequence);
+            wiring = rotate(wiring);
         }
     }
 
+    /**
+     * Turns a ring sequence back by a ring setting, the inverse of rotating it {@code ringSetting - 'A'} times.
+     *
+     * @param ringSequence The ring sequence at the current rotor position.
+     * @param ringSetting The ring setting (A-Z).
+     * @return The wiring in use.
+     */
+    private static String applyRingSetting(String ringSequence, char ringSetting) {
+        int shift = ringSetting - 'A';
+        return ringSequence.substring(shift) + ringSequence.substring(0, shift);
+    }
+
     /**
      * Rotates the ring sequence of the rotor by one position.
      *
@@ -124,7 +165,7 @@ public class Rotor {
     }
 
     /**
-     * Checks if this rotor is equal to another rotor based on the ring sequence, notch, and rotor position.
+     * Checks if this rotor is equal to another rotor based on the ring sequence, notch, rotor position and ring setting.
      *
      * @param o The object to be compared with this rotor.
      * @return {@code true} if the objects are equal, otherwise {@code false}.
@@ -135,17 +176,18 @@ public class Rotor {
         if (o == null || getClass() != o.getClass()) return false;
         Rotor rotor = (Rotor) o;
         return rotorPosition == rotor.rotorPosition &&
+                ringSetting == rotor.ringSetting &&
                 Objects.equals(ringSequence, rotor.ringSequence) &&
                 Objects.equals(notch, rotor.notch);
     }
 
     /**
-     * Returns the hash code for this rotor, based on the ring sequence, notch, and rotor position.
+     * Returns the hash code for this rotor, based on the ring sequence, notch, rotor position and ring setting.
      *
      * @return The hash code of this rotor.
      */
     @Override
     public int hashCode() {
-        return Objects.hash(ringSequence, notch, rotorPosition);
+        return Objects.hash(ringSequence, notch, rotorPosition, ringSetting);
     }
 }
@@ -0,0 +1,250 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent catalogue of the unplugged scrambler permutation (rotors and reflector, no plugboard, no rotation) for
+ * every rotor order and every rotor position triple.
+ *
+ * The catalogue is built once and memory-mapped by every later search, so looking up the scrambler of any state is
+ * a single byte read with no warm-up.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * offset  size                  content
+ * 0       4                     magic "ENSC"
+ * 4       4                     format version (1)
+ * 8       4                     number of rotor orders (60)
+ * 12      4                     number of position triples per order (17,576)
+ * 16      4                     permutation size (26)
+ * 20      12                    reserved (zero)
+ * 32      60 x 17,576 x 26      permutations, one byte per letter
+ * </pre>
+ *
+ * The permutation of rotor order {@code o} at state {@code s} starts at {@code 32 + (o * 17,576 + s) * 26}, where
+ * {@link #orderIndex(int, int, int)} numbers the orders in the same nested-loop order as {@code Main} and
+ * {@link #stateIndex(char, char, char)} is {@code (left * 26 + middle) * 26 + right} over the window letters (A = 0).
+ *
+ * The scrambler includes the reflector, so every permutation is an involution and is its own inverse;
+ * {@link #inverse(int, int, int)} reads the same table instead of storing a second copy.
+ */
+public class ScramblerCatalogue implements AutoCloseable {
+
+    public static final int ORDERS = 60;
+    public static final int STATES = 26 * 26 * 26;
+    private static final int MAGIC = 0x454E5343; // "ENSC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final long FILE_SIZE = HEADER_SIZE + (long) ORDERS * STATES * FastMachine.SIZE;
+
+    // Rotor order index -> rotor types, and rotor types -> rotor order index
+    private static final int[][] ORDER_TYPES = new int[ORDERS][];
+    private static final int[] ORDER_INDEX = new int[6 * 6 * 6];
+
+    static {
+        int order = 0;
+        for (int i = 1; i <= 5; i++) {
+            for (int j = 1; j <= 5; j++) {
+                for (int k = 1; k <= 5; k++) {
+                    if (k == i || k == j || j == i) continue;
+                    ORDER_TYPES[order] = new int[]{i, j, k};
+                    ORDER_INDEX[(i * 6 + j) * 6 + k] = order++;
+                }
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private ScramblerCatalogue(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps an existing catalogue file.
+     *
+     * @param path Location of the catalogue.
+     * @return The mapped catalogue.
+     * @throws IOException if the file cannot be read or has an unexpected layout.
+     */
+    public static ScramblerCatalogue open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() != FILE_SIZE) {
+                throw new IOException("Scrambler catalogue " + path + " has " + channel.size() + " bytes, expected " + FILE_SIZE);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != ORDERS
+                    || buffer.getInt(12) != STATES || buffer.getInt(16) != FastMachine.SIZE) {
+                throw new IOException("Scrambler catalogue " + path + " has an unknown format");
+            }
+            return new ScramblerCatalogue(channel, buffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the catalogue at the given location, building it first if it does not exist yet.
+     *
+     * @param path Location of the catalogue.
+     * @return The mapped catalogue.
+     * @throws IOException if the file cannot be built or read.
+     */
+    public static ScramblerCatalogue openOrBuild(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            build(path);
+        }
+        return open(path);
+    }
+
+    /**
+     * Computes every scrambler permutation and writes the catalogue. The file is written next to the target and
+     * moved into place, so readers never see a partial catalogue.
+     *
+     * @param path Location of the catalogue.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void build(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(ORDERS).putInt(STATES).putInt(FastMachine.SIZE).rewind();
+            channel.write(header);
+
+            ByteBuffer block = ByteBuffer.allocate(STATES * FastMachine.SIZE);
+            for (int order = 0; order < ORDERS; order++) {
+                int[] types = ORDER_TYPES[order];
+                block.clear();
+                for (char l = 'A'; l <= 'Z'; l++) {
+                    for (char m = 'A'; m <= 'Z'; m++) {
+                        for (char r = 'A'; r <= 'Z'; r++) {
+                            FastMachine machine = new FastMachine(new EnigmaConfig(types, new char[]{l, m, r}, ""));
+                            for (int c = 0; c < FastMachine.SIZE; c++) {
+                                block.put((byte) machine.scramble(c));
+                            }
+                        }
+                    }
+                }
+                block.flip();
+                while (block.hasRemaining()) {
+                    channel.write(block);
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the catalogue index of a rotor order.
+     *
+     * @param left Left rotor type (1-5).
+     * @param middle Middle rotor type (1-5).
+     * @param right Right rotor type (1-5).
+     * @return The rotor order index (0-59).
+     */
+    public static int orderIndex(int left, int middle, int right) {
+        return ORDER_INDEX[(left * 6 + middle) * 6 + right];
+    }
+
+    public static int orderIndex(int[] rotorTypes) {
+        return orderIndex(rotorTypes[0], rotorTypes[1], rotorTypes[2]);
+    }
+
+    /**
+     * Returns the rotor types, left to right, of a rotor order index.
+     *
+     * @param order The rotor order index (0-59).
+     * @return A new array with the three rotor types.
+     */
+    public static int[] orderTypes(int order) {
+        return ORDER_TYPES[order].clone();
+    }
+
+    /**
+     * Returns the catalogue index of a rotor position triple.
+     *
+     * @param left Left window character (A-Z).
+     * @param middle Middle window character (A-Z).
+     * @param right Right window character (A-Z).
+     * @return The state index (0-17,575).
+     */
+    public static int stateIndex(char left, char middle, char right) {
+        return ((left - 'A') * 26 + (middle - 'A')) * 26 + (right - 'A');
+    }
+
+    public static int stateIndex(char[] rotorPositions) {
+        return stateIndex(rotorPositions[0], rotorPositions[1], rotorPositions[2]);
+    }
+
+    /**
+     * Substitutes a letter through the scrambler of the given state.
+     *
+     * @param order The rotor order index.
+     * @param state The state index.
+     * @param letter Letter index (0-25).
+     * @return The substituted letter index.
+     */
+    public int scramble(int order, int state, int letter) {
+        return buffer.get(offset(order, state) + letter);
+    }
+
+    /**
+     * Returns the letter that the scrambler of the given state substitutes into {@code letter}. As the scrambler is
+     * an involution this is the same lookup as {@link #scramble(int, int, int)}.
+     */
+    public int inverse(int order, int state, int letter) {
+        return scramble(order, state, letter);
+    }
+
+    /**
+     * Copies the permutation of the given state.
+     *
+     * @param order The rotor order index.
+     * @param state The state index.
+     * @param destination Array of at least 26 bytes.
+     */
+    public void copyPermutation(int order, int state, byte[] destination) {
+        buffer.get(offset(order, state), destination, 0, FastMachine.SIZE);
+    }
+
+    private static int offset(int order, int state) {
+        return HEADER_SIZE + (order * STATES + state) * FastMachine.SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Builds the catalogue.
+     *
+     * @param args Optional location of the catalogue (defaults to data/scramblers.bin)
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args.length > 0 ? args[0] : "data/scramblers.bin");
+        long start = System.currentTimeMillis();
+        build(path);
+        System.out.println("Scrambler catalogue written to " + path + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
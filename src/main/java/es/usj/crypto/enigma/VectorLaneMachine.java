@@ -0,0 +1,174 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.enigma.constant.RotorConfiguration;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * SIMD implementation of {@link LaneMachine} built on the incubating Vector API.
+ *
+ * Each byte lane holds the rotor offsets of one candidate. Within a batch all candidates share the rotor types and
+ * the plugboard, so every substitution is a lookup into one 26-entry table that fits in a single vector and is
+ * performed for all lanes at once with {@code selectFrom}:
+ * <pre>
+ * forward(c)  = ringSequence[(c - offset) mod 26]
+ * backward(c) = (inverseRingSequence[c] + offset) mod 26
+ * </pre>
+ * Offsets are advanced with masked additions, so each lane follows its own stepping. Lanes hold the offsets of the
+ * wiring, so ring settings are handled by starting each lane {@code ringSetting} places back and comparing it with a
+ * notch moved back by as much. The deciphered letters of all lanes feed a per-lane quadgram accumulator.
+ *
+ * Batches mixing rotor types or plugboards are delegated to the scalar lanes. Only instantiated through
+ * {@link LaneMachine#create()}, which falls back to the scalar lanes when {@code jdk.incubator.vector} is missing.
+ */
+class VectorLaneMachine extends LaneMachine {
+
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_256;
+    private static final int SIZE = FastMachine.SIZE;
+
+    // Ring sequences and their inverses as letter indices, padded to the vector length, indexed by rotor type
+    private static final byte[][] RING = new byte[6][];
+    private static final byte[][] INVERSE_RING = new byte[6][];
+    private static final byte[] REFLECTOR = new byte[BYTES.length()];
+
+    static {
+        for (int type = 1; type <= 5; type++) {
+            String sequence = RotorConfiguration.getRotorConfiguration(type).getRingSequence();
+            RING[type] = new byte[BYTES.length()];
+            INVERSE_RING[type] = new byte[BYTES.length()];
+            for (int i = 0; i < SIZE; i++) {
+                RING[type][i] = (byte) (sequence.charAt(i) - 'A');
+                INVERSE_RING[type][sequence.charAt(i) - 'A'] = (byte) i;
+            }
+        }
+        for (int c = 0; c < SIZE; c++) {
+            REFLECTOR[c] = (byte) FastMachine.REFLECTOR[c];
+        }
+    }
+
+    private final int lanes = BYTES.length();
+    private final byte[] leftOffset = new byte[lanes];
+    private final byte[] middleOffset = new byte[lanes];
+    private final byte[] rightOffset = new byte[lanes];
+    private final byte[] middleNotch = new byte[lanes];
+    private final byte[] rightNotch = new byte[lanes];
+    private final byte[] plugboard = new byte[lanes];
+    private final byte[] output = new byte[lanes];
+    private final int[] grams = new int[lanes];
+    private final double[] sums = new double[lanes];
+
+    @Override
+    public int lanes() {
+        return lanes;
+    }
+
+    @Override
+    public void score(EnigmaConfig[] configs, int count, Text text, double[] scores) {
+        if (!sharesWiring(configs, count)) {
+            super.score(configs, count, text, scores);
+            return;
+        }
+
+        int[] types = configs[0].getRotorTypes();
+        int[] plugboardMapping = new FastMachine(configs[0]).getPlugboard();
+        for (int c = 0; c < SIZE; c++) {
+            plugboard[c] = (byte) plugboardMapping[c];
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            EnigmaConfig config = configs[lane < count ? lane : 0];
+            char[] positions = config.getRotorPositions();
+            char[] ringSettings = config.getRingSettings();
+            leftOffset[lane] = (byte) wiringOffset(FastMachine.offsetOf(types[0], positions[0]), ringSettings[0]);
+            middleOffset[lane] = (byte) wiringOffset(FastMachine.offsetOf(types[1], positions[1]), ringSettings[1]);
+            rightOffset[lane] = (byte) wiringOffset(FastMachine.offsetOf(types[2], positions[2]), ringSettings[2]);
+            middleNotch[lane] = (byte) wiringOffset(FastMachine.NOTCH[types[1]], ringSettings[1]);
+            rightNotch[lane] = (byte) wiringOffset(FastMachine.NOTCH[types[2]], ringSettings[2]);
+        }
+        Arrays.fill(grams, 0);
+        Arrays.fill(sums, 0);
+
+        ByteVector leftRing = ByteVector.fromArray(BYTES, RING[types[0]], 0);
+        ByteVector middleRing = ByteVector.fromArray(BYTES, RING[types[1]], 0);
+        ByteVector rightRing = ByteVector.fromArray(BYTES, RING[types[2]], 0);
+        ByteVector leftInverse = ByteVector.fromArray(BYTES, INVERSE_RING[types[0]], 0);
+        ByteVector middleInverse = ByteVector.fromArray(BYTES, INVERSE_RING[types[1]], 0);
+        ByteVector rightInverse = ByteVector.fromArray(BYTES, INVERSE_RING[types[2]], 0);
+        ByteVector reflector = ByteVector.fromArray(BYTES, REFLECTOR, 0);
+        ByteVector plugs = ByteVector.fromArray(BYTES, plugboard, 0);
+
+        ByteVector left = ByteVector.fromArray(BYTES, leftOffset, 0);
+        ByteVector middle = ByteVector.fromArray(BYTES, middleOffset, 0);
+        ByteVector right = ByteVector.fromArray(BYTES, rightOffset, 0);
+        ByteVector middleNotches = ByteVector.fromArray(BYTES, middleNotch, 0);
+        ByteVector rightNotches = ByteVector.fromArray(BYTES, rightNotch, 0);
+
+        byte[] letters = text.letters();
+        byte[] runs = text.runs();
+        for (int i = 0; i < letters.length; i++) {
+            // Rotate: right always, middle on the right notch, left while the middle sits on its notch
+            right = wrap(right.add((byte) 1));
+            middle = wrap(middle.add((byte) 1, right.eq(rightNotches)));
+            left = wrap(left.add((byte) 1, middle.eq(middleNotches)));
+
+            ByteVector c = ByteVector.broadcast(BYTES, plugboard[letters[i]]);
+            c = forward(c, right).selectFrom(rightRing);
+            c = forward(c, middle).selectFrom(middleRing);
+            c = forward(c, left).selectFrom(leftRing);
+            c = c.selectFrom(reflector);
+            c = backward(c.selectFrom(leftInverse), left);
+            c = backward(c.selectFrom(middleInverse), middle);
+            c = backward(c.selectFrom(rightInverse), right);
+            c = c.selectFrom(plugs);
+
+            c.intoArray(output, 0);
+            boolean counted = runs[i] >= 3;
+            for (int lane = 0; lane < count; lane++) {
+                int gram = (grams[lane] % (SIZE * SIZE * SIZE)) * SIZE + output[lane];
+                grams[lane] = gram;
+                if (counted) {
+                    sums[lane] += quadgrams[gram];
+                }
+            }
+        }
+
+        for (int lane = 0; lane < count; lane++) {
+            scores[lane] = quadgramFitness.normalize(sums[lane], text.quadgrams());
+        }
+    }
+
+    // Offset of the wiring of a rotor turned to the given offset with the given ring setting
+    private static int wiringOffset(int offset, char ringSetting) {
+        return (offset - (ringSetting - 'A') + SIZE) % SIZE;
+    }
+
+    // (c - offset) mod 26
+    private static ByteVector forward(ByteVector c, ByteVector offset) {
+        ByteVector index = c.sub(offset);
+        return index.add((byte) SIZE, index.lt((byte) 0));
+    }
+
+    // (c + offset) mod 26
+    private static ByteVector backward(ByteVector c, ByteVector offset) {
+        return wrap(c.add(offset));
+    }
+
+    private static ByteVector wrap(ByteVector value) {
+        VectorMask<Byte> overflow = value.compare(VectorOperators.GE, (byte) SIZE);
+        return value.sub((byte) SIZE, overflow);
+    }
+
+    private static boolean sharesWiring(EnigmaConfig[] configs, int count) {
+        for (int lane = 1; lane < count; lane++) {
+            if (!Arrays.equals(configs[lane].getRotorTypes(), configs[0].getRotorTypes())
+                    || !configs[lane].getPlugboard().equals(configs[0].getPlugboard())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
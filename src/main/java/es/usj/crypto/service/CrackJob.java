@@ -0,0 +1,246 @@
+package es.usj.crypto.service;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.utils.SearchBudget;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
+/**
+ * A crack job of the {@link JobService}: its request, its state and the progress and best keys reported by the search.
+ *
+ * Every change bumps a version number and wakes the threads waiting in {@link #awaitChange(long, long)}, which is how
+ * the event streams of {@link CrackServer} follow a job without polling it.
+ */
+public class CrackJob {
+
+    // Best keys kept in the status
+    static final int TOP_SIZE = 10;
+
+    public enum Type {
+        /** Ciphertext-only search of {@code Main}: rotor sweep, ring search and plugboard rounds. */
+        CIPHERTEXT,
+        /** Bombe with cribs, its stops verified by {@code BombeStopVerifier}. */
+        BOMBE,
+        /** Decryption with a known key. */
+        DECRYPT
+    }
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        boolean isFinal() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    /**
+     * A job as submitted, read from the JSON body of {@code POST /jobs}.
+     *
+     * @param type {@code ciphertext}, {@code bombe} or {@code decrypt}.
+     * @param ciphertext Ciphertext letters, words separated by spaces.
+     * @param plugboardSize Plugs the ciphertext-only search looks for, 10 by default.
+     * @param cribs Probable plaintext words for the Bombe, each placed over the first ciphertext word it fits.
+     * @param rotorTypes Key to decrypt with: rotor types, left to right.
+     * @param rotorPositions Key to decrypt with: rotor positions, such as {@code JDA}.
+     * @param ringSettings Key to decrypt with: ring settings, {@code AAA} by default.
+     * @param plugboard Key to decrypt with: plugboard, such as {@code AB:CD}.
+     * @param timeoutSeconds Longest run of the search, counted from its start; none by default.
+     * @param maxEvaluations Most keys the search evaluates; none by default.
+     */
+    public record Request(String type, String ciphertext, Integer plugboardSize, List<String> cribs, int[] rotorTypes,
+                          String rotorPositions, String ringSettings, String plugboard, Double timeoutSeconds,
+                          Long maxEvaluations) {
+    }
+
+    /**
+     * A key and its score.
+     */
+    public record Candidate(String key, double score) {
+
+        static Candidate of(EnigmaConfig config) {
+            return new Candidate(config.toString(), config.getScore());
+        }
+    }
+
+    /**
+     * A snapshot of a job, as returned by the API.
+     */
+    public record Status(String id, Type type, State state, long version, String stage, long done, long total,
+                         List<Candidate> top, String key, String plaintext, String error, long submittedAt,
+                         long startedAt, long finishedAt) {
+    }
+
+    private final String id;
+    private final Type type;
+    private final Request request;
+    private final String ciphertext;
+    private final long submittedAt = System.currentTimeMillis();
+
+    // Guarded by this
+    private State state = State.QUEUED;
+    private long version;
+    private String stage = "queued";
+    private long done;
+    private long total;
+    private List<Candidate> top = List.of();
+    private String key;
+    private String plaintext;
+    private String error;
+    private long startedAt;
+    private long finishedAt;
+    private Future<?> future;
+    private boolean cancelRequested;
+    private SearchBudget budget = SearchBudget.unlimited();
+
+    CrackJob(String id, Request request, String ciphertext) {
+        this.id = id;
+        this.type = Type.valueOf(request.type().toUpperCase(Locale.ROOT));
+        this.request = request;
+        this.ciphertext = ciphertext;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    public String getCiphertext() {
+        return ciphertext;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Status status() {
+        return new Status(id, type, state, version, stage, done, total, top, key, plaintext, error, submittedAt,
+                startedAt, finishedAt);
+    }
+
+    /**
+     * Waits until the job changes from the given version.
+     *
+     * @param seen Version last seen by the caller.
+     * @param timeoutMillis Longest wait.
+     * @return The current version, equal to {@code seen} if the wait timed out.
+     */
+    public synchronized long awaitChange(long seen, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (version == seen && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return version;
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * @return Budget of the running search, which {@link #cancel()} cancels.
+     */
+    synchronized SearchBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Marks the job as running and starts the clock of its budget, unless it was cancelled while queued.
+     *
+     * @return {@code false} if the job must not run.
+     */
+    synchronized boolean start() {
+        if (state != State.QUEUED) {
+            return false;
+        }
+        budget = SearchBudget.of(request.timeoutSeconds() == null ? null
+                        : Duration.ofMillis((long) (request.timeoutSeconds() * 1000)),
+                request.maxEvaluations() == null ? 0 : request.maxEvaluations());
+        state = State.RUNNING;
+        stage = "starting";
+        startedAt = System.currentTimeMillis();
+        changed();
+        return true;
+    }
+
+    synchronized void progress(String stage, long done, long total) {
+        this.stage = stage;
+        this.done = done;
+        this.total = total;
+        changed();
+    }
+
+    synchronized void top(List<EnigmaConfig> configs) {
+        List<Candidate> candidates = new ArrayList<>(TOP_SIZE);
+        for (int i = 0; i < Math.min(TOP_SIZE, configs.size()); i++) {
+            candidates.add(Candidate.of(configs.get(i)));
+        }
+        this.top = List.copyOf(candidates);
+        changed();
+    }
+
+    /**
+     * Finishes the job with its best key, found before the budget ran out if it did: a job stopped by its deadline or
+     * evaluation limit still succeeds, one stopped by {@link #cancel()} ends as cancelled.
+     */
+    synchronized void succeed(EnigmaConfig key, String plaintext) {
+        this.key = key == null ? null : key.toString();
+        this.plaintext = plaintext;
+        if (budget.reason() != null && budget.reason() != SearchBudget.Reason.CANCELLED) {
+            this.error = "Stopped by the " + budget.reason().name().toLowerCase(Locale.ROOT) + " limit after "
+                    + budget.evaluations() + " evaluations";
+        }
+        finish(cancelRequested ? State.CANCELLED : State.SUCCEEDED);
+    }
+
+    synchronized void fail(String error) {
+        this.error = error;
+        finish(cancelRequested ? State.CANCELLED : State.FAILED);
+    }
+
+    /**
+     * Cancels the job: a queued job is cancelled at once and never starts, the budget of a running one is cancelled so
+     * that it ends as cancelled at its next unit of work, with the best key it found so far.
+     *
+     * @return {@code false} if the job had already finished.
+     */
+    synchronized boolean cancel() {
+        if (state.isFinal()) {
+            return false;
+        }
+        cancelRequested = true;
+        if (state == State.QUEUED) {
+            finish(State.CANCELLED);
+            if (future != null) {
+                future.cancel(false);
+            }
+        } else {
+            budget.cancel();
+        }
+        return true;
+    }
+
+    private void finish(State state) {
+        this.state = state;
+        this.stage = "finished";
+        this.finishedAt = System.currentTimeMillis();
+        changed();
+    }
+
+    private void changed() {
+        version++;
+        notifyAll();
+    }
+}
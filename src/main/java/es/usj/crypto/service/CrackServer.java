@@ -0,0 +1,205 @@
+package es.usj.crypto.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import es.usj.crypto.utils.SearchEvents;
+import es.usj.crypto.utils.SearchMetrics;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP API of a {@link JobService}, so that one long-running JVM cracks many messages with its scoring tables loaded
+ * and its code compiled once.
+ * <ul>
+ *   <li>{@code POST /jobs} submits a job, see {@link CrackJob.Request}: {@code 202} with its status, {@code 400} if
+ *   the request is invalid, {@code 429} if the queue is full.</li>
+ *   <li>{@code GET /jobs} lists the jobs, {@code GET /jobs/<id>} returns the status of one.</li>
+ *   <li>{@code GET /jobs/<id>/events} streams the status of a job as server-sent events, one {@code status} event
+ *   per change, until the job finishes.</li>
+ *   <li>{@code DELETE /jobs/<id>} cancels a job: {@code 202}, or {@code 409} if it had already finished.</li>
+ * </ul>
+ * Errors are answered as JSON {@code {"error": <message>}}, with {@code 500} for any failure of the server itself.
+ * The server is the JDK's, like the one of {@link SearchMetrics}, as the build has no web framework.
+ */
+public class CrackServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    // Longest silence on an event stream, so that proxies keep it open
+    private static final long KEEP_ALIVE_MILLIS = 15_000;
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
+    private final JobService service;
+    private final HttpServer server;
+    // Event streams block a thread each, so the handlers get as many as they need
+    private final ExecutorService handlers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "crack-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CrackServer(JobService service, int port) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/jobs", this::handle);
+        server.setExecutor(handlers);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Crack jobs served on http://localhost:" + server.getAddress().getPort() + "/jobs");
+    }
+
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            String method = exchange.getRequestMethod();
+            // path is {"", "jobs", id, "events"}
+            if (path.length == 2) {
+                switch (method) {
+                    case "GET" -> send(exchange, 200,
+                            service.list().stream().map(CrackJob::status).toList());
+                    case "POST" -> submit(exchange);
+                    default -> send(exchange, 405, error("Use GET or POST"));
+                }
+                return;
+            }
+            Optional<CrackJob> job = service.get(path[2]);
+            if (job.isEmpty() || path.length > 4 || (path.length == 4 && !path[3].equals("events"))) {
+                send(exchange, 404, error("No such job"));
+            } else if (path.length == 4 && method.equals("GET")) {
+                stream(exchange, job.get());
+            } else if (path.length == 3 && method.equals("GET")) {
+                send(exchange, 200, job.get().status());
+            } else if (path.length == 3 && method.equals("DELETE")) {
+                boolean cancelled = service.cancel(job.get());
+                send(exchange, cancelled ? 202 : 409, cancelled ? job.get().status() : error("The job has finished"));
+            } else {
+                send(exchange, 405, error("Method not allowed"));
+            }
+        } catch (RuntimeException e) {
+            // Answer rather than drop the connection; this fails too if the response had already started
+            System.err.println("Error handling " + exchange.getRequestMethod() + " " + exchange.getRequestURI()
+                    + ": " + e);
+            send(exchange, 500, error("Internal error: " + e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        CrackJob.Request request;
+        try (InputStreamReader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            request = GSON.fromJson(reader, CrackJob.Request.class);
+        } catch (JsonParseException e) {
+            send(exchange, 400, error("Invalid JSON: " + e.getMessage()));
+            return;
+        }
+        try {
+            CrackJob job = service.submit(request);
+            exchange.getResponseHeaders().set("Location", "/jobs/" + job.getId());
+            send(exchange, 202, job.status());
+        } catch (JobService.RejectedJobException e) {
+            exchange.getResponseHeaders().set("Retry-After", "60");
+            send(exchange, 429, error(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Sends a {@code status} event at every change of the job, and a comment when nothing changed for a while, until
+     * the job finishes or the client goes away.
+     */
+    private void stream(HttpExchange exchange, CrackJob job) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        long seen = -1;
+        try {
+            while (true) {
+                long version = job.awaitChange(seen, KEEP_ALIVE_MILLIS);
+                String event;
+                CrackJob.Status status = null;
+                if (version == seen) {
+                    event = ": keep-alive\n\n";
+                } else {
+                    status = job.status();
+                    seen = status.version();
+                    event = "id: " + status.version() + "\nevent: status\ndata: " + GSON.toJson(status) + "\n\n";
+                }
+                out.write(event.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (status != null && status.state().isFinal()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client went away
+        }
+    }
+
+    private static Map<String, String> error(String message) {
+        return Map.of("error", message);
+    }
+
+    private static void send(HttpExchange exchange, int code, Object body) throws IOException {
+        byte[] bytes = GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Runs the service until the JVM is stopped.
+     *
+     * @param args optional --port=8080, --jobs=1 (jobs run at the same time), --queue=16 (jobs waiting to run),
+     *             --max-letters=5000, --metrics-port to serve the metrics for Prometheus and --profile[=<file>] to
+     *             record the service with Java Flight Recorder until it stops
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+        int port = Integer.parseInt(options.getOrDefault("--port", String.valueOf(DEFAULT_PORT)));
+        int jobs = Integer.parseInt(options.getOrDefault("--jobs", "1"));
+        int queue = Integer.parseInt(options.getOrDefault("--queue", "16"));
+        int maxLetters = Integer.parseInt(options.getOrDefault("--max-letters", "5000"));
+        SearchEvents.recordIfRequested(args, "service");
+        SearchMetrics.serveIfRequested(args);
+
+        JobService service = new JobService(jobs, queue, maxLetters, Paths.get("data/scramblers.bin"));
+        CrackServer server = new CrackServer(service, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            service.shutdown();
+            SearchMetrics.stop();
+            SearchEvents.stopRecording();
+        }, "crack-server-shutdown"));
+        server.start();
+    }
+}
@@ -0,0 +1,359 @@
+package es.usj.crypto.service;
+
+import es.usj.crypto.Bombe;
+import es.usj.crypto.BombeStopVerifier;
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.KeySearch;
+import es.usj.crypto.Fitness.Score;
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+import es.usj.crypto.utils.Checkpoint;
+import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.SearchBudget;
+import es.usj.crypto.utils.SearchMetrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Runs crack jobs in the background with bounded concurrency.
+ *
+ * At most {@code concurrency} jobs run at a time, each on its own {@link EnigmaManager} so that they never share a
+ * text; the managers, their threads and the scoring tables of {@code Score} stay warm between jobs. Up to
+ * {@code queueSize} more jobs wait in line. Admission control rejects a job when the line is full or its ciphertext is
+ * longer than {@code maxLetters}, rather than letting the backlog grow without bound.
+ *
+ * Finished jobs are kept for their clients to read until {@link #KEPT_JOBS} newer ones have finished.
+ */
+public class JobService {
+
+    // Finished jobs kept for their clients
+    static final int KEPT_JOBS = 100;
+    private static final int DEFAULT_PLUGBOARD_SIZE = 10;
+    private static final Pattern CIPHERTEXT = Pattern.compile("[A-Z]+( [A-Z]+)*");
+    private static final Pattern ROTOR_LETTERS = Pattern.compile("[A-Z]{3}");
+    private static final Pattern PLUGBOARD = Pattern.compile("[A-Z]{2}(:[A-Z]{2})*");
+
+    /**
+     * Thrown when a job is not admitted because the queue is full.
+     */
+    public static class RejectedJobException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RejectedJobException(String message) {
+            super(message);
+        }
+    }
+
+    private final int maxLetters;
+    private final ThreadPoolExecutor executor;
+    private final Runnable unmonitor;
+    private final BlockingQueue<EnigmaManager> managers;
+    private final ScramblerCatalogue catalogue;
+    private final Map<String, CrackJob> jobs = new ConcurrentHashMap<>();
+    // Guarded by itself
+    private final Deque<String> finished = new ArrayDeque<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * @param concurrency Jobs run at the same time.
+     * @param queueSize Jobs waiting to run.
+     * @param maxLetters Longest ciphertext admitted, in letters.
+     * @param cataloguePath Scrambler catalogue of the Bombe jobs, built if missing.
+     */
+    public JobService(int concurrency, int queueSize, int maxLetters, Path cataloguePath) throws IOException {
+        this.maxLetters = maxLetters;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> new Thread(runnable, "crack-job"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.unmonitor = SearchMetrics.monitorExecutor("jobs", executor);
+        this.managers = new ArrayBlockingQueue<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            managers.add(new EnigmaManager());
+        }
+        this.catalogue = ScramblerCatalogue.openOrBuild(cataloguePath);
+        // Load the scoring tables now rather than in the first job
+        Score.getQuadgramFitness();
+    }
+
+    /**
+     * Validates and queues a job.
+     *
+     * @return The queued job.
+     * @throws IllegalArgumentException if the request is invalid.
+     * @throws RejectedJobException if the queue is full.
+     */
+    public CrackJob submit(CrackJob.Request request) {
+        if (request == null || request.type() == null || request.ciphertext() == null) {
+            throw new IllegalArgumentException("A job needs a type and a ciphertext");
+        }
+        String ciphertext = request.ciphertext().toUpperCase(Locale.ROOT).trim().replaceAll("\\s+", " ");
+        if (!CIPHERTEXT.matcher(ciphertext).matches()) {
+            throw new IllegalArgumentException("The ciphertext should only have letters and spaces");
+        }
+        if (ciphertext.replace(" ", "").length() > maxLetters) {
+            throw new IllegalArgumentException("The ciphertext is longer than " + maxLetters + " letters");
+        }
+        CrackJob job;
+        try {
+            job = new CrackJob(String.valueOf(nextId.getAndIncrement()), request, ciphertext);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown job type " + request.type());
+        }
+        validate(job);
+
+        jobs.put(job.getId(), job);
+        try {
+            job.setFuture(executor.submit(() -> run(job)));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new RejectedJobException("Too many jobs waiting, retry later");
+        }
+        System.out.println("Job " + job.getId() + " queued: " + job.getType());
+        return job;
+    }
+
+    public Optional<CrackJob> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Cancels a job, see {@link CrackJob#cancel()}.
+     *
+     * @return {@code false} if the job had already finished.
+     */
+    public boolean cancel(CrackJob job) {
+        if (!job.cancel()) {
+            return false;
+        }
+        if (job.getState().isFinal()) {
+            // Cancelled while queued, so it never runs: free its place in the bounded queue for the next submission
+            executor.purge();
+            retire(job);
+        }
+        System.out.println("Job " + job.getId() + " cancelled");
+        return true;
+    }
+
+    /**
+     * @return Every job kept, oldest first.
+     */
+    public List<CrackJob> list() {
+        List<CrackJob> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparingLong(job -> Long.parseLong(job.getId())));
+        return list;
+    }
+
+    /**
+     * @return Jobs waiting to run.
+     */
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops the running jobs and the managers.
+     */
+    public void shutdown() {
+        jobs.values().forEach(CrackJob::cancel);
+        executor.shutdownNow();
+        unmonitor.run();
+        try {
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        managers.forEach(EnigmaManager::shutdown);
+        try {
+            catalogue.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the scrambler catalogue: " + e.getMessage());
+        }
+    }
+
+    private static void validate(CrackJob job) {
+        CrackJob.Request request = job.getRequest();
+        if (request.timeoutSeconds() != null && request.timeoutSeconds() <= 0) {
+            throw new IllegalArgumentException("The timeout should be positive");
+        }
+        if (request.maxEvaluations() != null && request.maxEvaluations() <= 0) {
+            throw new IllegalArgumentException("The evaluation limit should be positive");
+        }
+        switch (job.getType()) {
+            case CIPHERTEXT -> {
+                if (request.plugboardSize() != null && (request.plugboardSize() < 0 || request.plugboardSize() > 13)) {
+                    throw new IllegalArgumentException("The plugboard size should be between 0 and 13");
+                }
+            }
+            case BOMBE -> cribs(job);
+            case DECRYPT -> key(request);
+        }
+    }
+
+    private static List<Bombe.Crib> cribs(CrackJob job) {
+        List<String> words = job.getRequest().cribs();
+        if (words == null || words.isEmpty() || words.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("A Bombe job needs at least one crib");
+        }
+        List<Bombe.Crib> cribs = new ArrayList<>();
+        for (String word : words) {
+            try {
+                cribs.add(Bombe.Crib.find(job.getCiphertext(), word.toUpperCase(Locale.ROOT)));
+            } catch (NoSuchElementException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        return cribs;
+    }
+
+    /**
+     * Builds the key of a decrypt job, checking it first, as the machines only assert it.
+     */
+    private static EnigmaConfig key(CrackJob.Request request) {
+        int[] rotorTypes = request.rotorTypes();
+        if (rotorTypes == null || request.rotorPositions() == null) {
+            throw new IllegalArgumentException("A decrypt job needs the rotor types and positions");
+        }
+        if (rotorTypes.length != 3 || Arrays.stream(rotorTypes).anyMatch(type -> type < 1 || type > 5)
+                || Arrays.stream(rotorTypes).distinct().count() != 3) {
+            throw new IllegalArgumentException("The rotor types should be three different rotors from 1 to 5");
+        }
+        String rotorPositions = request.rotorPositions().toUpperCase(Locale.ROOT);
+        if (!ROTOR_LETTERS.matcher(rotorPositions).matches()) {
+            throw new IllegalArgumentException("The rotor positions should be three letters from A to Z");
+        }
+        String ringSettings = request.ringSettings() == null ? "AAA" : request.ringSettings().toUpperCase(Locale.ROOT);
+        if (!ROTOR_LETTERS.matcher(ringSettings).matches()) {
+            throw new IllegalArgumentException("The ring settings should be three letters from A to Z");
+        }
+        String plugboard = request.plugboard() == null ? "" : request.plugboard().toUpperCase(Locale.ROOT);
+        if (!plugboard.isEmpty() && (!PLUGBOARD.matcher(plugboard).matches()
+                || plugboard.replace(":", "").chars().distinct().count() != plugboard.replace(":", "").length())) {
+            throw new IllegalArgumentException("The plugboard should be pairs of different letters, like AB:CD");
+        }
+        return new EnigmaConfig(rotorTypes, rotorPositions.toCharArray(), ringSettings.toCharArray(), plugboard);
+    }
+
+    private void run(CrackJob job) {
+        if (!job.start()) {
+            return;
+        }
+        System.out.println("Job " + job.getId() + " started");
+        EnigmaManager manager = managers.poll();
+        try {
+            switch (job.getType()) {
+                case CIPHERTEXT -> crackCiphertext(job, manager);
+                case BOMBE -> crackBombe(job);
+                case DECRYPT -> {
+                    EnigmaConfig key = key(job.getRequest());
+                    job.succeed(key, new FastMachine(key).getCipheredText(job.getCiphertext()));
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // The engine asserts its invariants with AssertionError, which must fail the job all the same
+            System.err.println("Job " + job.getId() + " failed: " + e.getMessage());
+            job.fail(e.toString());
+        } finally {
+            managers.add(manager);
+            retire(job);
+        }
+        System.out.println("Job " + job.getId() + " " + job.getState());
+    }
+
+    private void crackCiphertext(CrackJob job, EnigmaManager manager) {
+        manager.setText(job.getCiphertext());
+        manager.setBudget(job.getBudget());
+        KeySearch search = new KeySearch(manager, null);
+        search.setListener(new KeySearch.Listener() {
+            @Override
+            public void progress(String stage, long done, long total) {
+                job.progress(stage, done, total);
+            }
+
+            @Override
+            public void top(List<EnigmaConfig> top) {
+                job.top(top);
+            }
+        });
+        Checkpoint checkpoint = new Checkpoint(Checkpoint.fingerprint("Job", job.getId()), job.getCiphertext(),
+                KeySearch.TOP_NUMBER);
+        Integer plugboardSize = job.getRequest().plugboardSize();
+        List<EnigmaConfig> keys;
+        try {
+            keys = search.run(checkpoint, plugboardSize == null ? DEFAULT_PLUGBOARD_SIZE : plugboardSize);
+        } finally {
+            manager.setBudget(SearchBudget.unlimited());
+        }
+        job.top(keys);
+        EnigmaConfig best = keys.isEmpty() ? null : keys.get(0);
+        job.succeed(best, best == null ? null : new FastMachine(best).getCipheredText(job.getCiphertext()));
+    }
+
+    /**
+     * Sweeps every rotor setting with the Bombe until a stop is confirmed or the budget of the job runs out.
+     */
+    private void crackBombe(CrackJob job) {
+        Bombe bombe = new Bombe(cribs(job));
+        char letter = bombe.letterConnections.entrySet().stream()
+                .max(Comparator.comparingInt(entry -> entry.getValue().size()))
+                .map(Map.Entry::getKey)
+                .orElseThrow();
+        List<EnigmaConfig> confirmed = new CopyOnWriteArrayList<>();
+        BombeStopVerifier verifier = new BombeStopVerifier(job.getCiphertext(), bombe.letterConnections, key -> {
+            confirmed.add(key);
+            List<EnigmaConfig> top = new ArrayList<>(confirmed);
+            top.sort(Comparator.comparingDouble(EnigmaConfig::getScore).reversed());
+            job.top(top);
+        });
+
+        SearchBudget budget = job.getBudget();
+        int units = ScramblerCatalogue.ORDERS * 26;
+        search:
+        for (int order = 0; order < ScramblerCatalogue.ORDERS; order++) {
+            int[] types = ScramblerCatalogue.orderTypes(order);
+            for (char l = 'A'; l <= 'Z'; l++) {
+                if (budget.isExhausted()) {
+                    break search;
+                }
+                for (char m = 'A'; m <= 'Z'; m++) {
+                    for (char r = 'A'; r <= 'Z'; r++) {
+                        char[] positions = {l, m, r};
+                        int[] states = bombe.statesAtSteps(types, positions);
+                        for (char map = 'A'; map <= 'Z'; map++) {
+                            EnigmaConfig stop = bombe.testStop(letter, map, types, positions, catalogue, states);
+                            if (stop != null) {
+                                verifier.submit(stop);
+                            }
+                        }
+                    }
+                }
+                budget.charge(26 * 26 * 26);
+                job.progress("bombe", order * 26L + (l - 'A') + 1, units);
+                if (!confirmed.isEmpty()) {
+                    break search;
+                }
+            }
+        }
+        // Keys confirmed so far, even if the budget ran out
+        List<EnigmaConfig> keys = verifier.awaitConfirmed();
+        job.top(keys);
+        EnigmaConfig best = keys.isEmpty() ? null : keys.get(0);
+        job.succeed(best, best == null ? null : new FastMachine(best).getCipheredText(job.getCiphertext()));
+    }
+
+    /**
+     * Forgets the oldest finished jobs beyond {@link #KEPT_JOBS}.
+     */
+    private void retire(CrackJob job) {
+        synchronized (finished) {
+            finished.add(job.getId());
+            while (finished.size() > KEPT_JOBS) {
+                jobs.remove(finished.poll());
+            }
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package es.usj.crypto.utils;
+
+import es.usj.crypto.EnigmaConfig;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Progress of a long-running key search, persisted so that the search can continue after a crash or a restart.
+ *
+ * A checkpoint holds:
+ * <ul>
+ *   <li>A fingerprint of the search (ciphertext and parameters), so a checkpoint is never resumed by another search.</li>
+ *   <li>The ciphertext, as the searches generate it randomly on a fresh start.</li>
+ *   <li>The completed work units of the sweep; what a unit is (a rotor order, a rotor order and left position...) is
+ *   up to each search.</li>
+ *   <li>The best configurations found so far, with their scores.</li>
+ *   <li>The phase and round of the search (for example the plugboard hill-climb round) and named counters.</li>
+ * </ul>
+ *
+ * Checkpoints are written to a temporary file next to the target, flushed to disk and moved into place, so a crash
+ * while saving leaves the previous checkpoint intact.
+ *
+ * File layout (big-endian, as written by {@link DataOutputStream}):
+ * <pre>
+ * int      magic "ENCP"
+ * int      format version (2; version 1 files, without ring settings, are still read)
+ * UTF      fingerprint
+ * int, ... ciphertext length and UTF-8 bytes
+ * int      phase
+ * int      round
+ * int      number of BitSet words of the completed units
+ * n x long completed units as BitSet words
+ * int, ... counters as (UTF name, long value)
+ * int      top-K capacity
+ * int, ... best configurations as (byte rotors, rotor types, rotor positions, ring settings, UTF plugboard,
+ *          double score)
+ * </pre>
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x454E4350; // "ENCP"
+    private static final int VERSION = 2;
+    // Last version without ring settings
+    private static final int VERSION_WITHOUT_RINGS = 1;
+    // Minimum time between two periodic saves
+    private static final long SAVE_INTERVAL_MILLIS = 30_000;
+
+    private final String fingerprint;
+    private final String cipherText;
+    private final int capacity;
+    private final BitSet completed;
+    private final Map<String, Long> counters;
+    // Min-heap of the best configurations, the worst on top so it can be replaced
+    private final PriorityQueue<EnigmaConfig> top;
+    private int phase;
+    private int round;
+    private long lastSave;
+
+    /**
+     * Starts an empty checkpoint.
+     *
+     * @param fingerprint Identifies the search, see {@link #fingerprint(Object...)}.
+     * @param cipherText The ciphertext being searched.
+     * @param capacity Number of best configurations to keep.
+     */
+    public Checkpoint(String fingerprint, String cipherText, int capacity) {
+        this.fingerprint = fingerprint;
+        this.cipherText = cipherText;
+        this.capacity = capacity;
+        this.completed = new BitSet();
+        this.counters = new TreeMap<>();
+        this.top = new PriorityQueue<>(Comparator.comparingDouble(EnigmaConfig::getScore));
+        this.lastSave = System.currentTimeMillis();
+    }
+
+    /**
+     * Hashes the ciphertext and the parameters of a search into a fingerprint.
+     *
+     * @param parts Search name, parameters and ciphertext.
+     * @return Hexadecimal SHA-256 of the parts.
+     */
+    public static String fingerprint(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @param path Location of the checkpoint.
+     * @return The checkpoint.
+     * @throws IOException if the file cannot be read or has an unexpected layout.
+     */
+    public static Checkpoint load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_RINGS) {
+                throw new IOException("Checkpoint " + path + " has an unknown format");
+            }
+            String fingerprint = in.readUTF();
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            int phase = in.readInt();
+            int round = in.readInt();
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            Map<String, Long> counters = new TreeMap<>();
+            int counterCount = in.readInt();
+            for (int i = 0; i < counterCount; i++) {
+                counters.put(in.readUTF(), in.readLong());
+            }
+            int capacity = in.readInt();
+
+            Checkpoint checkpoint = new Checkpoint(fingerprint, new String(text, StandardCharsets.UTF_8), capacity);
+            checkpoint.phase = phase;
+            checkpoint.round = round;
+            checkpoint.completed.or(BitSet.valueOf(words));
+            checkpoint.counters.putAll(counters);
+            int topCount = in.readInt();
+            for (int i = 0; i < topCount; i++) {
+                int rotors = in.readByte();
+                int[] rotorTypes = new int[rotors];
+                char[] rotorPositions = new char[rotors];
+                char[] ringSettings = new char[rotors];
+                for (int r = 0; r < rotors; r++) {
+                    rotorTypes[r] = in.readByte();
+                }
+                for (int r = 0; r < rotors; r++) {
+                    rotorPositions[r] = in.readChar();
+                }
+                for (int r = 0; r < rotors; r++) {
+                    ringSettings[r] = version == VERSION_WITHOUT_RINGS ? 'A' : in.readChar();
+                }
+                EnigmaConfig config = new EnigmaConfig(rotorTypes, rotorPositions, ringSettings, in.readUTF());
+                config.setScore(in.readDouble());
+                checkpoint.top.add(config);
+            }
+            return checkpoint;
+        } catch (EOFException e) {
+            throw new IOException("Checkpoint " + path + " is truncated", e);
+        }
+    }
+
+    /**
+     * Loads the checkpoint of a search to resume it.
+     *
+     * @param path Location of the checkpoint.
+     * @param expectedFingerprint Computes the fingerprint the search would have for the stored ciphertext.
+     * @return The checkpoint, or empty if there is none, it cannot be read, or it belongs to another search.
+     */
+    public static Optional<Checkpoint> resume(Path path, Function<String, String> expectedFingerprint) {
+        if (!Files.exists(path)) {
+            System.out.println("No checkpoint at " + path + ", starting a new search.");
+            return Optional.empty();
+        }
+        try {
+            Checkpoint checkpoint = load(path);
+            if (!checkpoint.fingerprint.equals(expectedFingerprint.apply(checkpoint.cipherText))) {
+                System.err.println("Checkpoint " + path + " belongs to a different search, starting a new search.");
+                return Optional.empty();
+            }
+            System.out.println("Resuming from " + path + ": " + checkpoint);
+            return Optional.of(checkpoint);
+        } catch (IOException e) {
+            System.err.println("Error reading checkpoint: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the checkpoint atomically.
+     *
+     * @param path Location of the checkpoint.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void save(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            byte[] text = cipherText.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+            out.writeInt(phase);
+            out.writeInt(round);
+            long[] words = completed.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.writeInt(counters.size());
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                out.writeUTF(counter.getKey());
+                out.writeLong(counter.getValue());
+            }
+            out.writeInt(capacity);
+            out.writeInt(top.size());
+            for (EnigmaConfig config : top) {
+                int[] rotorTypes = config.getRotorTypes();
+                char[] rotorPositions = config.getRotorPositions();
+                out.writeByte(rotorTypes.length);
+                for (int type : rotorTypes) {
+                    out.writeByte(type);
+                }
+                for (char position : rotorPositions) {
+                    out.writeChar(position);
+                }
+                for (char ringSetting : config.getRingSettings()) {
+                    out.writeChar(ringSetting);
+                }
+                out.writeUTF(config.getPlugboard());
+                out.writeDouble(config.getScore());
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSave = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes the checkpoint if the last save is older than the save interval. Errors are reported and the search
+     * goes on, as losing a checkpoint only costs time.
+     *
+     * @param path Location of the checkpoint.
+     */
+    public synchronized void saveIfDue(Path path) {
+        if (System.currentTimeMillis() - lastSave < SAVE_INTERVAL_MILLIS) {
+            return;
+        }
+        try {
+            save(path);
+        } catch (IOException e) {
+            System.err.println("Error writing checkpoint: " + e.getMessage());
+            lastSave = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized boolean isCompleted(int unit) {
+        return completed.get(unit);
+    }
+
+    public synchronized void markCompleted(int unit) {
+        completed.set(unit);
+    }
+
+    public synchronized int completedCount() {
+        return completed.cardinality();
+    }
+
+    /**
+     * Keeps a configuration if it is among the best {@code capacity} seen. The configuration is copied.
+     */
+    public synchronized void offer(EnigmaConfig config) {
+        if (top.size() < capacity) {
+            top.add(new EnigmaConfig(config));
+        } else if (config.getScore() > top.peek().getScore()) {
+            top.poll();
+            top.add(new EnigmaConfig(config));
+        }
+    }
+
+    /**
+     * @return The score a configuration must beat to be kept, or negative infinity while the top is not full.
+     */
+    public synchronized double threshold() {
+        return top.size() < capacity ? Double.NEGATIVE_INFINITY : top.peek().getScore();
+    }
+
+    /**
+     * @return Copies of the best configurations, best first.
+     */
+    public synchronized List<EnigmaConfig> top() {
+        List<EnigmaConfig> best = new ArrayList<>();
+        for (EnigmaConfig config : top) {
+            best.add(new EnigmaConfig(config));
+        }
+        best.sort(Comparator.comparingDouble(EnigmaConfig::getScore).reversed());
+        return best;
+    }
+
+    /**
+     * Replaces the best configurations, for phases that work on a whole population such as a hill-climb round.
+     */
+    public synchronized void setTop(List<EnigmaConfig> configs) {
+        top.clear();
+        configs.forEach(this::offer);
+    }
+
+    public synchronized long getCounter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    public synchronized void addCounter(String name, long delta) {
+        counters.merge(name, delta, Long::sum);
+    }
+
+    public synchronized int getPhase() {
+        return phase;
+    }
+
+    public synchronized int getRound() {
+        return round;
+    }
+
+    /**
+     * Moves the search to a phase and round. Units completed in the previous phase are forgotten.
+     */
+    public synchronized void setPhase(int phase, int round) {
+        if (phase != this.phase) {
+            completed.clear();
+        }
+        this.phase = phase;
+        this.round = round;
+    }
+
+    public String getCipherText() {
+        return cipherText;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Checkpoint{phase=" + phase + ", round=" + round + ", completedUnits=" + completed.cardinality()
+                + ", top=" + top.size() + ", counters=" + counters + "}";
+    }
+}
@@ -0,0 +1,90 @@
+package es.usj.crypto.utils;
+
+import es.usj.crypto.Fitness.Score;
+
+/**
+ * When a search stage may stop before it has scored all its candidates, because one of them already stands out as the
+ * key: the best score of a unit of work lies more than {@code zScore} standard deviations above the mean of the best
+ * scores of the other units (see {@link ScoreStatistics}), or its decryption has at least {@code wordRatio} of its
+ * words in the dictionary. A stage that ranked its units on a sample first also compares the sampled best of the unit
+ * it ranked first with those of the others, known up front, so it can stop right after that unit.
+ *
+ * The test compares the bests of the units rather than every score, as the scores of the wrong keys have a long tail:
+ * the best of every rotor order lies some 20 deviations above the mean of all scores, but the best of the right order
+ * stands well clear of the bests of the others. As the right key is anywhere in the keyspace, a stage that stops at it
+ * scores half of its candidates on average. A threshold of 0 or less disables its test; both are disabled by default,
+ * as a stopped stage never looks at the candidates after the stop.
+ */
+public final class EarlyStop {
+
+    // Other units a stage needs to have scored before an outlier can stop it, so the statistics are stable
+    public static final long MIN_UNITS = 10;
+
+    private final double zScore;
+    private final double wordRatio;
+
+    private EarlyStop(double zScore, double wordRatio) {
+        this.zScore = zScore;
+        this.wordRatio = wordRatio;
+    }
+
+    public static EarlyStop none() {
+        return new EarlyStop(0, 0);
+    }
+
+    /**
+     * @param zScore Standard deviations above the mean that stop a stage, or 0 or less to ignore the scores.
+     * @param wordRatio Share of dictionary words that stops a stage, or 0 or less to ignore the decryptions.
+     */
+    public static EarlyStop of(double zScore, double wordRatio) {
+        return new EarlyStop(zScore, wordRatio);
+    }
+
+    /**
+     * Reads the thresholds from {@code --stop-z=<deviations>} and {@code --stop-words=<ratio>} program arguments.
+     */
+    public static EarlyStop fromArgs(String[] args) {
+        double zScore = 0;
+        double wordRatio = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--stop-z=")) {
+                zScore = Double.parseDouble(arg.substring("--stop-z=".length()));
+            } else if (arg.startsWith("--stop-words=")) {
+                wordRatio = Double.parseDouble(arg.substring("--stop-words=".length()));
+            }
+        }
+        return of(zScore, wordRatio);
+    }
+
+    public boolean isEnabled() {
+        return zScore > 0 || wordRatio > 0;
+    }
+
+    /**
+     * @return {@code true} if decryptions are checked against the dictionary, which costs a decryption per check.
+     */
+    public boolean checksWords() {
+        return wordRatio > 0;
+    }
+
+    /**
+     * @param bests Best scores of the units, the tested one included, and at least {@link #MIN_UNITS} others.
+     * @return {@code true} if the best score of a unit is an outlier of the others.
+     */
+    public boolean isOutlier(ScoreStatistics bests, double best) {
+        return zScore > 0 && bests.count() > MIN_UNITS && bests.zScoreExcluding(best) >= zScore;
+    }
+
+    /**
+     * @param plaintext A decryption, words separated by spaces.
+     * @return {@code true} if enough of its words are in the dictionary.
+     */
+    public boolean isEnglish(String plaintext) {
+        return wordRatio > 0 && Score.getEnglishWordChecker().score(plaintext) >= wordRatio;
+    }
+
+    @Override
+    public String toString() {
+        return "z >= " + (zScore > 0 ? zScore : "off") + ", words >= " + (wordRatio > 0 ? wordRatio : "off");
+    }
+}
@@ -3,6 +3,10 @@ package es.usj.crypto.utils;
 import es.usj.crypto.EnigmaConfig;
 import es.usj.crypto.Fitness.Score;
 import es.usj.crypto.enigma.EnigmaApp;
+import es.usj.crypto.enigma.LaneMachine;
+import es.usj.crypto.enigma.MappedFileCipher;
+import es.usj.crypto.enigma.PositionSweep;
+import es.usj.crypto.enigma.ScramblerCatalogue;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -10,17 +14,31 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class EnigmaManager {
     private final ExecutorService executor;
-    private static String text;
+    // Removes the meters of the executor
+    private final Runnable unmonitor;
+    private String text;
     private ProgressBar progressBar;
+    // Configurations scored by this manager, by any of the scoring methods
+    private final AtomicLong configurationsScored = new AtomicLong();
+    // Checked by every scoring task before it starts
+    private volatile SearchBudget budget = SearchBudget.unlimited();
     private static final int MAX_QUEUE_SIZE = 100000; // Prevent unbounded queue growth
+    private static final int LANE_BATCHES_PER_TASK = 256; // Lane batches scored by each task
+    // Lane machines keep scratch buffers, so each worker thread gets its own
+    private static final ThreadLocal<LaneMachine> laneMachine = ThreadLocal.withInitial(LaneMachine::create);
+    // Names the executors in the metrics
+    private static final AtomicInteger managers = new AtomicInteger();
 
     public EnigmaManager(Path path) {
         this();
         try {
-            EnigmaManager.text = Files.readString(path);
+            this.text = Files.readString(path);
         } catch (IOException e) {
             System.err.println("Error reading configurations: " + e.getMessage());
         }
@@ -28,16 +46,56 @@ public class EnigmaManager {
 
     public EnigmaManager() {
         // Use a more sophisticated thread pool configuration
-        this.executor = new ThreadPoolExecutor(
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
                 8, // Core pool size
                 8, // Maximum pool size
                 60L, TimeUnit.SECONDS, // Keep-alive time for idle threads
                 new LinkedBlockingQueue<>(MAX_QUEUE_SIZE), // Bounded queue to prevent resource exhaustion
                 new ThreadPoolExecutor.CallerRunsPolicy() // Backpressure policy
         );
+        this.unmonitor = SearchMetrics.monitorExecutor("manager-" + managers.incrementAndGet(), pool);
+        this.executor = pool;
         this.progressBar = new ProgressBar(0);
     }
 
+    /**
+     * @return The number of configurations scored so far by {@link #scoreConfigurations(List, boolean)},
+     * {@link #scoreConfigurationsInLanes(List, boolean)} and {@link #scoreRotorPositions(int[])}.
+     */
+    public long getConfigurationsScored() {
+        return configurationsScored.get();
+    }
+
+    /**
+     * @return The threads of this manager, for searches that run their own tasks next to its scoring methods.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public SearchBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the budget of the scoring methods: once it runs out, the tasks that have not started yet skip their
+     * configurations, which keep their previous score, and every scored configuration is charged to it.
+     */
+    public void setBudget(SearchBudget budget) {
+        this.budget = budget;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Replaces the text the configurations are run on, e.g. with the ciphertext stored in a checkpoint.
+     */
+    public void setText(String text) {
+        this.text = text;
+    }
+
     public void cipherInitialText(EnigmaConfig config) {
         try {
             // Cipher the text using the provided configuration
@@ -51,15 +109,7 @@ public class EnigmaManager {
 
     public EnigmaConfig cipherInitialText(int plugboardSize) {
         try {
-            // Generate a random plugboard configuration
-            String plugboard = generatePlugboard(plugboardSize);
-
-            // Generate random rotor types and positions
-            int[] rotorTypes = generateRandomRotorTypes();
-            char[] rotorPositions = generateRandomRotorPositions();
-
-            // Create a new EnigmaConfig with the generated values
-            EnigmaConfig config = new EnigmaConfig(rotorTypes, rotorPositions, plugboard);
+            EnigmaConfig config = randomKey(plugboardSize, new Random());
 
             // Cipher the text using the generated configuration
             text = process(config);
@@ -74,6 +124,29 @@ public class EnigmaManager {
     }
 
     static String generatePlugboard(int size) {
+        return generatePlugboard(size, new Random());
+    }
+
+    /**
+     * Draws a random key: three different rotor types, random positions and a plugboard of the given size, with every
+     * ring at 'A'. The same random generator state always gives the same key.
+     *
+     * @param plugboardSize Number of plugs.
+     * @param random Source of randomness, seeded for reproducible keys.
+     * @return The key.
+     */
+    public static EnigmaConfig randomKey(int plugboardSize, Random random) {
+        List<Integer> types = new ArrayList<>(List.of(1, 2, 3, 4, 5));
+        Collections.shuffle(types, random);
+        int[] rotorTypes = {types.get(0), types.get(1), types.get(2)};
+        char[] rotorPositions = new char[3];
+        for (int i = 0; i < rotorPositions.length; i++) {
+            rotorPositions[i] = (char) ('A' + random.nextInt(26));
+        }
+        return new EnigmaConfig(rotorTypes, rotorPositions, generatePlugboard(plugboardSize, random));
+    }
+
+    static String generatePlugboard(int size, Random random) {
         if (size == 0) {
             return "";
         }
@@ -82,54 +155,28 @@ public class EnigmaManager {
         for (char c : alphabet.toCharArray()) {
             chars.add(c);
         }
-        Collections.shuffle(chars);
+        Collections.shuffle(chars, random);
         StringBuilder plugboard = new StringBuilder();
         for (int i = 0; i < size * 2; i += 2) {
             plugboard.append(chars.get(i)).append(chars.get(i + 1)).append(':');
         }
         return plugboard.substring(0, plugboard.length() - 1);
     }
-
-    private int[] generateRandomRotorTypes() {
-        Random random = new Random();
-        Set<Integer> rotorTypesSet = new HashSet<>();
-        while (rotorTypesSet.size() < 3) {
-            rotorTypesSet.add(random.nextInt(5) + 1);
-        }
-        return rotorTypesSet.stream().mapToInt(Integer::intValue).toArray();
-    }
-
-    private char[] generateRandomRotorPositions() {
-        // Generate random rotor positions between 'A' and 'Z'
-        Random random = new Random();
-        return random.ints(3, 'A', 'Z' + 1).mapToObj(c -> (char) c).collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).toString().toCharArray();
-    }
     public void scoreConfigurations(List<EnigmaConfig> configs, boolean verbose) {
-        progressBar.reset(configs.size());
+        SearchEvents.ScoringBatch event = new SearchEvents.ScoringBatch();
+        event.begin();
+        progressBar.reset("machine", configs.size());
+        SearchBudget budget = this.budget;
         if (verbose) {
             System.out.println("Starting processing of " + configs.size() + " configurations:");
         }
 
-        int totalConfigs = configs.size();
-        int progressInterval = Math.max(1, totalConfigs / 100); // Update progress every 0.1%
-        AtomicInteger progressCounter = new AtomicInteger(0);
-
         try {
-            List<CompletableFuture<Void>> futures = new ArrayList<>(totalConfigs);
+            List<CompletableFuture<Void>> futures = new ArrayList<>(configs.size());
 
             for (EnigmaConfig config : configs) {
-                CompletableFuture<Void> future = processFuture(config)
-                        .thenRun(() -> {
-                            int progress = progressCounter.incrementAndGet();
-                            if (progress % progressInterval == 0 || progress == totalConfigs) {
-                                // Atomic update of progress bar
-                                synchronized (progressBar) {
-                                    progressBar.add(Math.min(progressInterval, totalConfigs - progress));
-                                    progressBar.showProgressBar();
-                                    System.out.flush();
-                                }
-                            }
-                        })
+                CompletableFuture<Void> future = processFuture(config, budget)
+                        .thenRun(() -> progressBar.add(1))
                         .exceptionally(ex -> {
                             System.err.println("Error processing configuration: " + ex.getMessage());
                             return null;
@@ -140,9 +187,71 @@ public class EnigmaManager {
 
             // Wait for all futures to complete
             CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            progressBar.finish();
 
-            // Add last update to progress bar
-            progressBar.add(configs.size() - progressBar.get());
+            if (verbose) {
+                System.out.println("\nProcessing completed.");
+            }
+        } catch (Exception e) {
+            System.err.println("Error during configuration processing: " + e.getMessage());
+        }
+        commit(event, "machine", configs.size(), (long) configs.size() * text.length());
+    }
+
+    /**
+     * Scores configurations with the quadgram statistic only, deciphering a whole batch of configurations per pass
+     * with a {@link LaneMachine}. Meant for the rotor sweeps, where every configuration runs over the same text.
+     */
+    public void scoreConfigurationsInLanes(List<EnigmaConfig> configs, boolean verbose) {
+        SearchEvents.ScoringBatch event = new SearchEvents.ScoringBatch();
+        event.begin();
+        progressBar.reset("lanes", configs.size());
+        SearchBudget budget = this.budget;
+        if (verbose) {
+            System.out.println("Starting lane processing of " + configs.size() + " configurations:");
+        }
+
+        LaneMachine.Text compiled = LaneMachine.Text.compile(text);
+        int taskSize = laneMachine.get().lanes() * LANE_BATCHES_PER_TASK;
+
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int from = 0; from < configs.size(); from += taskSize) {
+                int start = from;
+                int end = Math.min(from + taskSize, configs.size());
+                futures.add(CompletableFuture.runAsync(() -> {
+                    if (budget.isExhausted()) {
+                        progressBar.add(end - start);
+                        return;
+                    }
+                    long startTime = System.nanoTime();
+                    LaneMachine machine = laneMachine.get();
+                    int lanes = machine.lanes();
+                    EnigmaConfig[] batch = new EnigmaConfig[lanes];
+                    double[] scores = new double[lanes];
+                    for (int i = start; i < end; i += lanes) {
+                        int count = Math.min(lanes, end - i);
+                        for (int lane = 0; lane < count; lane++) {
+                            batch[lane] = configs.get(i + lane);
+                        }
+                        machine.score(batch, count, compiled, scores);
+                        for (int lane = 0; lane < count; lane++) {
+                            batch[lane].setScore(scores[lane]);
+                        }
+                    }
+                    SearchMetrics.candidatesScored("lanes", end - start,
+                            (long) (end - start) * compiled.letters().length, System.nanoTime() - startTime);
+                    configurationsScored.addAndGet(end - start);
+                    budget.charge(end - start);
+                    progressBar.add(end - start);
+                }, executor).exceptionally(ex -> {
+                    System.err.println("Error processing configurations: " + ex.getMessage());
+                    return null;
+                }));
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            progressBar.finish();
 
             if (verbose) {
                 System.out.println("\nProcessing completed.");
@@ -150,21 +259,142 @@ public class EnigmaManager {
         } catch (Exception e) {
             System.err.println("Error during configuration processing: " + e.getMessage());
         }
+        commit(event, "lanes", configs.size(), (long) configs.size() * compiled.letters().length);
+    }
+
+    /**
+     * Scores every start position of a rotor order without plugboard, with the same score as
+     * {@link #scoreConfigurationsInLanes(List, boolean)}. The 26 left positions of each middle and right pair share
+     * their stepping and most of their decryption, see {@link PositionSweep}.
+     *
+     * @param rotorTypes Rotor types, left to right.
+     * @return The scores, indexed by {@link ScramblerCatalogue#stateIndex(char, char, char)}; positions skipped because
+     * the budget ran out score 0.
+     */
+    public double[] scoreRotorPositions(int[] rotorTypes) {
+        return scoreRotorPositions(rotorTypes, Integer.MAX_VALUE, PositionSweep.Statistic.QUADGRAMS);
+    }
+
+    /**
+     * Scores every start position of a rotor order without plugboard with another statistic, such as the Index of
+     * Coincidence, which still ranks the positions under an unknown plugboard.
+     */
+    public double[] scoreRotorPositions(int[] rotorTypes, PositionSweep.Statistic statistic) {
+        return scoreRotorPositions(rotorTypes, Integer.MAX_VALUE, statistic);
+    }
+
+    /**
+     * Scores every start position of a rotor order on the first letters of the text only, to rank the rotor orders for
+     * a fraction of the cost of a full sweep, as the work is proportional to the letters. The scores are the mean
+     * quadgram scores, see {@link PositionSweep.Statistic#MEAN_QUADGRAMS}, as the normalized ones clip on short texts.
+     *
+     * @param letters Letters of the text deciphered; the spaces between them are kept.
+     */
+    public double[] sampleRotorPositions(int[] rotorTypes, int letters) {
+        return scoreRotorPositions(rotorTypes, letters, PositionSweep.Statistic.MEAN_QUADGRAMS);
+    }
+
+    private double[] scoreRotorPositions(int[] rotorTypes, int letters, PositionSweep.Statistic statistic) {
+        SearchEvents.ScoringBatch event = new SearchEvents.ScoringBatch();
+        event.begin();
+        String method = switch (statistic) {
+            case QUADGRAMS -> "positions";
+            case MEAN_QUADGRAMS -> "samples";
+            case INDEX_OF_COINCIDENCE -> "coincidences";
+        };
+        progressBar.reset(method, ScramblerCatalogue.STATES);
+        SearchBudget budget = this.budget;
+        LaneMachine.Text compiled = LaneMachine.Text.compile(prefix(text, letters));
+        double[] scores = new double[ScramblerCatalogue.STATES];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        // One task per right position, so each task builds the right rotor's part of the tables once
+        for (char right = 'A'; right <= 'Z'; right++) {
+            char r = right;
+            futures.add(CompletableFuture.runAsync(() -> {
+                if (budget.isExhausted()) {
+                    progressBar.add(26 * 26);
+                    return;
+                }
+                long startTime = System.nanoTime();
+                PositionSweep sweep = new PositionSweep(rotorTypes, compiled);
+                sweep.setStatistic(statistic);
+                sweep.scoreRight(r, scores);
+                SearchMetrics.candidatesScored(method, 26 * 26, 26L * 26 * compiled.letters().length,
+                        System.nanoTime() - startTime);
+                configurationsScored.addAndGet(26 * 26);
+                budget.charge(26 * 26);
+                progressBar.add(26 * 26);
+            }, executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        progressBar.finish();
+        commit(event, method, ScramblerCatalogue.STATES, (long) ScramblerCatalogue.STATES * compiled.letters().length);
+        return scores;
+    }
+
+    private static String prefix(String text, int letters) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isLetter(text.charAt(i)) && --letters < 0) {
+                return text.substring(0, i);
+            }
+        }
+        return text;
+    }
+
+    private static void commit(SearchEvents.ScoringBatch event, String method, long candidates, long letters) {
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.candidates = candidates;
+            event.letters = letters;
+            event.commit();
+        }
+    }
+
+    /**
+     * Ciphers a file with a known key without loading it into memory, splitting it into chunks that are ciphered in
+     * parallel on this manager's threads. See {@link MappedFileCipher}.
+     *
+     * @return The number of bytes written.
+     */
+    public long cipherFile(EnigmaConfig config, Path input, Path output) throws IOException {
+        return new MappedFileCipher(config, executor).cipher(input, output);
+    }
+
+    /**
+     * Decrypts messages sharing the rotor order and plugboard of a key sheet on this manager's threads, without
+     * touching the shared text. See {@link KeySheetDecryptor}.
+     */
+    public void decryptMessages(KeySheetDecryptor.KeySheet keySheet, Stream<KeySheetDecryptor.Message> messages,
+                                boolean ordered, Consumer<KeySheetDecryptor.Decrypted> consumer) {
+        new KeySheetDecryptor(keySheet, executor).decrypt(messages, ordered, consumer);
     }
 
     public String process(EnigmaConfig config) {
         try {
-            return processFuture(config).get();
+            return processFuture(config, null).get();
         } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private CompletableFuture<String> processFuture(EnigmaConfig config) {
+    /**
+     * @param budget Budget the configuration is charged to, or {@code null}; the configuration is skipped, with a
+     *               {@code null} result, if it has run out.
+     */
+    private CompletableFuture<String> processFuture(EnigmaConfig config, SearchBudget budget) {
         return CompletableFuture.supplyAsync(() -> {
+            if (budget != null && budget.isExhausted()) {
+                return null;
+            }
             try {
-                String result = new EnigmaRunner(config).call();
+                long startTime = System.nanoTime();
+                String result = new EnigmaRunner(config, text).call();
                 config.setScore(Score.evaluate(result));
+                SearchMetrics.candidatesScored("machine", 1, result.length(), System.nanoTime() - startTime);
+                if (budget != null) {
+                    configurationsScored.incrementAndGet();
+                    budget.charge(1);
+                }
                 return result;
             } catch (Exception e) {
                 throw new CompletionException(e);
@@ -173,6 +403,17 @@ public class EnigmaManager {
     }
 
     public void shutdown() {
+        String summary = progressBar.summary();
+        if (!summary.isEmpty()) {
+            System.out.print("Configurations scored by stage:\n" + summary);
+        }
+        // The executor is not reported once shut down, so a service creating managers does not pile up their meters
+        unmonitor.run();
+        if (budget.isExhausted()) {
+            // Whatever is still queued was skipped anyway
+            executor.shutdownNow();
+            return;
+        }
         try {
             executor.shutdown();
             if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -184,7 +425,7 @@ public class EnigmaManager {
         }
     }
 
-    private record EnigmaRunner(EnigmaConfig config) implements Callable<String> {
+    private record EnigmaRunner(EnigmaConfig config, String text) implements Callable<String> {
 
         @Override
         public String call() {
@@ -196,7 +437,8 @@ public class EnigmaManager {
                     "--middle-rotor=" + config.getRotorTypes()[1],
                     "--middle-rotor-position=" + config.getRotorPositions()[1],
                     "--right-rotor=" + config.getRotorTypes()[2],
-                    "--right-rotor-position=" + config.getRotorPositions()[2]
+                    "--right-rotor-position=" + config.getRotorPositions()[2],
+                    "--ring-settings=" + new String(config.getRingSettings())
             };
 
             try {
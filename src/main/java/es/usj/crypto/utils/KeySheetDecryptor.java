@@ -0,0 +1,262 @@
+package es.usj.crypto.utils;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.enigma.FastMachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decrypts the traffic of a day whose key sheet is known: every message shares the rotor order, the ring settings and
+ * the plugboard and only differs in its start positions.
+ *
+ * The key sheet is compiled into a single {@link FastMachine}, and each worker thread keeps its own copy that is only
+ * turned to the start positions of the next message. Messages are decrypted in parallel on the given executor while
+ * at most {@code window} of them are in flight, so endless streams run in constant memory. Results are handed to the
+ * consumer either in the order of the messages or as soon as each one is decrypted; the consumer is never called
+ * concurrently.
+ */
+public class KeySheetDecryptor {
+
+    // Messages in flight per worker thread
+    private static final int MESSAGES_PER_THREAD = 16;
+
+    private final FastMachine wiring;
+    private final ExecutorService executor;
+    private final int window;
+    private final ThreadLocal<FastMachine> machine;
+
+    public KeySheetDecryptor(KeySheet keySheet, ExecutorService executor) {
+        this(keySheet, executor, Runtime.getRuntime().availableProcessors() * MESSAGES_PER_THREAD);
+    }
+
+    public KeySheetDecryptor(KeySheet keySheet, ExecutorService executor, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window should be positive: " + window);
+        }
+        this.wiring = new FastMachine(new EnigmaConfig(keySheet.rotorTypes(), new char[]{'A', 'A', 'A'},
+                keySheet.ringSettings(), keySheet.plugboard()));
+        this.executor = executor;
+        this.window = window;
+        this.machine = ThreadLocal.withInitial(() -> new FastMachine(wiring));
+    }
+
+    /**
+     * Decrypts a stream of messages.
+     *
+     * @param messages The messages, read lazily.
+     * @param ordered {@code true} to receive the results in the order of the messages, {@code false} to receive them
+     *                as they finish.
+     * @param consumer Receives one result per message.
+     */
+    public void decrypt(Stream<Message> messages, boolean ordered, Consumer<Decrypted> consumer) {
+        if (ordered) {
+            decryptInOrder(messages.iterator(), consumer);
+        } else {
+            decryptAsCompleted(messages.iterator(), consumer);
+        }
+    }
+
+    /**
+     * Decrypts one message on the calling thread.
+     */
+    public Decrypted decrypt(Message message) {
+        FastMachine fastMachine = machine.get();
+        fastMachine.setRotorPositions(message.rotorPositions());
+        return new Decrypted(message.id(), fastMachine.getCipheredText(message.cipherText()));
+    }
+
+    private void decryptInOrder(Iterator<Message> messages, Consumer<Decrypted> consumer) {
+        Deque<CompletableFuture<Decrypted>> pending = new ArrayDeque<>(window);
+        while (messages.hasNext()) {
+            if (pending.size() == window) {
+                consumer.accept(pending.removeFirst().join());
+            }
+            Message message = messages.next();
+            pending.addLast(CompletableFuture.supplyAsync(() -> decrypt(message), executor));
+        }
+        while (!pending.isEmpty()) {
+            consumer.accept(pending.removeFirst().join());
+        }
+    }
+
+    private void decryptAsCompleted(Iterator<Message> messages, Consumer<Decrypted> consumer) {
+        Semaphore inFlight = new Semaphore(window);
+        Object lock = new Object();
+        CompletableFuture<Void> failure = new CompletableFuture<>();
+        while (messages.hasNext() && !failure.isDone()) {
+            Message message = messages.next();
+            inFlight.acquireUninterruptibly();
+            CompletableFuture.supplyAsync(() -> decrypt(message), executor)
+                    .whenComplete((decrypted, ex) -> {
+                        try {
+                            if (ex != null) {
+                                failure.completeExceptionally(ex);
+                            } else {
+                                synchronized (lock) {
+                                    consumer.accept(decrypted);
+                                }
+                            }
+                        } catch (RuntimeException e) {
+                            failure.completeExceptionally(e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+        }
+        // Wait for the messages still in flight
+        inFlight.acquireUninterruptibly(window);
+        inFlight.release(window);
+        failure.complete(null);
+        failure.join();
+    }
+
+    /**
+     * Reads a message file. The first line holds the start positions (the window letters, left to right) and the
+     * rest of the file is the ciphertext. The message is identified by its file name.
+     *
+     * @param path The message file.
+     * @return The message.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Message readMessage(Path path) throws IOException {
+        String content = Files.readString(path);
+        int newline = content.indexOf('\n');
+        String indicator = (newline == -1 ? content : content.substring(0, newline)).trim();
+        String cipherText = newline == -1 ? "" : content.substring(newline + 1);
+        return new Message(path.getFileName().toString(), indicator.toUpperCase().toCharArray(), cipherText);
+    }
+
+    /**
+     * Lists the message files of a directory, sorted by name, and reads each one when the stream reaches it.
+     *
+     * @param directory Directory holding one message per regular file.
+     * @return The messages.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public static Stream<Message> readDirectory(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        return files.stream().map(path -> {
+            try {
+                return readMessage(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * The part of the daily key shared by every message.
+     *
+     * @param rotorTypes Rotor types, left to right.
+     * @param ringSettings Ring settings, left to right, 'A' to 'Z'.
+     * @param plugboard Plugboard pairs separated by ':', or an empty string.
+     */
+    public record KeySheet(int[] rotorTypes, char[] ringSettings, String plugboard) {
+
+        public KeySheet {
+            if (ringSettings.length != 3) {
+                throw new IllegalArgumentException("A key sheet should have 3 ring settings: " + new String(ringSettings));
+            }
+            for (char ringSetting : ringSettings) {
+                if (ringSetting < 'A' || ringSetting > 'Z') {
+                    throw new IllegalArgumentException("Invalid ring settings: " + new String(ringSettings));
+                }
+            }
+        }
+
+        /**
+         * A key sheet with every ring at 'A'.
+         */
+        public KeySheet(int[] rotorTypes, String plugboard) {
+            this(rotorTypes, new char[]{'A', 'A', 'A'}, plugboard);
+        }
+
+        @Override
+        public String toString() {
+            return "KeySheet{rotorTypes=" + Arrays.toString(rotorTypes) + ", ringSettings="
+                    + Arrays.toString(ringSettings) + ", plugboard='" + plugboard + "'}";
+        }
+    }
+
+    /**
+     * A message and the start positions chosen by its operator.
+     *
+     * @param id Identifier of the message, echoed in its result.
+     * @param rotorPositions Window letters, left to right.
+     * @param cipherText The ciphertext.
+     */
+    public record Message(String id, char[] rotorPositions, String cipherText) {
+
+        public Message {
+            if (rotorPositions.length != 3) {
+                throw new IllegalArgumentException("Message " + id + " should have 3 start positions: " + new String(rotorPositions));
+            }
+            for (char position : rotorPositions) {
+                if (position < 'A' || position > 'Z') {
+                    throw new IllegalArgumentException("Message " + id + " has an invalid start position: " + new String(rotorPositions));
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Message{id=" + id + ", rotorPositions=" + Arrays.toString(rotorPositions) + "}";
+        }
+    }
+
+    /**
+     * A decrypted message.
+     *
+     * @param id Identifier of the message.
+     * @param plainText The decrypted text.
+     */
+    public record Decrypted(String id, String plainText) {
+    }
+
+    /**
+     * Decrypts a directory of messages and prints them.
+     *
+     * @param args directory, rotor types (e.g. 1,2,3), optional plugboard (e.g. AB:CD), optional --rings=<letters>
+     *             (e.g. --rings=BUL, 'A' for every ring by default) and optional --unordered
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: KeySheetDecryptor <directory> <rotor types> [plugboard] [--rings=ABC] [--unordered]");
+            return;
+        }
+        String[] types = args[1].split(",");
+        String rings = Arrays.stream(args).filter(arg -> arg.startsWith("--rings="))
+                .map(arg -> arg.substring("--rings=".length()).toUpperCase())
+                .findFirst().orElse("AAA");
+        KeySheet keySheet = new KeySheet(
+                new int[]{Integer.parseInt(types[0]), Integer.parseInt(types[1]), Integer.parseInt(types[2])},
+                rings.toCharArray(), args.length > 2 && !args[2].startsWith("--") ? args[2].toUpperCase() : "");
+        boolean ordered = !Arrays.asList(args).contains("--unordered");
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            new KeySheetDecryptor(keySheet, executor).decrypt(readDirectory(Paths.get(args[0])), ordered,
+                    decrypted -> System.out.println(decrypted.id() + ": " + decrypted.plainText()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package es.usj.crypto.utils;
+
+import java.util.Arrays;
+
+/**
+ * Running statistics of the scores of a search stage: count, mean and variance (Welford's update) and a few quantiles
+ * estimated with the P² algorithm of Jain and Chlamtac, which keeps five markers per quantile instead of the scores.
+ *
+ * The memory is constant, so a stage can feed it every score it computes. It is not thread-safe: the searching thread
+ * feeds it once the scores of a chunk are in.
+ */
+public final class ScoreStatistics {
+
+    // Quantiles estimated, reported by toString
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private long count;
+    private double mean;
+    // Sum of the squared differences from the mean
+    private double m2;
+    private double max = Double.NEGATIVE_INFINITY;
+    private final Quantile[] quantiles = new Quantile[QUANTILES.length];
+
+    public ScoreStatistics() {
+        for (int i = 0; i < QUANTILES.length; i++) {
+            quantiles[i] = new Quantile(QUANTILES[i]);
+        }
+    }
+
+    public void add(double score) {
+        count++;
+        double delta = score - mean;
+        mean += delta / count;
+        m2 += delta * (score - mean);
+        max = Math.max(max, score);
+        for (Quantile quantile : quantiles) {
+            quantile.add(score);
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double mean() {
+        return mean;
+    }
+
+    public double standardDeviation() {
+        return count < 2 ? 0 : Math.sqrt(m2 / (count - 1));
+    }
+
+    public double max() {
+        return max;
+    }
+
+    /**
+     * @return Standard deviations the score lies above the mean, 0 while there are too few scores to tell.
+     */
+    public double zScore(double score) {
+        double deviation = standardDeviation();
+        return deviation == 0 ? 0 : (score - mean) / deviation;
+    }
+
+    /**
+     * @param score A score already added.
+     * @return Standard deviations the score lies above the mean of the other scores, 0 while there are too few.
+     */
+    public double zScoreExcluding(double score) {
+        if (count < 3) {
+            return 0;
+        }
+        // Welford's update run backwards
+        long others = count - 1;
+        double othersMean = (count * mean - score) / others;
+        double othersM2 = m2 - (score - othersMean) * (score - mean);
+        double deviation = Math.sqrt(Math.max(othersM2, 0) / (others - 1));
+        return deviation == 0 ? 0 : (score - othersMean) / deviation;
+    }
+
+    /**
+     * @param q One of 0.5, 0.99 or 0.999.
+     * @return Estimate of the quantile, NaN before the first score.
+     */
+    public double quantile(double q) {
+        for (int i = 0; i < QUANTILES.length; i++) {
+            if (QUANTILES[i] == q) {
+                return quantiles[i].estimate();
+            }
+        }
+        throw new IllegalArgumentException("Quantile " + q + " is not estimated");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format("n=%d mean=%.5f sd=%.5f", count, mean, standardDeviation()));
+        for (int i = 0; i < QUANTILES.length; i++) {
+            text.append(String.format(" p%s=%.5f", String.valueOf(QUANTILES[i] * 100).replaceAll("\\.?0+$", ""),
+                    quantiles[i].estimate()));
+        }
+        return text.append(String.format(" max=%.5f", max)).toString();
+    }
+
+    /**
+     * P² estimator of one quantile: five markers whose heights approximate the minimum, the quantile halfway below,
+     * the quantile, the quantile halfway above and the maximum, moved by a parabolic fit as the scores arrive.
+     */
+    private static final class Quantile {
+
+        private final double[] heights = new double[5];
+        private final double[] positions = {1, 2, 3, 4, 5};
+        private final double[] desired;
+        private final double[] increments;
+        private int seen;
+
+        Quantile(double p) {
+            this.desired = new double[]{1, 1 + 2 * p, 1 + 4 * p, 3 + 2 * p, 5};
+            this.increments = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+        }
+
+        void add(double x) {
+            if (seen < 5) {
+                heights[seen++] = x;
+                if (seen == 5) {
+                    Arrays.sort(heights);
+                }
+                return;
+            }
+            seen++;
+            int cell;
+            if (x < heights[0]) {
+                heights[0] = x;
+                cell = 0;
+            } else if (x >= heights[4]) {
+                heights[4] = x;
+                cell = 3;
+            } else {
+                cell = 0;
+                while (x >= heights[cell + 1]) {
+                    cell++;
+                }
+            }
+            for (int i = cell + 1; i < 5; i++) {
+                positions[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                desired[i] += increments[i];
+            }
+            for (int i = 1; i <= 3; i++) {
+                double offset = desired[i] - positions[i];
+                if ((offset >= 1 && positions[i + 1] - positions[i] > 1)
+                        || (offset <= -1 && positions[i - 1] - positions[i] < -1)) {
+                    int step = offset > 0 ? 1 : -1;
+                    double height = parabolic(i, step);
+                    if (heights[i - 1] < height && height < heights[i + 1]) {
+                        heights[i] = height;
+                    } else {
+                        heights[i] += step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+                    }
+                    positions[i] += step;
+                }
+            }
+        }
+
+        private double parabolic(int i, int step) {
+            return heights[i] + step / (positions[i + 1] - positions[i - 1])
+                    * ((positions[i] - positions[i - 1] + step) * (heights[i + 1] - heights[i])
+                    / (positions[i + 1] - positions[i])
+                    + (positions[i + 1] - positions[i] - step) * (heights[i] - heights[i - 1])
+                    / (positions[i] - positions[i - 1]));
+        }
+
+        double estimate() {
+            if (seen == 0) {
+                return Double.NaN;
+            }
+            if (seen < 5) {
+                // Too few scores for the markers: read the quantile off the sorted scores
+                double[] sorted = Arrays.copyOf(heights, seen);
+                Arrays.sort(sorted);
+                return sorted[(int) Math.round((desired[2] - 1) / 4 * (seen - 1))];
+            }
+            return heights[2];
+        }
+    }
+}
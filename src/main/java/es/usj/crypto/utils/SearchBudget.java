@@ -0,0 +1,148 @@
+package es.usj.crypto.utils;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compute budget of a search: a deadline, a maximum number of evaluated keys and a cancellation token, whichever runs
+ * out first.
+ *
+ * Searches check {@link #isExhausted()} between chunks of work (a scoring task, a rotor order, a plugboard round, a
+ * Bombe unit) and, once it is, stop starting new chunks and return the best keys found so far. The check is a volatile
+ * read, a clock read and a sum of the evaluation counter, so it is cheap next to any chunk. Once exhausted, a budget
+ * stays exhausted and {@link #reason()} tells why.
+ */
+public final class SearchBudget {
+
+    public enum Reason {
+        CANCELLED, DEADLINE, EVALUATIONS
+    }
+
+    private final long deadline;
+    private final long maxEvaluations;
+    private final LongAdder evaluations = new LongAdder();
+    private volatile Reason reason;
+    private Thread shutdownHook;
+
+    private SearchBudget(long deadline, long maxEvaluations) {
+        this.deadline = deadline;
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    /**
+     * @return A budget that only runs out when cancelled.
+     */
+    public static SearchBudget unlimited() {
+        return new SearchBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param timeout Time from now until the deadline, or {@code null} for none.
+     * @param maxEvaluations Keys that may be evaluated, or 0 or less for no limit.
+     */
+    public static SearchBudget of(Duration timeout, long maxEvaluations) {
+        long deadline = timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos();
+        return new SearchBudget(deadline, maxEvaluations > 0 ? maxEvaluations : Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the budget from {@code --timeout=<seconds>} and {@code --max-evaluations=<keys>} program arguments.
+     */
+    public static SearchBudget fromArgs(String[] args) {
+        Duration timeout = null;
+        long maxEvaluations = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--timeout=")) {
+                timeout = Duration.ofMillis((long) (Double.parseDouble(arg.substring("--timeout=".length())) * 1000));
+            } else if (arg.startsWith("--max-evaluations=")) {
+                maxEvaluations = Long.parseLong(arg.substring("--max-evaluations=".length()));
+            }
+        }
+        return of(timeout, maxEvaluations);
+    }
+
+    /**
+     * Cancels the budget when the JVM is asked to stop, for example with Ctrl-C, and gives the searching thread a few
+     * seconds to wind down and report the best keys found so far before the JVM exits. The hook is registered once per
+     * budget and stays registered until {@link #release()}.
+     *
+     * @return This budget.
+     */
+    public synchronized SearchBudget cancelOnShutdown() {
+        if (shutdownHook == null) {
+            Thread searcher = Thread.currentThread();
+            shutdownHook = new Thread(() -> {
+                if (searcher.isAlive()) {
+                    cancel();
+                    try {
+                        searcher.join(10_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "search-budget-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        return this;
+    }
+
+    /**
+     * Removes the shutdown hook of {@link #cancelOnShutdown()} once the search is over, so that the hook and the thread
+     * it holds are not kept until the JVM exits.
+     */
+    public synchronized void release() {
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already stopping and runs the hook
+            }
+            shutdownHook = null;
+        }
+    }
+
+    /**
+     * Stops the search at its next chunk boundary.
+     */
+    public void cancel() {
+        if (reason == null) {
+            reason = Reason.CANCELLED;
+        }
+    }
+
+    /**
+     * Counts evaluated keys against the budget.
+     */
+    public void charge(long keys) {
+        evaluations.add(keys);
+    }
+
+    public long evaluations() {
+        return evaluations.sum();
+    }
+
+    public boolean isExhausted() {
+        if (reason != null) {
+            return true;
+        }
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+            reason = Reason.DEADLINE;
+        } else if (maxEvaluations != Long.MAX_VALUE && evaluations.sum() >= maxEvaluations) {
+            reason = Reason.EVALUATIONS;
+        }
+        return reason != null;
+    }
+
+    /**
+     * @return Why the budget ran out, or {@code null} if it has not.
+     */
+    public Reason reason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return (reason == null ? "running" : "stopped by " + reason.name().toLowerCase()) + " after "
+                + evaluations() + " evaluations";
+    }
+}
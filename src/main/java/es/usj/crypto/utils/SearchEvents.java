@@ -0,0 +1,163 @@
+package es.usj.crypto.utils;
+
+import jdk.jfr.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Java Flight Recorder events of the key searches, to attribute the time of a run to its phases without an external
+ * profiler.
+ *
+ * Events are only emitted around whole phases and batches, never inside the scoring loops, and cost next to nothing
+ * when no recording is running. {@link #recordIfRequested(String[], String)} starts a recording with the JDK's
+ * low-overhead "default" settings plus these events when a program is started with {@code --profile}; the recording is
+ * written to a {@code .jfr} file by {@link #stopRecording()} and opens in JDK Mission Control or with
+ * {@code jfr print --events es.usj.crypto.* <file>}.
+ */
+public final class SearchEvents {
+
+    private static final String CATEGORY = "Enigma";
+    private static Recording recording;
+
+    private SearchEvents() {
+    }
+
+    @Name("es.usj.crypto.ResourceLoad")
+    @Label("Resource Load")
+    @Category({CATEGORY, "Resources"})
+    @Description("Loading of a scoring table")
+    public static class ResourceLoad extends Event {
+        @Label("Resource")
+        public String resource;
+    }
+
+    @Name("es.usj.crypto.KeyspaceEnumeration")
+    @Label("Keyspace Enumeration")
+    @Category({CATEGORY, "Search"})
+    @Description("Enumeration and scoring of one unit of the keyspace, such as a rotor order")
+    public static class KeyspaceEnumeration extends Event {
+        @Label("Search")
+        public String search;
+        @Label("Unit")
+        public String unit;
+        @Label("Candidates")
+        public long candidates;
+    }
+
+    @Name("es.usj.crypto.ScoringBatch")
+    @Label("Scoring Batch")
+    @Category({CATEGORY, "Scoring"})
+    @Description("One call scoring a batch of configurations")
+    public static class ScoringBatch extends Event {
+        @Label("Method")
+        public String method;
+        @Label("Candidates")
+        public long candidates;
+        @Label("Letters")
+        public long letters;
+    }
+
+    @Name("es.usj.crypto.PlugboardRound")
+    @Label("Plugboard Round")
+    @Category({CATEGORY, "Search"})
+    @Description("One round of the plugboard search, adding one plug to every surviving key")
+    public static class PlugboardRound extends Event {
+        @Label("Round")
+        public int round;
+        @Label("Candidates")
+        public long candidates;
+        @Label("Survivors")
+        public long survivors;
+        @Label("Best Score")
+        public double bestScore;
+    }
+
+    @Name("es.usj.crypto.BombeStop")
+    @Label("Bombe Stop")
+    @Category({CATEGORY, "Bombe"})
+    @Description("Verification of a Bombe stop")
+    public static class BombeStop extends Event {
+        @Label("Key")
+        public String key;
+        @Label("Confirmed")
+        public boolean confirmed;
+        @Label("Score")
+        public double score;
+    }
+
+    /**
+     * Loads a resource inside a {@link ResourceLoad} event.
+     *
+     * @param resource Name of the resource.
+     * @param loader Loads it.
+     * @return The loaded resource.
+     */
+    public static <T> T load(String resource, Supplier<T> loader) {
+        ResourceLoad event = new ResourceLoad();
+        event.begin();
+        T loaded = loader.get();
+        event.resource = resource;
+        event.commit();
+        return loaded;
+    }
+
+    /**
+     * Starts a recording if the arguments contain {@code --profile} or {@code --profile=<file>}.
+     *
+     * @param args Program arguments.
+     * @param program Name of the program, for the default file {@code data/<program>.jfr}.
+     */
+    public static synchronized void recordIfRequested(String[] args, String program) {
+        for (String arg : args) {
+            if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                Path path = Paths.get(arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : "data/" + program + ".jfr");
+                try {
+                    startRecording(path);
+                } catch (IOException | ParseException e) {
+                    System.err.println("Error starting the flight recording: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a recording with the JDK's "default" settings (about 1% overhead) and the events of this class.
+     *
+     * @param path The file the recording is written to when it stops.
+     */
+    public static synchronized void startRecording(Path path) throws IOException, ParseException {
+        if (recording != null) {
+            return;
+        }
+        recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("enigma");
+        recording.setToDisk(true);
+        recording.setDestination(path);
+        List<Class<? extends Event>> events = List.of(ResourceLoad.class, KeyspaceEnumeration.class,
+                ScoringBatch.class, PlugboardRound.class, BombeStop.class);
+        for (Class<? extends Event> event : events) {
+            recording.enable(event);
+        }
+        recording.start();
+        System.out.println("Flight recording to " + path);
+    }
+
+    /**
+     * Stops the recording, if any, and writes it to its file.
+     */
+    public static synchronized void stopRecording() {
+        if (recording == null) {
+            return;
+        }
+        Path destination = recording.getDestination();
+        recording.stop();
+        recording.close();
+        recording = null;
+        System.out.println("Flight recording written to " + destination);
+    }
+}
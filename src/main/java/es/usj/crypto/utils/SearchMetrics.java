@@ -0,0 +1,204 @@
+package es.usj.crypto.utils;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters of the key searches, to tell from a dashboard whether a run is CPU-bound, queue-bound or stuck.
+ *
+ * Meters are registered on Micrometer's global registry, which the actuator's registry joins when the code runs in a
+ * Spring context; outside one, {@link #serve(int)} adds a Prometheus registry and serves it over HTTP. Without either,
+ * every meter is a no-op. Hot loops never touch a meter: the scoring methods report once per task or batch.
+ * <ul>
+ *   <li>{@value #CHARACTERS} and {@value #CANDIDATES} (by scoring method): counters, for characters encrypted and
+ *   candidates scored per second.</li>
+ *   <li>{@value #LATENCY} (by scoring method): histogram of the time per candidate. Batched methods record the average
+ *   of each batch.</li>
+ *   <li>{@value #ENTERED} and {@value #SURVIVED} (by stage): candidates entering and leaving each stage of a search.</li>
+ *   <li>{@value #QUEUE}, {@value #ACTIVE}: tasks waiting in and threads busy on each executor.</li>
+ *   <li>{@value #THRESHOLD}: score a key must beat to enter a top-K, NaN until it is full.</li>
+ * </ul>
+ */
+public final class SearchMetrics {
+
+    public static final String CHARACTERS = "enigma.characters.encrypted";
+    public static final String CANDIDATES = "enigma.candidates.scored";
+    public static final String LATENCY = "enigma.candidate.latency";
+    public static final String ENTERED = "enigma.stage.entered";
+    public static final String SURVIVED = "enigma.stage.survived";
+    public static final String QUEUE = "enigma.executor.queued";
+    public static final String ACTIVE = "enigma.executor.active";
+    public static final String THRESHOLD = "enigma.topk.threshold";
+
+    private static final MeterRegistry REGISTRY = Metrics.globalRegistry;
+    private static final Counter CHARACTERS_COUNTER = Counter.builder(CHARACTERS)
+            .description("Characters sent through the machines")
+            .register(REGISTRY);
+    private static final Map<String, Counter> CANDIDATE_COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> LATENCY_TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> ENTERED_COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> SURVIVED_COUNTERS = new ConcurrentHashMap<>();
+
+    private static HttpServer server;
+
+    private SearchMetrics() {
+    }
+
+    /**
+     * Records a batch of scored candidates.
+     *
+     * @param method Scoring method, e.g. "machine", "lanes" or "positions".
+     * @param candidates Number of candidates in the batch.
+     * @param characters Characters encrypted for the whole batch.
+     * @param nanos Time spent on the batch.
+     */
+    public static void candidatesScored(String method, long candidates, long characters, long nanos) {
+        if (candidates <= 0) {
+            return;
+        }
+        CANDIDATE_COUNTERS.computeIfAbsent(method, m -> Counter.builder(CANDIDATES)
+                .description("Candidate keys scored")
+                .tag("method", m)
+                .register(REGISTRY)).increment(candidates);
+        CHARACTERS_COUNTER.increment(characters);
+        LATENCY_TIMERS.computeIfAbsent(method, m -> Timer.builder(LATENCY)
+                .description("Time to score one candidate key")
+                .tag("method", m)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(REGISTRY)).record(nanos / candidates, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param stage Stage of a search, e.g. "rotors", "rings" or "plugboard".
+     * @param candidates Candidates entering the stage.
+     */
+    public static void stageEntered(String stage, long candidates) {
+        ENTERED_COUNTERS.computeIfAbsent(stage, s -> Counter.builder(ENTERED)
+                .description("Candidates entering a search stage")
+                .tag("stage", s)
+                .register(REGISTRY)).increment(candidates);
+    }
+
+    /**
+     * @param stage Stage of a search, e.g. "rotors", "rings" or "plugboard".
+     * @param candidates Candidates kept by the stage.
+     */
+    public static void stageSurvived(String stage, long candidates) {
+        SURVIVED_COUNTERS.computeIfAbsent(stage, s -> Counter.builder(SURVIVED)
+                .description("Candidates kept by a search stage")
+                .tag("stage", s)
+                .register(REGISTRY)).increment(candidates);
+    }
+
+    /**
+     * Reports the queue depth and busy threads of an executor until the returned action removes its meters.
+     *
+     * @param name Name of the executor, unique among the executors monitored at the same time.
+     * @return Removes the meters of the executor, to run once it is shut down.
+     */
+    public static Runnable monitorExecutor(String name, ThreadPoolExecutor executor) {
+        List<Meter> meters = List.of(
+                Gauge.builder(QUEUE, executor, pool -> pool.getQueue().size())
+                        .description("Tasks waiting for a thread")
+                        .tag("executor", name)
+                        .register(REGISTRY),
+                Gauge.builder(ACTIVE, executor, ThreadPoolExecutor::getActiveCount)
+                        .description("Threads running a task")
+                        .tag("executor", name)
+                        .register(REGISTRY));
+        return () -> meters.forEach(REGISTRY::remove);
+    }
+
+    /**
+     * Reports the admission threshold of a top-K for as long as it is reachable.
+     *
+     * @param name Name of the top-K, unique per process.
+     * @param threshold The threshold, negative infinity while the top-K is not full.
+     */
+    public static <T> void monitorThreshold(String name, T topK, ToDoubleFunction<T> threshold) {
+        Gauge.builder(THRESHOLD, topK, owner -> {
+                    double value = threshold.applyAsDouble(owner);
+                    return Double.isInfinite(value) ? Double.NaN : value;
+                })
+                .description("Score a key must beat to enter the top-K")
+                .tag("top", name)
+                .register(REGISTRY);
+    }
+
+    /**
+     * Serves the meters in the Prometheus text format on {@code /metrics} and {@code /actuator/prometheus}, the path
+     * of the actuator endpoint, so the same scrape configuration works with and without a Spring context.
+     *
+     * @param port TCP port, 0 for any free port.
+     * @return The port the meters are served on.
+     * @throws IOException if the port cannot be opened.
+     */
+    public static synchronized int serve(int port) throws IOException {
+        if (server != null) {
+            return server.getAddress().getPort();
+        }
+        PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(prometheus);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        for (String path : new String[]{"/metrics", "/actuator/prometheus"}) {
+            server.createContext(path, exchange -> {
+                byte[] body = prometheus.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+        }
+        server.start();
+        int served = server.getAddress().getPort();
+        System.out.println("Metrics served on http://localhost:" + served + "/metrics");
+        return served;
+    }
+
+    /**
+     * Serves the meters if the arguments contain {@code --metrics-port=<port>}.
+     */
+    public static void serveIfRequested(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--metrics-port=")) {
+                try {
+                    serve(Integer.parseInt(arg.substring("--metrics-port=".length())));
+                } catch (IOException e) {
+                    System.err.println("Error serving metrics: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops serving the meters. The HTTP server thread would otherwise keep the JVM running.
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package es.usj.crypto.utils;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A slice of the rotor keyspace swept by {@code Main}, so that a sweep can be split over machines that do not talk to
+ * each other.
+ *
+ * The keyspace is numbered in the order {@code Main} enumerates it: rotor orders in nested-loop order, then the
+ * window letters left, middle, right, so key {@code i} is rotor order {@code i / 17,576} with position triple
+ * {@code i % 17,576} (see {@link ScramblerCatalogue#orderIndex(int, int, int)} and
+ * {@link ScramblerCatalogue#stateIndex(char, char, char)}). Shard {@code k} of {@code n} (counting from 1) covers the
+ * contiguous range {@code [(k - 1) * size / n, k * size / n)}, so the shards of a spec are disjoint and cover every key
+ * exactly once, whatever {@code n} is.
+ *
+ * @param index Shard number, from 1 to {@code count}.
+ * @param count Number of shards.
+ */
+public record Shard(int index, int count) {
+
+    // Number of keys swept by Main: rotor orders times position triples
+    public static final long KEYSPACE = (long) ScramblerCatalogue.ORDERS * ScramblerCatalogue.STATES;
+
+    private static final Pattern SPEC = Pattern.compile("\\s*(?:shard\\s+)?(\\d+)\\s*(?:/|of)\\s*(\\d+)\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    public Shard {
+        if (count < 1 || count > KEYSPACE) {
+            throw new IllegalArgumentException("Shard count should be between 1 and " + KEYSPACE + ": " + count);
+        }
+        if (index < 1 || index > count) {
+            throw new IllegalArgumentException("Shard number should be between 1 and " + count + ": " + index);
+        }
+    }
+
+    /**
+     * Parses a shard spec such as {@code "3/16"}, {@code "3 of 16"} or {@code "shard 3 of 16"}.
+     *
+     * @param spec The shard spec.
+     * @return The shard.
+     */
+    public static Shard parse(String spec) {
+        Matcher matcher = SPEC.matcher(spec);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid shard spec, expected e.g. 3/16: " + spec);
+        }
+        return new Shard(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    /**
+     * The whole keyspace as a single shard.
+     */
+    public static Shard all() {
+        return new Shard(1, 1);
+    }
+
+    /**
+     * @return The first key of the shard.
+     */
+    public long start() {
+        return (index - 1) * KEYSPACE / count;
+    }
+
+    /**
+     * @return One past the last key of the shard.
+     */
+    public long end() {
+        return index * KEYSPACE / count;
+    }
+
+    public boolean contains(long key) {
+        return key >= start() && key < end();
+    }
+
+    /**
+     * Returns the configuration of a key, without plugboard.
+     *
+     * @param key Key number, from 0 to {@link #KEYSPACE} - 1.
+     * @return The configuration.
+     */
+    public static EnigmaConfig configOf(long key) {
+        int state = (int) (key % ScramblerCatalogue.STATES);
+        return new EnigmaConfig(ScramblerCatalogue.orderTypes((int) (key / ScramblerCatalogue.STATES)), new char[]{
+                (char) ('A' + state / (26 * 26)), (char) ('A' + state / 26 % 26), (char) ('A' + state % 26)}, "");
+    }
+
+    /**
+     * Returns the key number of a configuration.
+     *
+     * @param config A configuration; the plugboard is ignored.
+     * @return The key number.
+     */
+    public static long keyOf(EnigmaConfig config) {
+        return (long) ScramblerCatalogue.orderIndex(config.getRotorTypes()) * ScramblerCatalogue.STATES
+                + ScramblerCatalogue.stateIndex(config.getRotorPositions());
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
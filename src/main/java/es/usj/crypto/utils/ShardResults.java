@@ -0,0 +1,233 @@
+package es.usj.crypto.utils;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.enigma.ScramblerCatalogue;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Best keys found by one or more shards of a rotor sweep (see {@link Shard}).
+ *
+ * Each shard writes its own results file; {@link #merge(List)} combines any number of them, including already merged
+ * files, into the global top-K and tells which shards are still missing so only those need to run again.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * int      magic "ENSR"
+ * int      format version (1)
+ * UTF      fingerprint of the search (ciphertext and parameters)
+ * long     keyspace size
+ * int      shard count
+ * int      number of BitSet words of the covered shards
+ * n x long covered shards as BitSet words (bit k - 1 for shard k)
+ * int      top-K capacity
+ * int      number of keys
+ * n x 11   keys: byte rotor order index, short position triple index, double score
+ * </pre>
+ * Files are written to a temporary file and moved into place, so a killed shard never leaves a partial results file.
+ *
+ * @param fingerprint Identifies the search; files of different searches cannot be merged.
+ * @param shardCount Number of shards the keyspace was split into.
+ * @param shards Shards covered by these results.
+ * @param capacity Number of keys kept.
+ * @param top The best keys, best first, without plugboard.
+ */
+public record ShardResults(String fingerprint, int shardCount, BitSet shards, int capacity, List<EnigmaConfig> top) {
+
+    private static final int MAGIC = 0x454E5352; // "ENSR"
+    private static final int VERSION = 1;
+
+    /**
+     * Fingerprint of the results of a rotor sweep. The sweep scores every key without plugboard, whatever the search
+     * does after it, so the results of {@code Main --shard} and of the cluster coordinator share it and merge.
+     *
+     * @param cipherText The ciphertext swept.
+     */
+    public static String fingerprint(String cipherText) {
+        return Checkpoint.fingerprint("RotorSweep", Shard.KEYSPACE, cipherText);
+    }
+
+    /**
+     * Results of a single shard.
+     */
+    public static ShardResults of(String fingerprint, Shard shard, int capacity, List<EnigmaConfig> top) {
+        BitSet shards = new BitSet(shard.count());
+        shards.set(shard.index() - 1);
+        return new ShardResults(fingerprint, shard.count(), shards, capacity, best(top, capacity));
+    }
+
+    /**
+     * Results of a shard whose sweep ended before every key of it was scored, for example by an {@link EarlyStop}.
+     * They cover no shard, so a merge keeps their keys but still lists the shard as missing.
+     */
+    public static ShardResults partial(String fingerprint, Shard shard, int capacity, List<EnigmaConfig> top) {
+        return new ShardResults(fingerprint, shard.count(), new BitSet(shard.count()), capacity, best(top, capacity));
+    }
+
+    private static List<EnigmaConfig> best(List<EnigmaConfig> top, int capacity) {
+        return top.stream()
+                .sorted(Comparator.comparingDouble(EnigmaConfig::getScore).reversed())
+                .limit(capacity)
+                .toList();
+    }
+
+    /**
+     * Writes the results atomically.
+     *
+     * @param path Location of the results file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeLong(Shard.KEYSPACE);
+            out.writeInt(shardCount);
+            long[] words = shards.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.writeInt(capacity);
+            out.writeInt(top.size());
+            for (EnigmaConfig config : top) {
+                out.writeByte(ScramblerCatalogue.orderIndex(config.getRotorTypes()));
+                out.writeShort(ScramblerCatalogue.stateIndex(config.getRotorPositions()));
+                out.writeDouble(config.getScore());
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a results file.
+     *
+     * @param path Location of the results file.
+     * @return The results.
+     * @throws IOException if the file cannot be read or has an unexpected layout.
+     */
+    public static ShardResults read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Results file " + path + " has an unknown format");
+            }
+            String fingerprint = in.readUTF();
+            if (in.readLong() != Shard.KEYSPACE) {
+                throw new IOException("Results file " + path + " was written for another keyspace");
+            }
+            int shardCount = in.readInt();
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            int capacity = in.readInt();
+            int size = in.readInt();
+            List<EnigmaConfig> top = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int order = in.readUnsignedByte();
+                int state = in.readUnsignedShort();
+                EnigmaConfig config = Shard.configOf((long) order * ScramblerCatalogue.STATES + state);
+                config.setScore(in.readDouble());
+                top.add(config);
+            }
+            return new ShardResults(fingerprint, shardCount, BitSet.valueOf(words), capacity, top);
+        } catch (EOFException e) {
+            throw new IOException("Results file " + path + " is truncated", e);
+        }
+    }
+
+    /**
+     * Combines results of the same search into the global top-K. A shard present in several inputs (for example
+     * after a re-run) is counted once, and a key found twice keeps its best score.
+     *
+     * @param results Results of the same search and shard count.
+     * @return The merged results.
+     */
+    public static ShardResults merge(List<ShardResults> results) {
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to merge");
+        }
+        ShardResults first = results.get(0);
+        BitSet shards = new BitSet(first.shardCount());
+        int capacity = 0;
+        Map<Long, EnigmaConfig> best = new HashMap<>();
+        for (ShardResults result : results) {
+            if (!result.fingerprint().equals(first.fingerprint())) {
+                throw new IllegalArgumentException("Results of different searches cannot be merged");
+            }
+            if (result.shardCount() != first.shardCount()) {
+                throw new IllegalArgumentException("Results split into " + result.shardCount() + " and "
+                        + first.shardCount() + " shards cannot be merged");
+            }
+            shards.or(result.shards());
+            capacity = Math.max(capacity, result.capacity());
+            for (EnigmaConfig config : result.top()) {
+                best.merge(Shard.keyOf(config), config,
+                        (kept, other) -> other.getScore() > kept.getScore() ? other : kept);
+            }
+        }
+        List<EnigmaConfig> top = best.values().stream()
+                .sorted(Comparator.comparingDouble(EnigmaConfig::getScore).reversed())
+                .limit(capacity)
+                .toList();
+        return new ShardResults(first.fingerprint(), first.shardCount(), shards, capacity, top);
+    }
+
+    /**
+     * @return The shard numbers (from 1) not covered yet.
+     */
+    public List<Integer> missingShards() {
+        List<Integer> missing = new ArrayList<>();
+        for (int shard = shards.nextClearBit(0); shard < shardCount; shard = shards.nextClearBit(shard + 1)) {
+            missing.add(shard + 1);
+        }
+        return missing;
+    }
+
+    public boolean isComplete() {
+        return shards.cardinality() == shardCount;
+    }
+
+    /**
+     * Merges results files.
+     *
+     * @param args output file followed by the results files to merge
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ShardResults <merged output> <results file>...");
+            return;
+        }
+        List<ShardResults> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            inputs.add(read(Paths.get(args[i])));
+        }
+        ShardResults merged = merge(inputs);
+        merged.write(Paths.get(args[0]));
+
+        System.out.println("Merged " + inputs.size() + " files covering " + merged.shards().cardinality() + "/"
+                + merged.shardCount() + " shards into " + args[0]);
+        if (!merged.isComplete()) {
+            System.out.println("Missing shards: " + merged.missingShards());
+        }
+        System.out.println("Top 10 Scores with Configurations:");
+        for (int i = 0; i < Math.min(10, merged.top().size()); i++) {
+            System.out.println(i + ": " + merged.top().get(i));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package es.usj.crypto.cluster;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.KeySearch;
+import es.usj.crypto.enigma.FastMachine;
+import es.usj.crypto.utils.Checkpoint;
+import es.usj.crypto.utils.EnigmaManager;
+import es.usj.crypto.utils.Shard;
+import es.usj.crypto.utils.ShardResults;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sweeps the whole keyspace with a coordinator and several workers on this machine, over loopback TCP.
+ */
+public class SweepCoordinatorTest {
+
+    private static final EnigmaConfig KEY = new EnigmaConfig(new int[]{2, 4, 1}, new char[]{'K', 'E', 'Y'}, "");
+    private static final int WORKERS = 3;
+    private static final int RANGES = 60;
+
+    @Test(timeout = 600_000)
+    public void workersSweepEveryRangeAndFindTheKey() throws Exception {
+        String cipherText = cipherText(120);
+        SweepCoordinator coordinator = new SweepCoordinator(cipherText, RANGES, 5_000, 100);
+        ExecutorService threads = Executors.newCachedThreadPool();
+        try {
+            Future<?> coordinatorRun = threads.submit(() -> {
+                coordinator.run(0);
+                return null;
+            });
+            while (coordinator.getLocalPort() < 0) {
+                Thread.sleep(10);
+            }
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < WORKERS; i++) {
+                workers.add(threads.submit(() -> {
+                    runWorker(coordinator.getLocalPort());
+                    return null;
+                }));
+            }
+            coordinatorRun.get();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        assertTrue(coordinator.isComplete());
+        ShardResults results = coordinator.results();
+        assertTrue(results.isComplete());
+        assertEquals(RANGES, results.shardCount());
+        assertTrue("The key should lead: " + results.top().get(0), results.top().get(0).equalsWithoutPlugboard(KEY));
+        List<EnigmaConfig> top = results.top();
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).getScore() >= top.get(i).getScore());
+        }
+    }
+
+    @Test(timeout = 600_000)
+    public void leaseOfAVanishedWorkerIsReassigned() throws Exception {
+        SweepCoordinator coordinator = new SweepCoordinator(cipherText(120), RANGES, 500, 100);
+        ExecutorService threads = Executors.newCachedThreadPool();
+        try {
+            Future<?> coordinatorRun = threads.submit(() -> {
+                coordinator.run(0);
+                return null;
+            });
+            while (coordinator.getLocalPort() < 0) {
+                Thread.sleep(10);
+            }
+            // Takes the first range and goes away without a word
+            try (Socket socket = new Socket("localhost", coordinator.getLocalPort());
+                 DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream in = new DataInputStream(socket.getInputStream())) {
+                out.writeByte(Protocol.HELLO);
+                out.writeInt(Protocol.VERSION);
+                out.writeByte(Protocol.REQUEST);
+                out.flush();
+                assertEquals(Protocol.WELCOME, in.readByte());
+                Protocol.readText(in);
+                in.readLong();
+                in.readDouble();
+                assertEquals(Protocol.LEASE, in.readByte());
+            }
+            runWorker(coordinator.getLocalPort());
+            coordinatorRun.get();
+        } finally {
+            threads.shutdownNow();
+        }
+        assertTrue(coordinator.results().isComplete());
+    }
+
+    @Test
+    public void coordinatorResultsMergeWithMainShards() throws IOException {
+        String cipherText = cipherText(120);
+        SweepCoordinator coordinator = new SweepCoordinator(cipherText, RANGES, 5_000, 100);
+
+        // What Main --shard=1/60 writes, on a sweep of the same ciphertext
+        Shard shard = new Shard(1, RANGES);
+        EnigmaManager manager = new EnigmaManager();
+        try {
+            manager.setText(cipherText);
+            Checkpoint checkpoint = new Checkpoint("shard", cipherText, 100);
+            new KeySearch(manager, null).sweepRotors(checkpoint, shard);
+            ShardResults standalone = ShardResults.of(ShardResults.fingerprint(cipherText), shard, 100,
+                    checkpoint.top());
+
+            ShardResults merged = ShardResults.merge(List.of(coordinator.results(), standalone));
+            assertEquals(RANGES, merged.shardCount());
+            assertEquals(List.of(1), merged.shards().stream().map(index -> index + 1).boxed().toList());
+            assertEquals(standalone.top().get(0).getScore(), merged.top().get(0).getScore(), 0);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static void runWorker(int port) throws IOException {
+        EnigmaManager manager = new EnigmaManager();
+        try (Socket socket = new Socket("localhost", port)) {
+            new SweepWorker(socket, manager).run();
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static String cipherText(int length) throws IOException {
+        String plainText = Files.readString(Paths.get("data/plain_text.txt")).trim().substring(0, length);
+        return new FastMachine(KEY).getCipheredText(plainText);
+    }
+}
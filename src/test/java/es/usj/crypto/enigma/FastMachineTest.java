@@ -0,0 +1,123 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.enigma.constant.ReflectorConfiguration;
+import es.usj.crypto.enigma.constant.RotorConfiguration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the table-driven engine against the reference {@link Machine}.
+ */
+public class FastMachineTest {
+
+    private static final int KEYS = 200;
+
+    @Test
+    public void ciphersLikeMachine() {
+        Random random = new Random(1);
+        String text = text(random, 800);
+        for (int i = 0; i < KEYS; i++) {
+            EnigmaConfig key = randomKey(random, false);
+            assertEquals(key.toString(), machine(key).getCipheredText(text), new FastMachine(key).getCipheredText(text));
+        }
+    }
+
+    @Test
+    public void ciphersLikeMachineWithRingSettings() {
+        Random random = new Random(2);
+        String text = text(random, 800);
+        for (int i = 0; i < KEYS; i++) {
+            EnigmaConfig key = randomKey(random, true);
+            assertEquals(key.toString(), machine(key).getCipheredText(text), new FastMachine(key).getCipheredText(text));
+        }
+    }
+
+    @Test
+    public void ringSettingsChangeTheCiphertext() {
+        String text = "THE RING SETTINGS TURN THE WIRING AGAINST THE LETTERS";
+        EnigmaConfig key = new EnigmaConfig(new int[]{2, 5, 3}, "QWE".toCharArray(), "AB:CD");
+        EnigmaConfig ringed = new EnigmaConfig(new int[]{2, 5, 3}, "QWE".toCharArray(), "BUL".toCharArray(), "AB:CD");
+        assertNotEquals(new FastMachine(key).getCipheredText(text), new FastMachine(ringed).getCipheredText(text));
+    }
+
+    @Test
+    public void deciphersItsOwnCiphertext() {
+        Random random = new Random(3);
+        String text = text(random, 500);
+        EnigmaConfig key = randomKey(random, true);
+        String cipherText = new FastMachine(key).getCipheredText(text);
+        assertEquals(text, new FastMachine(key).getCipheredText(cipherText));
+    }
+
+    @Test
+    public void copyCiphersFromTheSameState() {
+        Random random = new Random(4);
+        String text = text(random, 300);
+        FastMachine machine = new FastMachine(randomKey(random, true));
+        machine.advance(1234);
+        FastMachine copy = new FastMachine(machine);
+        assertArrayEquals(machine.getRotorPositions(), copy.getRotorPositions());
+        assertEquals(machine.getCipheredText(text), copy.getCipheredText(text));
+    }
+
+    private static Machine machine(EnigmaConfig key) {
+        int[] types = key.getRotorTypes();
+        char[] positions = key.getRotorPositions();
+        char[] rings = key.getRingSettings();
+        return new Machine(
+                new Plugboard(key.getPlugboard()),
+                new Rotor(RotorConfiguration.getRotorConfiguration(types[2]), positions[2], rings[2]),
+                new Rotor(RotorConfiguration.getRotorConfiguration(types[1]), positions[1], rings[1]),
+                new Rotor(RotorConfiguration.getRotorConfiguration(types[0]), positions[0], rings[0]),
+                new Reflector(ReflectorConfiguration.REFLECTOR_DEFAULT));
+    }
+
+    /**
+     * @return Random uppercase letters with a space after about one in five, long enough for the middle and left rotors
+     * to turn.
+     */
+    private static String text(Random random, int letters) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < letters; i++) {
+            text.append((char) ('A' + random.nextInt(26)));
+            if (random.nextInt(5) == 0) {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    private static EnigmaConfig randomKey(Random random, boolean rings) {
+        List<Integer> types = new ArrayList<>(List.of(1, 2, 3, 4, 5));
+        Collections.shuffle(types, random);
+        char[] positions = new char[3];
+        char[] ringSettings = {'A', 'A', 'A'};
+        for (int i = 0; i < 3; i++) {
+            positions[i] = (char) ('A' + random.nextInt(26));
+            if (rings) {
+                ringSettings[i] = (char) ('A' + random.nextInt(26));
+            }
+        }
+
+        List<Character> letters = new ArrayList<>();
+        for (char c = 'A'; c <= 'Z'; c++) {
+            letters.add(c);
+        }
+        Collections.shuffle(letters, random);
+        StringJoiner plugboard = new StringJoiner(":");
+        int pairs = random.nextInt(11);
+        for (int i = 0; i < pairs; i++) {
+            plugboard.add("" + letters.get(2 * i) + letters.get(2 * i + 1));
+        }
+        return new EnigmaConfig(new int[]{types.get(0), types.get(1), types.get(2)}, positions, ringSettings,
+                plugboard.toString());
+    }
+}
@@ -0,0 +1,101 @@
+package es.usj.crypto.enigma;
+
+import es.usj.crypto.EnigmaConfig;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the shared work of {@link PositionSweep} against scoring every start position on its own.
+ */
+public class PositionSweepTest {
+
+    private static final int[] TYPES = {2, 4, 1};
+    // Middle and right positions; the text is long enough for the middle rotor to pass its notch from any of them, so
+    // the double step and the turns of the left rotor are covered
+    private static final char[][] PAIRS = {{'A', 'A'}, {'J', 'P'}, {'K', 'Q'}, {'J', 'Q'}, {'Z', 'Y'}};
+
+    @Test
+    public void quadgramScoresMatchTheLaneMachine() throws IOException {
+        LaneMachine.Text text = LaneMachine.Text.compile(cipherText());
+        PositionSweep sweep = new PositionSweep(TYPES, text);
+        LaneMachine lanes = new LaneMachine();
+        double[] scores = new double[ScramblerCatalogue.STATES];
+        double[] expected = new double[1];
+        for (char[] pair : PAIRS) {
+            sweep.score(pair[0], pair[1], scores);
+            for (char left = 'A'; left <= 'Z'; left++) {
+                EnigmaConfig config = new EnigmaConfig(TYPES, new char[]{left, pair[0], pair[1]}, "");
+                lanes.score(new EnigmaConfig[]{config}, 1, text, expected);
+                assertEquals(config.toString(), expected[0],
+                        scores[ScramblerCatalogue.stateIndex(left, pair[0], pair[1])], 0);
+            }
+        }
+    }
+
+    @Test
+    public void scoreRightMatchesScore() throws IOException {
+        LaneMachine.Text text = LaneMachine.Text.compile(cipherText());
+        PositionSweep sweep = new PositionSweep(TYPES, text);
+        double[] byRight = new double[ScramblerCatalogue.STATES];
+        double[] byPair = new double[ScramblerCatalogue.STATES];
+        sweep.scoreRight('Q', byRight);
+        for (char middle = 'A'; middle <= 'Z'; middle++) {
+            // A different right position in between, so the right rotor's part is built again
+            sweep.score(middle, 'B', new double[ScramblerCatalogue.STATES]);
+            sweep.score(middle, 'Q', byPair);
+        }
+        for (char middle = 'A'; middle <= 'Z'; middle++) {
+            for (char left = 'A'; left <= 'Z'; left++) {
+                int state = ScramblerCatalogue.stateIndex(left, middle, 'Q');
+                assertEquals("" + left + middle + 'Q', byPair[state], byRight[state], 0);
+            }
+        }
+    }
+
+    @Test
+    public void indexOfCoincidenceMatchesTheDecryption() throws IOException {
+        String cipherText = cipherText();
+        LaneMachine.Text text = LaneMachine.Text.compile(cipherText);
+        PositionSweep sweep = new PositionSweep(TYPES, text);
+        sweep.setStatistic(PositionSweep.Statistic.INDEX_OF_COINCIDENCE);
+        double[] scores = new double[ScramblerCatalogue.STATES];
+        for (char[] pair : PAIRS) {
+            sweep.score(pair[0], pair[1], scores);
+            for (char left = 'A'; left <= 'Z'; left++) {
+                EnigmaConfig config = new EnigmaConfig(TYPES, new char[]{left, pair[0], pair[1]}, "");
+                assertEquals(config.toString(), indexOfCoincidence(new FastMachine(config).getCipheredText(cipherText)),
+                        scores[ScramblerCatalogue.stateIndex(left, pair[0], pair[1])], 1e-12);
+            }
+        }
+    }
+
+    private static double indexOfCoincidence(String text) {
+        int[] counts = new int[26];
+        int length = 0;
+        for (char c : text.toCharArray()) {
+            if (c >= 'A' && c <= 'Z') {
+                counts[c - 'A']++;
+                length++;
+            }
+        }
+        long coincidences = 0;
+        for (int count : counts) {
+            coincidences += (long) count * (count - 1);
+        }
+        return (double) coincidences / ((double) length * (length - 1));
+    }
+
+    /**
+     * @return The sample plain text, three times over so the middle rotor turns often, under a key with plugboard.
+     */
+    private static String cipherText() throws IOException {
+        String plainText = Files.readString(Paths.get("data/plain_text.txt"));
+        EnigmaConfig key = new EnigmaConfig(new int[]{5, 3, 2}, new char[]{'R', 'O', 'T'}, "AQ:BW:CE");
+        return new FastMachine(key).getCipheredText(plainText + " " + plainText + " " + plainText);
+    }
+}
@@ -0,0 +1,124 @@
+package es.usj.crypto.service;
+
+import es.usj.crypto.EnigmaConfig;
+import es.usj.crypto.enigma.FastMachine;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the service rejects invalid jobs when they are submitted, before they reach an engine.
+ */
+public class JobServiceTest {
+
+    private static final String CIPHERTEXT = "QMJID O MZWZJFJR";
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static JobService service;
+
+    @BeforeClass
+    public static void startService() throws IOException {
+        service = new JobService(1, 10, 100, folder.getRoot().toPath().resolve("scramblers.bin"));
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.shutdown();
+    }
+
+    @Test
+    public void decryptJobDeciphersWithTheGivenKey() throws InterruptedException {
+        EnigmaConfig key = new EnigmaConfig(new int[]{2, 5, 3}, "QWE".toCharArray(), "BUL".toCharArray(), "AB:CD");
+        String ciphertext = new FastMachine(key).getCipheredText("HELLO WORLD");
+        CrackJob job = service.submit(decrypt(ciphertext.toLowerCase(), new int[]{2, 5, 3}, "qwe", "bul", "ab:cd"));
+        long version = 0;
+        while (!job.getState().isFinal()) {
+            version = job.awaitChange(version, 10_000);
+        }
+        assertEquals(CrackJob.State.SUCCEEDED, job.getState());
+        assertEquals("HELLO WORLD", job.status().plaintext());
+    }
+
+    @Test
+    public void rotorTypesAreThreeDifferentRotors() {
+        assertRejected(decrypt(null, "AAA", null, null));
+        assertRejected(decrypt(new int[]{1, 2}, "AAA", null, null));
+        assertRejected(decrypt(new int[]{1, 2, 6}, "AAA", null, null));
+        assertRejected(decrypt(new int[]{0, 2, 3}, "AAA", null, null));
+        assertRejected(decrypt(new int[]{1, 2, 1}, "AAA", null, null));
+    }
+
+    @Test
+    public void positionsAndRingsAreThreeLetters() {
+        assertRejected(decrypt(new int[]{1, 2, 3}, null, null, null));
+        assertRejected(decrypt(new int[]{1, 2, 3}, "AB", null, null));
+        assertRejected(decrypt(new int[]{1, 2, 3}, "A1C", null, null));
+        assertRejected(decrypt(new int[]{1, 2, 3}, "AAA", "AAAA", null));
+        assertRejected(decrypt(new int[]{1, 2, 3}, "AAA", "A-A", null));
+    }
+
+    @Test
+    public void plugboardIsPairsOfDifferentLetters() {
+        assertRejected(decrypt(new int[]{1, 2, 3}, "AAA", null, "ABC"));
+        assertRejected(decrypt(new int[]{1, 2, 3}, "AAA", null, "AB:"));
+        assertRejected(decrypt(new int[]{1, 2, 3}, "AAA", null, "AA"));
+        assertRejected(decrypt(new int[]{1, 2, 3}, "AAA", null, "AB:CA"));
+    }
+
+    @Test
+    public void ciphertextIsLettersAndSpacesWithinTheLimit() {
+        assertRejected(new CrackJob.Request("ciphertext", null, null, null, null, null, null, null, null, null));
+        assertRejected(new CrackJob.Request("ciphertext", "ABC1", null, null, null, null, null, null, null, null));
+        assertRejected(new CrackJob.Request("ciphertext", "A".repeat(101), null, null, null, null, null, null, null,
+                null));
+        assertRejected(new CrackJob.Request("guess", CIPHERTEXT, null, null, null, null, null, null, null, null));
+    }
+
+    @Test
+    public void limitsArePositive() {
+        assertRejected(new CrackJob.Request("ciphertext", CIPHERTEXT, 14, null, null, null, null, null, null, null));
+        assertRejected(new CrackJob.Request("ciphertext", CIPHERTEXT, -1, null, null, null, null, null, null, null));
+        assertRejected(new CrackJob.Request("ciphertext", CIPHERTEXT, null, null, null, null, null, null, 0.0, null));
+        assertRejected(new CrackJob.Request("ciphertext", CIPHERTEXT, null, null, null, null, null, null, null, 0L));
+    }
+
+    @Test
+    public void cribsFitTheCiphertext() {
+        assertRejected(bombe(null));
+        assertRejected(bombe(List.of()));
+        assertRejected(bombe(Arrays.asList("HELLO", null)));
+        // Longer than any ciphertext word
+        assertRejected(bombe(List.of("WEATHERREPORT")));
+    }
+
+    private static void assertRejected(CrackJob.Request request) {
+        int jobs = service.list().size();
+        assertThrows(IllegalArgumentException.class, () -> service.submit(request));
+        assertEquals(jobs, service.list().size());
+    }
+
+    private static CrackJob.Request decrypt(int[] rotorTypes, String rotorPositions, String ringSettings,
+                                            String plugboard) {
+        return decrypt(CIPHERTEXT, rotorTypes, rotorPositions, ringSettings, plugboard);
+    }
+
+    private static CrackJob.Request decrypt(String ciphertext, int[] rotorTypes, String rotorPositions,
+                                            String ringSettings, String plugboard) {
+        return new CrackJob.Request("decrypt", ciphertext, null, null, rotorTypes, rotorPositions, ringSettings,
+                plugboard, null, null);
+    }
+
+    private static CrackJob.Request bombe(List<String> cribs) {
+        return new CrackJob.Request("bombe", CIPHERTEXT, null, cribs, null, null, null, null, null, null);
+    }
+}
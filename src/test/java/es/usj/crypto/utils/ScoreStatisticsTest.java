@@ -0,0 +1,98 @@
+package es.usj.crypto.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ScoreStatisticsTest {
+
+    @Test
+    public void meanAndDeviationMatchTwoPasses() {
+        Random random = new Random(1);
+        // Scores far from zero with a small spread, where the naive sum of squares loses every digit
+        double[] scores = new double[10_000];
+        ScoreStatistics statistics = new ScoreStatistics();
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = 1e6 + random.nextGaussian() * 1e-3;
+            statistics.add(scores[i]);
+        }
+
+        double mean = Arrays.stream(scores).average().orElseThrow();
+        double squares = Arrays.stream(scores).map(score -> (score - mean) * (score - mean)).sum();
+        assertEquals(scores.length, statistics.count());
+        assertEquals(mean, statistics.mean(), 1e-7);
+        assertEquals(Math.sqrt(squares / (scores.length - 1)), statistics.standardDeviation(), 1e-7);
+        assertEquals(Arrays.stream(scores).max().orElseThrow(), statistics.max(), 0);
+    }
+
+    @Test
+    public void zScoreExcludingMatchesTheOtherScores() {
+        double[] others = {0.2, 0.25, 0.3, 0.22, 0.27, 0.24};
+        ScoreStatistics statistics = new ScoreStatistics();
+        ScoreStatistics withoutOutlier = new ScoreStatistics();
+        for (double score : others) {
+            statistics.add(score);
+            withoutOutlier.add(score);
+        }
+        statistics.add(0.9);
+
+        double expected = (0.9 - withoutOutlier.mean()) / withoutOutlier.standardDeviation();
+        assertEquals(expected, statistics.zScoreExcluding(0.9), 1e-9);
+        assertEquals(withoutOutlier.zScore(0.9), statistics.zScoreExcluding(0.9), 1e-9);
+        assertTrue(statistics.zScore(0.9) < statistics.zScoreExcluding(0.9));
+    }
+
+    @Test
+    public void fewScoresGiveNoDeviation() {
+        ScoreStatistics statistics = new ScoreStatistics();
+        assertTrue(Double.isNaN(statistics.quantile(0.5)));
+        assertEquals(0, statistics.standardDeviation(), 0);
+        statistics.add(0.4);
+        statistics.add(0.6);
+        assertEquals(0, statistics.zScoreExcluding(0.6), 0);
+        statistics.add(0.6);
+        assertEquals(0, statistics.zScoreExcluding(0.4), 0);
+    }
+
+    @Test
+    public void quantilesOfFewScoresAreReadOffTheScores() {
+        ScoreStatistics statistics = new ScoreStatistics();
+        for (double score : new double[]{0.3, 0.1, 0.2}) {
+            statistics.add(score);
+        }
+        assertEquals(0.2, statistics.quantile(0.5), 0);
+        assertEquals(0.3, statistics.quantile(0.99), 0);
+    }
+
+    @Test
+    public void quantilesOfUniformScores() {
+        Random random = new Random(2);
+        ScoreStatistics statistics = new ScoreStatistics();
+        for (int i = 0; i < 200_000; i++) {
+            statistics.add(random.nextDouble());
+        }
+        assertEquals(0.5, statistics.quantile(0.5), 0.01);
+        assertEquals(0.99, statistics.quantile(0.99), 0.002);
+        assertEquals(0.999, statistics.quantile(0.999), 0.0005);
+    }
+
+    @Test
+    public void quantilesOfNormalScores() {
+        Random random = new Random(3);
+        ScoreStatistics statistics = new ScoreStatistics();
+        for (int i = 0; i < 200_000; i++) {
+            statistics.add(random.nextGaussian());
+        }
+        assertEquals(0, statistics.quantile(0.5), 0.02);
+        assertEquals(2.326, statistics.quantile(0.99), 0.05);
+        assertEquals(3.090, statistics.quantile(0.999), 0.1);
+    }
+
+    @Test
+    public void onlyTheReportedQuantilesAreEstimated() {
+        assertThrows(IllegalArgumentException.class, () -> new ScoreStatistics().quantile(0.25));
+    }
+}
@@ -0,0 +1,101 @@
+package es.usj.crypto.utils;
+
+import es.usj.crypto.EnigmaConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ShardResultsTest {
+
+    // More than 64 shards, so the covered shards take several BitSet words
+    private static final int SHARDS = 130;
+    private static final String FINGERPRINT = ShardResults.fingerprint("QWERTZ UIOP");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writtenResultsReadBackUnchanged() throws IOException {
+        ShardResults results = ShardResults.merge(List.of(
+                ShardResults.of(FINGERPRINT, new Shard(3, SHARDS), 4, List.of(key(10, 0.5), key(20, 0.9))),
+                ShardResults.of(FINGERPRINT, new Shard(100, SHARDS), 4, List.of(key(30, 0.7)))));
+        Path path = folder.getRoot().toPath().resolve("shards.results");
+        results.write(path);
+
+        ShardResults read = ShardResults.read(path);
+        assertEquals(FINGERPRINT, read.fingerprint());
+        assertEquals(SHARDS, read.shardCount());
+        assertEquals(results.shards(), read.shards());
+        assertEquals(4, read.capacity());
+        assertEquals(results.top(), read.top());
+        assertEquals(List.of(0.9, 0.7, 0.5), read.top().stream().map(EnigmaConfig::getScore).toList());
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            // No temporary file is left behind
+            assertEquals(List.of(path), files.toList());
+        }
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("shard.results");
+        ShardResults.of(FINGERPRINT, new Shard(1, SHARDS), 4, List.of(key(10, 0.5))).write(path);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> ShardResults.read(path));
+    }
+
+    @Test
+    public void mergeKeepsTheBestScoreOfEachKeyAndTheCapacity() {
+        ShardResults merged = ShardResults.merge(List.of(
+                ShardResults.of(FINGERPRINT, new Shard(1, SHARDS), 3, List.of(key(10, 0.5), key(20, 0.4))),
+                ShardResults.of(FINGERPRINT, new Shard(2, SHARDS), 3, List.of(key(10, 0.8), key(30, 0.3))),
+                ShardResults.of(FINGERPRINT, new Shard(3, SHARDS), 3, List.of(key(40, 0.6)))));
+        assertEquals(List.of(key(10, 0.8), key(40, 0.6), key(20, 0.4)), merged.top());
+        assertEquals(List.of(0.8, 0.6, 0.4), merged.top().stream().map(EnigmaConfig::getScore).toList());
+    }
+
+    @Test
+    public void mergeCountsEachShardOnceAndListsTheMissingOnes() {
+        ShardResults first = ShardResults.of(FINGERPRINT, new Shard(1, 4), 2, List.of(key(10, 0.5)));
+        ShardResults again = ShardResults.of(FINGERPRINT, new Shard(1, 4), 2, List.of(key(10, 0.5)));
+        ShardResults third = ShardResults.of(FINGERPRINT, new Shard(3, 4), 2, List.of());
+        ShardResults partial = ShardResults.partial(FINGERPRINT, new Shard(4, 4), 2, List.of(key(50, 0.9)));
+
+        ShardResults merged = ShardResults.merge(List.of(first, again, third, partial));
+        assertEquals(2, merged.shards().cardinality());
+        assertEquals(List.of(2, 4), merged.missingShards());
+        assertFalse(merged.isComplete());
+        assertEquals(List.of(key(50, 0.9), key(10, 0.5)), merged.top());
+
+        ShardResults complete = ShardResults.merge(List.of(merged,
+                ShardResults.of(FINGERPRINT, new Shard(2, 4), 2, List.of()),
+                ShardResults.of(FINGERPRINT, new Shard(4, 4), 2, List.of())));
+        assertTrue(complete.isComplete());
+        assertEquals(List.of(), complete.missingShards());
+    }
+
+    @Test
+    public void resultsOfAnotherSearchOrSplitAreNotMerged() {
+        ShardResults results = ShardResults.of(FINGERPRINT, new Shard(1, 4), 2, List.of());
+        assertThrows(IllegalArgumentException.class, () -> ShardResults.merge(List.of(results,
+                ShardResults.of(ShardResults.fingerprint("ASDF"), new Shard(2, 4), 2, List.of()))));
+        assertThrows(IllegalArgumentException.class, () -> ShardResults.merge(List.of(results,
+                ShardResults.of(FINGERPRINT, new Shard(2, 5), 2, List.of()))));
+        assertThrows(IllegalArgumentException.class, () -> ShardResults.merge(List.of()));
+    }
+
+    private static EnigmaConfig key(long key, double score) {
+        EnigmaConfig config = Shard.configOf(key);
+        config.setScore(score);
+        return config;
+    }
+}